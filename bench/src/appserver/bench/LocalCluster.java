@@ -0,0 +1,163 @@
+package appserver.bench;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import appserver.satellite.Satellite;
+import appserver.server.Server;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import web.SimpleWebServer;
+
+/**
+ * Class [LocalCluster] Web server, application server and satellites running inside the benchmark's JVM,
+ * talking to each other over loopback, each on a free port and configured with properties files of its own.
+ * <p>
+ * The components log every request, which would distort what is measured, so their output is dropped
+ * once the cluster is up. The document root defaults to "docRoot" in the working directory and is set
+ * with the system property "bench.docRoot". Nothing is shut down explicitly, the cluster ends with the
+ * JVM forked for the benchmark.
+ */
+public class LocalCluster {
+
+    private final File configDirectory;
+    private final PrintStream out = System.out;
+    private final PrintStream err = System.err;
+
+    private int webServerPort = 0;
+    private int serverPort = 0;
+    private String webServerProperties = null;
+    private String serverProperties = null;
+
+    public LocalCluster() throws IOException {
+        configDirectory = File.createTempFile("bench-config-", "");
+        configDirectory.delete();
+        configDirectory.mkdirs();
+        configDirectory.deleteOnExit();
+    }
+
+    /**
+     * Starts the web server serving the tools
+     * @param toolJar - JAR the tools are published in, null to serve loose class files
+     * @param hotFileCacheSize - bytes of files kept in memory, 0 to read every request from disk
+     */
+    public SimpleWebServer startWebServer(String toolJar, long hotFileCacheSize) throws IOException {
+        webServerPort = freePort();
+        webServerProperties = writeProperties("WebServer.properties",
+                "HOST", "127.0.0.1",
+                "PORT", Integer.toString(webServerPort),
+                "DOC_ROOT", new File(System.getProperty("bench.docRoot", "docRoot")).getAbsolutePath(),
+                "TOOL_JAR", toolJar == null ? "" : toolJar,
+                "HOT_FILE_CACHE_SIZE", Long.toString(hotFileCacheSize));
+        SimpleWebServer webServer = new SimpleWebServer(webServerProperties);
+        start(webServer, "bench-web-server");
+        return webServer;
+    }
+
+    /**
+     * Starts the application server
+     * @param codec - wire codec, "binary" or "serialization"
+     * @param resultCacheSize - results of deterministic tools cached, 0 to run every job
+     */
+    public void startServer(String codec, int resultCacheSize) throws IOException {
+        serverPort = freePort();
+        serverProperties = writeProperties("Server.properties",
+                "HOST", "127.0.0.1",
+                "PORT", Integer.toString(serverPort),
+                "CODEC", codec,
+                "RESULT_CACHE_SIZE", Integer.toString(resultCacheSize));
+        Server server = new Server(serverProperties);
+        start(server::run, "bench-server");
+    }
+
+    /**
+     * Starts a satellite, which registers with the application server and loads its tools from the web server
+     */
+    public void startSatellite(String name) throws IOException {
+        String satelliteProperties = writeProperties("Satellite." + name + ".properties",
+                "NAME", name,
+                "PORT", Integer.toString(freePort()));
+        Satellite satellite = new Satellite(satelliteProperties, webServerProperties, serverProperties);
+        satellite.setDaemon(true);
+        satellite.start();
+    }
+
+    /**
+     * Opens a client connection to the application server
+     */
+    public MessageChannel connect(String codec) throws IOException {
+        return new MessageChannel("127.0.0.1", serverPort, MessageCodecs.preferences(codec));
+    }
+
+    /**
+     * Sends a job until it succeeds, i.e. until satellites registered and loaded the tool
+     * @param timeoutMillis - time to give up after
+     */
+    public void awaitJob(String codec, Job job, long timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try (MessageChannel channel = connect(codec)) {
+                channel.send(new Message(MessageTypes.JOB_REQUEST, job));
+                if (channel.receive().getType() == MessageTypes.JOB_RESULT) {
+                    return;
+                }
+            } catch (IOException e) {
+                // server not accepting yet
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Cluster not ready after " + timeoutMillis + " ms");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    public int getWebServerPort() {
+        return webServerPort;
+    }
+
+    /**
+     * Drops what the components log from here on
+     */
+    public void quiet() {
+        PrintStream none = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(none);
+        System.setErr(none);
+    }
+
+    /**
+     * Restores logging, e.g. before the benchmark's JVM reports its results
+     */
+    public void loud() {
+        System.setOut(out);
+        System.setErr(err);
+    }
+
+    private String writeProperties(String fileName, String... keysAndValues) throws IOException {
+        File file = new File(configDirectory, fileName);
+        file.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(file, "ISO-8859-1")) {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                writer.println(keysAndValues[i] + "\t" + keysAndValues[i + 1]);
+            }
+        }
+        return file.getAbsolutePath();
+    }
+
+    private static void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
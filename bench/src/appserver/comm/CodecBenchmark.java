@@ -0,0 +1,84 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import appserver.job.JobBatch;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [CodecBenchmark] Round trip of a message through a codec: encoded into a frame, as sent by
+ * <code>MessageChannel</code> and the event loops, and decoded again from the frame's payload.
+ * <p>
+ * Encoder and decoder are separate codec instances, like the two ends of a connection, and see the messages
+ * in the same order, so codecs that keep state across messages are measured in their steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"binary", "serialization"})
+    public String codec;
+
+    /**
+     * "job" - a job request, "result" - a job result, "batch" - a batch of 48 Fibonacci jobs
+     */
+    @Param({"job", "result", "batch"})
+    public String message;
+
+    private MessageCodec encoder;
+    private MessageCodec decoder;
+    private Message prototype;
+
+    @Setup
+    public void setUp() throws IOException {
+        int id = MessageCodecs.forName(codec);
+        encoder = MessageCodecs.create(id);
+        decoder = MessageCodecs.create(id);
+
+        switch (message) {
+            case "job":
+                prototype = new Message(MessageTypes.JOB_REQUEST, new Job("appserver.job.impl.PlusOne", 42), 1L);
+                break;
+            case "result":
+                prototype = new Message(MessageTypes.JOB_RESULT, 4660046610375530309L, 1L);
+                break;
+            case "batch":
+                Job[] jobs = new Job[48];
+                for (int i = 0; i < jobs.length; i++) {
+                    jobs[i] = new Job("appserver.job.impl.Fibonacci", i);
+                }
+                prototype = new Message(MessageTypes.JOB_BATCH_REQUEST, new JobBatch(jobs), 1L);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message: " + message);
+        }
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException {
+        ByteBuffer frame = MessageFrames.encode(prototype, encoder);
+        return MessageFrames.decode(frame.array(), frame.arrayOffset() + MessageFrames.HEADER_LENGTH,
+                frame.limit() - MessageFrames.HEADER_LENGTH, decoder);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return MessageFrames.encode(prototype, encoder);
+    }
+}
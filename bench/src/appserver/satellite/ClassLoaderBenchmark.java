@@ -0,0 +1,75 @@
+package appserver.satellite;
+
+import appserver.bench.LocalCluster;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [ClassLoaderBenchmark] Loading a tool's class from a <code>SimpleWebServer</code> running on loopback,
+ * as a satellite does the first time a job asks for the tool. Every invocation uses a new class loader,
+ * which connects, fetches and defines the class. Tool classes are loaded as a bundle of class files
+ * or from the tool JAR, with and without the web server's hot file cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoaderBenchmark {
+
+    private static final String TOOL = "appserver.job.impl.Fibonacci";
+    private static final String TOOL_JAR = "tools/appserver-tools-1.0.jar";
+
+    @Param({"bundle", "jar"})
+    public String loader;
+
+    @Param({"0", "8388608"})
+    public long hotFileCacheSize;
+
+    private LocalCluster cluster;
+
+    @Setup
+    public void setUp() throws Exception {
+        cluster = new LocalCluster();
+        cluster.startWebServer(null, hotFileCacheSize);
+        while (true) {
+            try (Socket probe = new Socket("127.0.0.1", cluster.getWebServerPort())) {
+                break;
+            } catch (java.io.IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        cluster.quiet();
+    }
+
+    @TearDown
+    public void tearDown() {
+        cluster.loud();
+    }
+
+    @Benchmark
+    public Class<?> findClass() throws Exception {
+        // findClass() rather than loadClass(), the tool classes are on the benchmark's class path as well
+        HTTPClassLoader classLoader = loader.equals("jar")
+                ? new JarClassLoader("127.0.0.1", cluster.getWebServerPort(), TOOL_JAR, null)
+                : new HTTPClassLoader("127.0.0.1", cluster.getWebServerPort());
+        try {
+            return classLoader.findClass(TOOL);
+        } finally {
+            classLoader.close();
+        }
+    }
+}
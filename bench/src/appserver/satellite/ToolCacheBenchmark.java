@@ -0,0 +1,81 @@
+package appserver.satellite;
+
+import appserver.job.Tool;
+import appserver.job.ToolLifecycle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [ToolCacheBenchmark] Getting a tool instance for a job from the satellite's tool cache and giving it
+ * back, once the tool's class is loaded, for each of the lifecycles a tool can declare.
+ * All benchmark threads share one cache, like the workers of a satellite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ToolCacheBenchmark {
+
+    @Param({"SHARED", "POOLED", "PER_INVOCATION"})
+    public String lifecycle;
+
+    private ToolCache toolCache;
+    private String toolName;
+
+    @Setup
+    public void setUp() throws Exception {
+        toolCache = new ToolCache(ToolCacheBenchmark.class.getClassLoader());
+        switch (ToolLifecycle.Scope.valueOf(lifecycle)) {
+            case SHARED:
+                toolName = "appserver.job.impl.Fibonacci";
+                break;
+            case POOLED:
+                toolName = PooledTool.class.getName();
+                break;
+            default:
+                toolName = PerInvocationTool.class.getName();
+        }
+        // load the class, only cache hits are measured
+        toolCache.acquire(toolName).release();
+    }
+
+    @Benchmark
+    public Tool acquire() throws Exception {
+        ToolCache.Lease lease = toolCache.acquire(toolName);
+        Tool tool = lease.getTool();
+        lease.release();
+        return tool;
+    }
+
+    @ToolLifecycle(ToolLifecycle.Scope.POOLED)
+    public static class PooledTool implements Tool {
+
+        @Override
+        public Object go(Object parameters) {
+            return parameters;
+        }
+    }
+
+    @ToolLifecycle(ToolLifecycle.Scope.PER_INVOCATION)
+    public static class PerInvocationTool implements Tool {
+
+        @Override
+        public Object go(Object parameters) {
+            return parameters;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package appserver.server;
+
+import appserver.bench.LocalCluster;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [EndToEndBenchmark] Latency of a job from a client through the application server to a satellite
+ * and back, with web server, server and satellites running on loopback, see <code>LocalCluster</code>.
+ * <p>
+ * The result cache of the server is off, so every job reaches a satellite. Each benchmark thread keeps
+ * its own client connection, the number of concurrent clients is set with JMH's "-t" option.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    /**
+     * The cluster, one per benchmark run
+     */
+    @State(Scope.Benchmark)
+    public static class Cluster {
+
+        @Param({"binary", "serialization"})
+        public String codec;
+
+        @Param({"3"})
+        public int satellites;
+
+        LocalCluster cluster;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            cluster = new LocalCluster();
+            cluster.startWebServer(null, 8388608L);
+            cluster.startServer(codec, 0);
+            for (int i = 0; i < satellites; i++) {
+                cluster.startSatellite("Satellite-" + i);
+            }
+            cluster.awaitJob(codec, new Job("appserver.job.impl.PlusOne", 42), 30000);
+            cluster.quiet();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            cluster.loud();
+        }
+    }
+
+    /**
+     * A client's connection to the server
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        MessageChannel channel;
+
+        @Setup(Level.Trial)
+        public void setUp(Cluster cluster) throws IOException {
+            channel = cluster.cluster.connect(cluster.codec);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final Job PLUS_ONE = new Job("appserver.job.impl.PlusOne", 42);
+    private static final Job FIBONACCI = new Job("appserver.job.impl.Fibonacci", 90);
+
+    @Benchmark
+    public Object plusOne(Client client) throws IOException {
+        return run(client, PLUS_ONE);
+    }
+
+    @Benchmark
+    public Object fibonacci(Client client) throws IOException {
+        return run(client, FIBONACCI);
+    }
+
+    private static Object run(Client client, Job job) throws IOException {
+        client.channel.send(new Message(MessageTypes.JOB_REQUEST, job));
+        Message reply = client.channel.receive();
+        if (reply.getType() != MessageTypes.JOB_RESULT) {
+            throw new IllegalStateException("Job failed: " + reply.getContent());
+        }
+        return reply.getContent();
+    }
+}
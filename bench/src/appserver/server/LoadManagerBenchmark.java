@@ -0,0 +1,60 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Class [LoadManagerBenchmark] Picking a satellite for a job and accounting the job's completion,
+ * as done for every job the server dispatches, with all benchmark threads sharing one load manager.
+ * <p>
+ * The number of threads contending is set with JMH's "-t" option, 8 by default.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LoadManagerBenchmark {
+
+    @Param({LoadManager.ROUND_ROBIN, LoadManager.LEAST_OUTSTANDING, LoadManager.POWER_OF_TWO_CHOICES, LoadManager.EWMA_LATENCY})
+    public String policy;
+
+    @Param({"3", "32"})
+    public int satellites;
+
+    private LoadManager loadManager;
+
+    @Setup
+    public void setUp() {
+        SatelliteManager satelliteManager = new SatelliteManager();
+        for (int i = 0; i < satellites; i++) {
+            ConnectivityInfo info = new ConnectivityInfo();
+            info.setName("Satellite-" + i);
+            info.setHost("127.0.0.1");
+            info.setPort(25000 + i);
+            satelliteManager.registerSatellite(info);
+        }
+        loadManager = new LoadManager(satelliteManager, policy);
+    }
+
+    @Benchmark
+    public SatelliteEntry nextSatellite() throws Exception {
+        SatelliteEntry satellite = loadManager.nextSatellite();
+        loadManager.jobCompleted(satellite, 250000L, true);
+        return satellite;
+    }
+}
@@ -1,18 +1,20 @@
 package appserver.client;
 
+import appserver.comm.BatchResult;
 import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
 import appserver.comm.MessageTypes;
-import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_BATCH_REQUEST;
 import appserver.job.Job;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import appserver.job.JobBatch;
 import java.util.Properties;
 
 import utils.PropertyHandler;
 
 /**
- * Class [FibonacciClient] A primitive Fibonacci client that uses the Fibonacci tool
+ * Class [FibonacciClient] A primitive Fibonacci client that uses the Fibonacci tool.
+ * All sequence numbers are sent in one job batch, results come back tagged with their sequence number.
  * 
  * @author Jacob Kaufman
  */
@@ -20,52 +22,59 @@ public class FibonacciClient extends Thread implements MessageTypes{
     
     String host = null;
     int port;
-    int sequenceNumber;
+    int numbers;
 
     Properties properties;
     /** 
      * Initializer
      * @param serverPropertiesFile - server config file
-     * @param currentNumber - current Fibonacci sequence number 
+     * @param numbers - number of Fibonacci sequence numbers to compute, starting from 0
      */
-    public FibonacciClient(String serverPropertiesFile, int currentNumber) {
+    public FibonacciClient(String serverPropertiesFile, int numbers) {
         try {
             properties = new PropertyHandler(serverPropertiesFile);
             host = properties.getProperty("HOST");
-            System.out.println("[PlusOneClient.PlusOneClient] Host: " + host);
+            System.out.println("[FibonacciClient.FibonacciClient] Host: " + host);
             port = Integer.parseInt(properties.getProperty("PORT"));
-            System.out.println("[PlusOneClient.PlusOneClient] Port: " + port);
-            this.sequenceNumber = currentNumber;
+            System.out.println("[FibonacciClient.FibonacciClient] Port: " + port);
+            this.numbers = numbers;
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
     
     /**
-     * Runs FibonacciClient for each sequence number. Connects to the applications server and creates the job to obtain
-     * each result.
+     * Runs FibonacciClient. Connects to the applications server and sends one job per sequence number
+     * in a single batch, then prints the results in the order they complete.
      */
     public void run() {
         try { 
             // connect to application server
-            Socket server = new Socket(host, port);
+            MessageChannel server = new MessageChannel(host, port, MessageCodecs.preferences(properties.getProperty("CODEC")));
             
             // hard-coded string of class, aka tool name ... plus one argument
             String classString = "appserver.job.impl.Fibonacci";
             
-            // create job and job request message
-            Job job = new Job(classString, sequenceNumber);
-            Message message = new Message(JOB_REQUEST, job);
+            // create jobs, the job at index i computes sequence number i
+            Job[] jobs = new Job[numbers];
+            for (int i = 0; i < numbers; i++) {
+                jobs[i] = new Job(classString, i);
+            }
             
-            // sending job out to the application server in a message
-            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
-            writeToNet.writeObject(message);
+            // sending the jobs out to the application server in one message
+            server.send(new Message(JOB_BATCH_REQUEST, new JobBatch(jobs)));
             
-            // reading result back in from application server
-            // for simplicity, the result is not encapsulated in a message
-            ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
-            long result = (long) readFromNet.readObject();
-            System.out.println("Fibonacci of " + sequenceNumber +  ": " + result);
+            // reading results back in from application server, one per job
+            for (int i = 0; i < numbers; i++) {
+                Message reply = server.receive();
+                BatchResult result = (BatchResult) reply.getContent();
+                if (!result.isFailed()) {
+                    System.out.println("Fibonacci of " + result.getIndex() +  ": " + result.getContent());
+                } else {
+                    System.err.println("[FibonacciClient.run] Job " + result.getIndex() + " failed: " + result.getContent());
+                }
+            }
+            server.close();
         } catch (Exception ex) {
             System.err.println("[FibonacciClient.run] Error occurred");
             ex.printStackTrace();
@@ -73,12 +82,12 @@ public class FibonacciClient extends Thread implements MessageTypes{
     }
 
     /**
-     * Run the fibonacci Client for sequence numbers 0 - 47
-     * @param args - command line arguments
+     * Run the fibonacci Client for sequence numbers 0 - 47, or 0 up to the count given less one.
+     * Results beyond sequence number 91 no longer fit into a long and come back as BigInteger.
+     * @param args - command line arguments, optionally the number of sequence numbers
      */
     public static void main(String[] args) {
-        for(int i = 0; i < 48; i++ ){
-            (new FibonacciClient("../../config/Server.properties",i)).start();
-        }
+        int numbers = args.length > 0 ? Integer.parseInt(args[0]) : 48;
+        (new FibonacciClient("../../config/Server.properties", numbers)).start();
     }  
 }
@@ -0,0 +1,83 @@
+package appserver.client;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import appserver.comm.MessageTypes;
+import appserver.job.Job;
+import java.util.Properties;
+
+import utils.PropertyHandler;
+
+/**
+ * Class [FibonacciStreamClient] A primitive client that streams the Fibonacci sequence using the
+ * FibonacciSequence tool. Results are printed as they come in, the client asks for more chunks
+ * every time it has taken half of its window.
+ */
+public class FibonacciStreamClient implements MessageTypes {
+
+    static final int WINDOW = 8; // chunks the client is ready to take at any time
+
+    String host = null;
+    int port;
+    int last;
+
+    Properties properties;
+
+    /**
+     * Initializer
+     * @param serverPropertiesFile - server config file
+     * @param last - last sequence number to stream
+     */
+    public FibonacciStreamClient(String serverPropertiesFile, int last) {
+        try {
+            properties = new PropertyHandler(serverPropertiesFile);
+            host = properties.getProperty("HOST");
+            System.out.println("[FibonacciStreamClient.FibonacciStreamClient] Host: " + host);
+            port = Integer.parseInt(properties.getProperty("PORT"));
+            System.out.println("[FibonacciStreamClient.FibonacciStreamClient] Port: " + port);
+            this.last = last;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public void run() {
+        try {
+            // connect to application server
+            MessageChannel server = new MessageChannel(host, port, MessageCodecs.preferences(properties.getProperty("CODEC")));
+
+            // request the stream and grant the initial window
+            Job job = new Job("appserver.job.impl.FibonacciSequence", last);
+            server.send(new Message(STREAM_REQUEST, job));
+            server.send(new Message(STREAM_CREDIT, WINDOW));
+
+            // reading chunks back in from application server until the stream ends
+            int sequenceNumber = 0;
+            int taken = 0;
+            while (true) {
+                Message reply = server.receive();
+                if (reply.getType() == STREAM_CHUNK) {
+                    System.out.println("Fibonacci of " + sequenceNumber++ + ": " + reply.getContent());
+                    if (++taken == WINDOW / 2) {
+                        server.send(new Message(STREAM_CREDIT, taken));
+                        taken = 0;
+                    }
+                } else if (reply.getType() == STREAM_END) {
+                    break;
+                } else {
+                    System.err.println("[FibonacciStreamClient.run] Stream failed: " + reply.getContent());
+                    break;
+                }
+            }
+            server.close();
+        } catch (Exception ex) {
+            System.err.println("[FibonacciStreamClient.run] Error occurred");
+            ex.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) {
+        (new FibonacciStreamClient("../../config/Server.properties", 90)).run();
+    }
+}
@@ -0,0 +1,459 @@
+package appserver.client;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import appserver.comm.MessageTypes;
+import appserver.comm.SatelliteLease;
+import appserver.job.Job;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import utils.Log;
+import utils.PropertyHandler;
+
+/**
+ * Class [JobClient] Runs jobs on the application server without blocking the caller.
+ * <p>
+ * <code>submit()</code> sends a job and returns a future of its result right away. The jobs are pipelined
+ * over a few long-lived connections to the server, each tagged with a correlation ID, so one thread can keep
+ * thousands of jobs in flight. Replies may come back in any order, a reader thread per connection
+ * completes the futures.
+ * <p>
+ * With direct routing, every connection leases a satellite from the server and sends its jobs straight
+ * to the satellite while the lease lasts, so results take one hop instead of two. Leases are renewed
+ * in the background before they end. Until a connection holds a lease, e.g. right after start or when
+ * the server does not grant leases, its jobs go through the server.
+ * <p>
+ * A job's future fails with <code>JobFailedException</code> if the job failed or a saturated satellite
+ * turned it away, with <code>TimeoutException</code> if it was not answered in time, and with
+ * <code>IOException</code> if the connection it went out on failed. Cancelling the future forgets the job:
+ * the server still runs it, its result is dropped when it arrives. Connections that failed are set up
+ * again for the next job.
+ * <p>
+ * Configured in the server's properties file, see <code>JobClient(String)</code>.
+ */
+public class JobClient implements Closeable, MessageTypes {
+
+    // values of the ROUTING property
+    public static final String RELAY = "relay";
+    public static final String DIRECT = "direct";
+
+    // a lease is renewed once less than this share of it is left
+    private static final int RENEW_AT = 4;
+    // after a lease was refused, the next one is asked for this much later
+    private static final long LEASE_RETRY_MILLIS = 5000;
+    private static final long LEASE_REQUEST_TIMEOUT_MILLIS = 10000;
+
+    private final String host;
+    private final int port;
+    private final int[] codecPreferences;
+    private final long timeoutMillis;
+    private final boolean direct;
+
+    private final Slot[] slots;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile boolean closed = false;
+
+    // sets up connections and renews leases in the background, submit() never blocks on either
+    private final ExecutorService connector = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "job-client-connector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Initializes JobClient from the server's properties file: HOST, PORT and CODEC of the server,
+     * CLIENT_CONNECTIONS to keep open (default 1), JOB_TIMEOUT in milliseconds (default 0, no timeout)
+     * and ROUTING, "relay" (default) or "direct"
+     * @param serverPropertiesFile - server config file
+     */
+    public JobClient(String serverPropertiesFile) throws IOException {
+        this(new PropertyHandler(serverPropertiesFile));
+    }
+
+    private JobClient(PropertyHandler properties) {
+        this(properties.getProperty("HOST"),
+                Integer.parseInt(properties.getProperty("PORT").trim()),
+                MessageCodecs.preferences(properties.getProperty("CODEC")),
+                Integer.parseInt(properties.getProperty("CLIENT_CONNECTIONS", "1").trim()),
+                Long.parseLong(properties.getProperty("JOB_TIMEOUT", "0").trim()),
+                DIRECT.equals(properties.getProperty("ROUTING", RELAY).trim()));
+    }
+
+    /**
+     * Initializes JobClient, jobs go through the server
+     * @param host - host of the server
+     * @param port - port of the server
+     * @param codecPreferences - codecs to offer, see <code>MessageCodecs</code>
+     * @param connections - number of connections to keep open to the server
+     * @param timeoutMillis - milliseconds a job may take, 0 for no timeout
+     */
+    public JobClient(String host, int port, int[] codecPreferences, int connections, long timeoutMillis) {
+        this(host, port, codecPreferences, connections, timeoutMillis, false);
+    }
+
+    /**
+     * Initializes JobClient
+     * @param host - host of the server
+     * @param port - port of the server
+     * @param codecPreferences - codecs to offer, see <code>MessageCodecs</code>
+     * @param connections - number of connections to keep open to the server
+     * @param timeoutMillis - milliseconds a job may take, 0 for no timeout
+     * @param direct - <code>true</code> to send jobs to leased satellites directly
+     */
+    public JobClient(String host, int port, int[] codecPreferences, int connections, long timeoutMillis, boolean direct) {
+        this.host = host;
+        this.port = port;
+        this.codecPreferences = codecPreferences;
+        this.timeoutMillis = timeoutMillis;
+        this.direct = direct;
+        slots = new Slot[Math.max(1, connections)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(i);
+        }
+    }
+
+    /**
+     * Sends a job to the server, it times out after the default timeout, if any
+     * @param job - the job
+     * @return future of the job's result
+     */
+    public CompletableFuture<Object> submit(Job job) {
+        return submit(job, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a job to the server, or to the satellite leased
+     * @param job - the job
+     * @param timeout - time the job may take, 0 for no timeout
+     * @param unit - unit of the timeout
+     * @return future of the job's result
+     */
+    public CompletableFuture<Object> submit(Job job, long timeout, TimeUnit unit) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        if (timeout > 0) {
+            result.orTimeout(timeout, unit);
+        }
+        if (closed) {
+            result.completeExceptionally(new IOException("Job client is closed"));
+            return result;
+        }
+
+        final Slot slot = slots[Math.floorMod(nextSlot.getAndIncrement(), slots.length)];
+        final Message request = new Message(JOB_REQUEST, job);
+        Connection connection = direct ? slot.satelliteConnection() : null;
+        if (connection == null) {
+            connection = slot.serverConnection();
+        }
+        if (connection != null) {
+            connection.send(request, result);
+        } else {
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return slot.connectServer();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, connector).whenComplete((fresh, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                } else {
+                    fresh.send(request, result);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Number of jobs sent that are still waiting for their result
+     */
+    public int pendingJobs() {
+        int pending = 0;
+        for (Slot slot : slots) {
+            pending += slot.pendingJobs();
+        }
+        return pending;
+    }
+
+    /**
+     * Closes the connections, jobs still waiting for their result fail
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Slot slot : slots) {
+            slot.close();
+        }
+        connector.shutdown();
+    }
+
+    /**
+     * Class [Slot] One connection to the server and, with direct routing, the connection to the satellite
+     * it leased. Connections are opened on first use and replaced once they fail.
+     */
+    private class Slot {
+
+        private final int number;
+        private Connection server = null; // guarded by this
+        private Connection satellite = null; // guarded by this
+        private String satelliteName = null; // guarded by this
+        private long leaseEnd = 0; // System.nanoTime() the lease ends, guarded by this
+        private long leaseRenewal = 0; // System.nanoTime() the lease is to be renewed from, guarded by this
+        private boolean leasing = false; // guarded by this
+
+        Slot(int number) {
+            this.number = number;
+            leaseRenewal = System.nanoTime();
+        }
+
+        /**
+         * Returns the connection to the server, or <code>null</code> if it has to be (re)established
+         */
+        synchronized Connection serverConnection() {
+            return server != null && server.isOpen() ? server : null;
+        }
+
+        Connection connectServer() throws IOException {
+            Connection connection = serverConnection();
+            if (connection != null) {
+                return connection;
+            }
+
+            // (re)connect outside of the lock, jobs on the satellite connection go on meanwhile
+            Connection fresh = new Connection(new MessageChannel(host, port, codecPreferences), "job-client-reader-" + number);
+            synchronized (this) {
+                if (closed) {
+                    fresh.close(new IOException("Job client is closed"));
+                    throw new IOException("Job client is closed");
+                }
+                if (server != null && server.isOpen()) {
+                    // someone else was faster
+                    fresh.close(new IOException("Connection not needed"));
+                    return server;
+                }
+                server = fresh;
+            }
+            return fresh;
+        }
+
+        /**
+         * Returns the connection to the satellite leased, or <code>null</code> if there is no valid lease.
+         * Starts renewing the lease in the background when it is about to end.
+         */
+        Connection satelliteConnection() {
+            Connection connection;
+            boolean renew;
+            synchronized (this) {
+                long now = System.nanoTime();
+                connection = satellite != null && satellite.isOpen() && now - leaseEnd < 0 ? satellite : null;
+                renew = !leasing && !closed && (now - leaseRenewal >= 0 || (connection == null && satellite != null));
+                if (renew) {
+                    leasing = true;
+                }
+            }
+            if (renew) {
+                try {
+                    connector.execute(this::renewLease);
+                } catch (RuntimeException e) {
+                    // closed meanwhile
+                    synchronized (this) {
+                        leasing = false;
+                    }
+                }
+            }
+            return connection;
+        }
+
+        /**
+         * Asks the server for a lease and connects to the satellite, unless it is the one leased before
+         */
+        private void renewLease() {
+            try {
+                CompletableFuture<Object> reply = new CompletableFuture<>();
+                reply.orTimeout(LEASE_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                connectServer().send(new Message(ROUTE_REQUEST, null), reply);
+                SatelliteLease lease = (SatelliteLease) reply.join();
+                ConnectivityInfo satelliteInfo = lease.getSatelliteInfo();
+
+                Connection current;
+                synchronized (this) {
+                    current = satellite != null && satellite.isOpen() && satelliteInfo.getName().equals(satelliteName) ? satellite : null;
+                }
+                Connection fresh = current != null ? current : new Connection(
+                        new MessageChannel(satelliteInfo.getHost(), satelliteInfo.getPort(), codecPreferences),
+                        "job-client-satellite-" + number);
+
+                Connection old;
+                synchronized (this) {
+                    if (closed) {
+                        fresh.close(new IOException("Job client is closed"));
+                        return;
+                    }
+                    old = satellite != fresh ? satellite : null;
+                    satellite = fresh;
+                    satelliteName = satelliteInfo.getName();
+                    long now = System.nanoTime();
+                    long ttlNanos = TimeUnit.MILLISECONDS.toNanos(lease.getTtlMillis());
+                    leaseEnd = now + ttlNanos;
+                    leaseRenewal = now + ttlNanos - ttlNanos / RENEW_AT;
+                }
+                if (old != null) {
+                    // jobs still running there are answered on the old connection
+                    old.retire();
+                }
+                if (current == null) {
+                    Log.debug("JobClient.renewLease", "Sending jobs to {} directly", lease);
+                }
+            } catch (IOException | RuntimeException e) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                Log.warn("JobClient.renewLease", "No lease, jobs go through the server: {}", cause);
+                synchronized (this) {
+                    satellite = null;
+                    leaseRenewal = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LEASE_RETRY_MILLIS);
+                }
+            } finally {
+                synchronized (this) {
+                    leasing = false;
+                }
+            }
+        }
+
+        synchronized int pendingJobs() {
+            return (server != null ? server.pending.size() : 0) + (satellite != null ? satellite.pending.size() : 0);
+        }
+
+        synchronized void close() {
+            IOException cause = new IOException("Job client closed");
+            if (server != null) {
+                server.close(cause);
+            }
+            if (satellite != null) {
+                satellite.close(cause);
+            }
+        }
+    }
+
+    /**
+     * Class [Connection] One connection to the server or a satellite, and the requests sent on it
+     * that are not answered yet
+     */
+    private class Connection {
+
+        private final MessageChannel channel;
+        // requests sent, but not answered yet, by correlation ID
+        private final ConcurrentHashMap<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+        private volatile boolean open = true;
+        private volatile boolean retired = false; // closed once the requests pending are answered
+
+        Connection(MessageChannel channel, String readerName) {
+            this.channel = channel;
+            Thread reader = new Thread(this::receiveReplies, readerName);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Sends a request
+         * @param request - the request, its ID is overwritten with a fresh correlation ID
+         * @param result - completed with the content of the reply
+         */
+        void send(Message request, CompletableFuture<Object> result) {
+            final long id = nextId.incrementAndGet();
+            request.setId(id);
+            pending.put(id, result);
+            if (!open && pending.remove(id) != null) {
+                // closed concurrently, the reader is not going to see this request
+                result.completeExceptionally(new IOException("Connection is closed"));
+                return;
+            }
+            // timed out or cancelled, the result is not waited for anymore
+            result.whenComplete((value, error) -> {
+                if (error != null) {
+                    pending.remove(id);
+                }
+            });
+
+            try {
+                channel.send(request);
+            } catch (IOException e) {
+                pending.remove(id);
+                result.completeExceptionally(e);
+                close(e);
+            }
+        }
+
+        /**
+         * Takes no more requests, the connection is closed once those pending are answered
+         */
+        void retire() {
+            retired = true;
+            if (pending.isEmpty()) {
+                close(new IOException("Lease ended"));
+            }
+        }
+
+        /**
+         * Reader loop, matches replies to pending requests by correlation ID.
+         * Whatever ends it, the connection is closed and the requests still pending fail.
+         */
+        private void receiveReplies() {
+            try {
+                while (true) {
+                    Message reply = channel.receive();
+                    CompletableFuture<Object> result = pending.remove(reply.getId());
+                    int type = reply.getType();
+                    if (result == null) {
+                        Log.debug("JobClient.receiveReplies", "Result of job #{} is not waited for anymore", reply.getId());
+                    } else if (type == JOB_RESULT || type == CACHEABLE_JOB_RESULT || type == ROUTE_LEASE) {
+                        result.complete(reply.getContent());
+                    } else {
+                        result.completeExceptionally(new JobFailedException(String.valueOf(reply.getContent())));
+                    }
+                    if (retired && pending.isEmpty()) {
+                        close(new IOException("Lease ended"));
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close(e);
+            } catch (RuntimeException e) {
+                Log.error("JobClient.receiveReplies", "Closing connection after unexpected failure: {}", e);
+                close(e);
+            }
+        }
+
+        synchronized void close(Exception cause) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+
+            // nobody is going to answer the requests still pending
+            Iterator<CompletableFuture<Object>> results = pending.values().iterator();
+            while (results.hasNext()) {
+                results.next().completeExceptionally(cause);
+                results.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package appserver.client;
+
+/**
+ * Class [JobFailedException] A job was answered with JOB_FAILED, e.g. because its tool threw an exception
+ * or no satellite could take it. The message is the reason given by the server.
+ */
+public class JobFailedException extends Exception {
+
+    public JobFailedException(String reason) {
+        super(reason);
+    }
+}
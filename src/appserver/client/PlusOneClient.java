@@ -1,12 +1,9 @@
 package appserver.client;
 
-import appserver.comm.Message;
 import appserver.comm.MessageTypes;
 import appserver.job.Job;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 
 import utils.PropertyHandler;
 
@@ -19,10 +16,12 @@ public class PlusOneClient implements MessageTypes{
     
     String host = null;
     int port;
+    String serverPropertiesFile;
 
     Properties properties;
 
     public PlusOneClient(String serverPropertiesFile) {
+        this.serverPropertiesFile = serverPropertiesFile;
         try {
             properties = new PropertyHandler(serverPropertiesFile);
             host = properties.getProperty("HOST");
@@ -35,27 +34,17 @@ public class PlusOneClient implements MessageTypes{
     }
     
     public void run() {
-        try { 
-            // connect to application server
-            Socket server = new Socket(host, port);
-            
+        try (JobClient server = new JobClient(serverPropertiesFile)) {
             // hard-coded string of class, aka tool name ... plus one argument
             String classString = "appserver.job.impl.PlusOne";
             Integer number = new Integer(42);
             
-            // create job and job request message
+            // create job and send it out to the application server, then wait for its result
             Job job = new Job(classString, number);
-            Message message = new Message(JOB_REQUEST, job);
-            
-            // sending job out to the application server in a message
-            ObjectOutputStream writeToNet = new ObjectOutputStream(server.getOutputStream());
-            writeToNet.writeObject(message);
-            
-            // reading result back in from application server
-            // for simplicity, the result is not encapsulated in a message
-            ObjectInputStream readFromNet = new ObjectInputStream(server.getInputStream());
-            Integer result = (Integer) readFromNet.readObject();
+            Integer result = (Integer) server.submit(job).get();
             System.out.println("RESULT: " + result);
+        } catch (ExecutionException ex) {
+            System.err.println("[PlusOneClient.run] Job failed: " + ex.getCause().getMessage());
         } catch (Exception ex) {
             System.err.println("[PlusOneClient.run] Error occurred");
             ex.printStackTrace();
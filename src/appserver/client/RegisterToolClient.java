@@ -0,0 +1,73 @@
+package appserver.client;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import appserver.comm.MessageTypes;
+import appserver.comm.ToolVersion;
+import java.util.Properties;
+
+import utils.PropertyHandler;
+
+/**
+ * Class [RegisterToolClient] Rolls out a new version of a tool to all satellites, without restarting them.
+ * The new version's classes have to be published on the web server first, as loose class files or in a JAR.
+ * <p>
+ * Usage: RegisterToolClient &lt;tool class&gt; &lt;version&gt; [&lt;JAR path on the web server&gt;]
+ */
+public class RegisterToolClient implements MessageTypes {
+
+    String host = null;
+    int port;
+    ToolVersion toolVersion;
+
+    Properties properties;
+
+    /**
+     * Initializer
+     * @param serverPropertiesFile - server config file
+     * @param toolVersion - the version to register
+     */
+    public RegisterToolClient(String serverPropertiesFile, ToolVersion toolVersion) {
+        try {
+            properties = new PropertyHandler(serverPropertiesFile);
+            host = properties.getProperty("HOST");
+            System.out.println("[RegisterToolClient.RegisterToolClient] Host: " + host);
+            port = Integer.parseInt(properties.getProperty("PORT"));
+            System.out.println("[RegisterToolClient.RegisterToolClient] Port: " + port);
+            this.toolVersion = toolVersion;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public void run() {
+        try {
+            // connect to application server
+            MessageChannel server = new MessageChannel(host, port, MessageCodecs.preferences(properties.getProperty("CODEC")));
+
+            server.send(new Message(REGISTER_TOOL, toolVersion));
+
+            // the reply tells how every satellite did
+            Message reply = server.receive();
+            if (reply.getType() == JOB_RESULT) {
+                System.out.println("REGISTERED: " + reply.getContent());
+            } else {
+                System.err.println("[RegisterToolClient.run] Registration failed: " + reply.getContent());
+            }
+            server.close();
+        } catch (Exception ex) {
+            System.err.println("[RegisterToolClient.run] Error occurred");
+            ex.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: RegisterToolClient <tool class> <version> [<JAR path on the web server>]");
+            System.exit(1);
+        }
+        ToolVersion toolVersion = new ToolVersion(args[0], args[1], args.length > 2 ? args[2] : null);
+        (new RegisterToolClient("../../config/Server.properties", toolVersion)).run();
+    }
+}
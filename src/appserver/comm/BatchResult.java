@@ -0,0 +1,42 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [BatchResult] Content of a JOB_BATCH_RESULT message: the outcome of one job of a batch.
+ * Every job of a batch gets its own result, results arrive in the order the jobs complete.
+ * A batch without jobs is answered with one result of index -1, so the client learns that it is done.
+ */
+public class BatchResult implements Serializable {
+
+    int index;
+    boolean failed;
+    Object content;
+
+    /**
+     * @param index - index of the job in its batch
+     * @param failed - <code>true</code> if the job failed
+     * @param content - the job's result, or the reason why it failed
+     */
+    public BatchResult(int index, boolean failed, Object content) {
+        this.index = index;
+        this.failed = failed;
+        this.content = content;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public Object getContent() {
+        return content;
+    }
+}
@@ -0,0 +1,399 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import appserver.job.JobBatch;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import utils.Log;
+
+/**
+ * Class [BinaryCodec] Compact binary encoding of messages.
+ * <p>
+ * Every value is written as a one byte type tag followed by its data. Integral numbers are written as
+ * variable-length integers, strings as UTF-8. Jobs, connectivity information and common parameter types
+ * have their own tags. Any other object is embedded in Java serialized form.
+ * <p>
+ * Tool names are sent in full only once per connection. Each side assigns the next number to every
+ * new tool name, and later jobs refer to the tool by that number. Names are only remembered once the frame
+ * defining them has been encoded completely, a frame that fails to encode leaves the numbering as it was.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    // type tags
+    static final int T_NULL = 0;
+    static final int T_TRUE = 1;
+    static final int T_FALSE = 2;
+    static final int T_INTEGER = 3;
+    static final int T_LONG = 4;
+    static final int T_DOUBLE = 5;
+    static final int T_STRING = 6;
+    static final int T_BYTES = 7;
+    static final int T_BIG_INTEGER = 8;
+    static final int T_JOB = 16;
+    static final int T_CONNECTIVITY_INFO = 17;
+    static final int T_SATELLITE_STATUS = 18;
+    static final int T_JOB_BATCH = 19;
+    static final int T_BATCH_RESULT = 20;
+    static final int T_TOOL_VERSION = 21;
+    static final int T_SATELLITE_LEASE = 22;
+    static final int T_SERIALIZED = 127;
+
+    // tool references: inline name, inline name to be remembered, or number of a remembered name + TOOL_DEFINED
+    static final int TOOL_INLINE = 0;
+    static final int TOOL_DEFINE = 1;
+    static final int TOOL_DEFINED = 2;
+    static final int MAX_TOOL_NAMES = 1024;
+
+    // tool names this side has sent and received, each direction numbers names on its own
+    private final HashMap<String, Integer> sentToolNames = new HashMap<>();
+    private final ArrayList<String> receivedToolNames = new ArrayList<>();
+    // tool names defined by the frame being encoded, numbered after the ones sent
+    private final ArrayList<String> definedToolNames = new ArrayList<>();
+
+    @Override
+    public int getId() {
+        return MessageCodecs.BINARY;
+    }
+
+    @Override
+    public void encode(Message message, OutputStream out) throws IOException {
+        definedToolNames.clear();
+        writeVarLong(out, message.getType());
+        writeVarLong(out, message.getId());
+        writeValue(out, message.getContent());
+
+        // the frame is complete, the peer is going to learn the names it defines
+        for (String toolName : definedToolNames) {
+            sentToolNames.put(toolName, sentToolNames.size());
+        }
+        definedToolNames.clear();
+    }
+
+    @Override
+    public Message decode(byte[] payload, int offset, int length) throws IOException {
+        Input in = new Input(payload, offset, length);
+        int type = (int) in.readVarLong();
+        long id = in.readVarLong();
+        Object content = readValue(in);
+        if (in.position != in.limit) {
+            throw new IOException("Undecodable frame: " + (in.limit - in.position) + " trailing bytes");
+        }
+        return new Message(type, content, id);
+    }
+
+    // ***********************************************************************************************
+    // encoding
+
+    private void writeValue(OutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.write(T_NULL);
+        } else if (value instanceof Integer) {
+            out.write(T_INTEGER);
+            writeVarLong(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(T_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof String) {
+            out.write(T_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof byte[]) {
+            out.write(T_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? T_TRUE : T_FALSE);
+        } else if (value instanceof Double) {
+            out.write(T_DOUBLE);
+            writeFixedLong(out, Double.doubleToLongBits((Double) value));
+        } else if (value instanceof BigInteger) {
+            out.write(T_BIG_INTEGER);
+            writeBytes(out, ((BigInteger) value).toByteArray());
+        } else if (value.getClass() == Job.class) {
+            Job job = (Job) value;
+            out.write(T_JOB);
+            writeToolName(out, job.getToolName());
+            writeValue(out, job.getParameters());
+        } else if (value.getClass() == JobBatch.class) {
+            Job[] jobs = ((JobBatch) value).getJobs();
+            out.write(T_JOB_BATCH);
+            writeVarLong(out, jobs.length);
+            for (Job job : jobs) {
+                writeToolName(out, job.getToolName());
+                writeValue(out, job.getParameters());
+            }
+        } else if (value.getClass() == BatchResult.class) {
+            BatchResult result = (BatchResult) value;
+            out.write(T_BATCH_RESULT);
+            writeVarLong(out, result.getIndex());
+            out.write(result.isFailed() ? T_TRUE : T_FALSE);
+            writeValue(out, result.getContent());
+        } else if (value.getClass() == ToolVersion.class) {
+            ToolVersion toolVersion = (ToolVersion) value;
+            out.write(T_TOOL_VERSION);
+            writeToolName(out, toolVersion.getToolName());
+            writeValue(out, toolVersion.getVersion());
+            writeValue(out, toolVersion.getJarPath());
+        } else if (value.getClass() == ConnectivityInfo.class) {
+            ConnectivityInfo info = (ConnectivityInfo) value;
+            out.write(T_CONNECTIVITY_INFO);
+            writeValue(out, info.getName());
+            writeValue(out, info.getHost());
+            writeVarLong(out, info.getPort());
+        } else if (value.getClass() == SatelliteLease.class) {
+            SatelliteLease lease = (SatelliteLease) value;
+            out.write(T_SATELLITE_LEASE);
+            writeValue(out, lease.getSatelliteInfo());
+            writeVarLong(out, lease.getTtlMillis());
+        } else if (value.getClass() == SatelliteStatus.class) {
+            SatelliteStatus status = (SatelliteStatus) value;
+            out.write(T_SATELLITE_STATUS);
+            writeValue(out, status.getSatelliteInfo());
+            writeVarLong(out, status.getPendingJobs());
+            writeVarLong(out, status.getCapacity());
+            writeVarLong(out, status.getWorkers());
+            writeVarLong(out, status.getCompletedJobs());
+        } else {
+            out.write(T_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream writeToBytes = new ObjectOutputStream(bytes);
+            writeToBytes.writeObject(value);
+            writeToBytes.close();
+            writeBytes(out, bytes.toByteArray());
+        }
+    }
+
+    private void writeToolName(OutputStream out, String toolName) throws IOException {
+        if (toolName == null) {
+            writeVarLong(out, TOOL_INLINE);
+            out.write(T_NULL);
+            return;
+        }
+
+        Integer number = sentToolNames.get(toolName);
+        int defined = definedToolNames.indexOf(toolName);
+        if (number != null) {
+            writeVarLong(out, TOOL_DEFINED + number);
+        } else if (defined >= 0) {
+            writeVarLong(out, TOOL_DEFINED + sentToolNames.size() + defined);
+        } else if (sentToolNames.size() + definedToolNames.size() < MAX_TOOL_NAMES) {
+            definedToolNames.add(toolName);
+            writeVarLong(out, TOOL_DEFINE);
+            writeValue(out, toolName);
+        } else {
+            writeVarLong(out, TOOL_INLINE);
+            writeValue(out, toolName);
+        }
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(OutputStream out, byte[] value) throws IOException {
+        writeVarLong(out, value.length);
+        out.write(value);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeFixedLong(OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // ***********************************************************************************************
+    // decoding
+
+    private Object readValue(Input in) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_TRUE:
+                return Boolean.TRUE;
+            case T_FALSE:
+                return Boolean.FALSE;
+            case T_INTEGER:
+                return (int) unZigZag(in.readVarLong());
+            case T_LONG:
+                return unZigZag(in.readVarLong());
+            case T_DOUBLE:
+                return Double.longBitsToDouble(in.readFixedLong());
+            case T_STRING:
+                return in.readString();
+            case T_BYTES:
+                return in.readBytes();
+            case T_BIG_INTEGER:
+                byte[] magnitude = in.readBytes();
+                if (magnitude.length == 0) {
+                    throw new IOException("Undecodable frame: BigInteger without bytes");
+                }
+                return new BigInteger(magnitude);
+            case T_JOB:
+                String toolName = readToolName(in);
+                return new Job(toolName, readValue(in));
+            case T_JOB_BATCH:
+                Job[] jobs = new Job[in.length()];
+                for (int i = 0; i < jobs.length; i++) {
+                    String batchToolName = readToolName(in);
+                    jobs[i] = new Job(batchToolName, readValue(in));
+                }
+                return new JobBatch(jobs);
+            case T_BATCH_RESULT:
+                int index = (int) in.readVarLong();
+                boolean failed = in.readByte() == T_TRUE;
+                return new BatchResult(index, failed, readValue(in));
+            case T_TOOL_VERSION:
+                String versionToolName = readToolName(in);
+                String version = readValue(in, String.class);
+                return new ToolVersion(versionToolName, version, readValue(in, String.class));
+            case T_CONNECTIVITY_INFO:
+                ConnectivityInfo info = new ConnectivityInfo();
+                info.setName(readValue(in, String.class));
+                info.setHost(readValue(in, String.class));
+                info.setPort((int) in.readVarLong());
+                return info;
+            case T_SATELLITE_LEASE:
+                ConnectivityInfo leasedInfo = readValue(in, ConnectivityInfo.class);
+                return new SatelliteLease(leasedInfo, in.readVarLong());
+            case T_SATELLITE_STATUS:
+                SatelliteStatus status = new SatelliteStatus();
+                status.setSatelliteInfo(readValue(in, ConnectivityInfo.class));
+                status.setPendingJobs((int) in.readVarLong());
+                status.setCapacity((int) in.readVarLong());
+                status.setWorkers((int) in.readVarLong());
+                status.setCompletedJobs(in.readVarLong());
+                return status;
+            case T_SERIALIZED:
+                byte[] bytes = in.readBytes();
+                ObjectInputStream readFromBytes = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return readFromBytes.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Undecodable frame: " + e, e);
+                }
+            default:
+                throw new IOException("Undecodable frame: unknown type tag " + tag);
+        }
+    }
+
+    /**
+     * Reads a value that has to be of a given type, or <code>null</code>
+     */
+    private <T> T readValue(Input in, Class<T> type) throws IOException {
+        Object value = readValue(in);
+        if (value != null && !type.isInstance(value)) {
+            throw new IOException("Undecodable frame: " + type.getSimpleName() + " expected, got " + value.getClass().getName());
+        }
+        return type.cast(value);
+    }
+
+    private String readToolName(Input in) throws IOException {
+        int reference = (int) in.readVarLong();
+        if (reference >= TOOL_DEFINED) {
+            int number = reference - TOOL_DEFINED;
+            if (number >= receivedToolNames.size()) {
+                throw new IOException("Undecodable frame: unknown tool #" + number);
+            }
+            return receivedToolNames.get(number);
+        }
+
+        String toolName = readValue(in, String.class);
+        if (reference == TOOL_DEFINE) {
+            // a peer defines no more names than it would send itself
+            if (receivedToolNames.size() >= MAX_TOOL_NAMES) {
+                throw new IOException("Undecodable frame: more than " + MAX_TOOL_NAMES + " tool names defined");
+            }
+            receivedToolNames.add(toolName);
+        }
+        return toolName;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Class [Input] Cursor over a frame's payload
+     */
+    private static class Input {
+
+        final byte[] bytes;
+        int position;
+        final int limit;
+
+        Input(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new IOException("Undecodable frame: truncated");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Undecodable frame: malformed variable-length integer");
+        }
+
+        long readFixedLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = length();
+            byte[] value = new byte[length];
+            System.arraycopy(bytes, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            int length = length();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private int length() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Undecodable frame: invalid length " + length);
+            }
+            return (int) length;
+        }
+    }
+}
@@ -15,12 +15,19 @@ public class Message implements MessageTypes, Serializable {
     int type;
     // contains the content that is specific to a certain message type
     Object content;
+    // correlation ID, relates a reply to its request when many requests share one connection
+    long id;
 
     public Message(int type, Object content) {
         this.type = type;
         this.content = content;
     }
 
+    public Message(int type, Object content, long id) {
+        this(type, content);
+        this.id = id;
+    }
+
     public Message() {
     }
     
@@ -41,4 +48,13 @@ public class Message implements MessageTypes, Serializable {
     public Object getContent() {
         return content;
     }
+
+    // getter and setter methods for correlation ID
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
 }
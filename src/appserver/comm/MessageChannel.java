@@ -0,0 +1,103 @@
+package appserver.comm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Class [MessageChannel] Blocking end point for exchanging messages as length-prefixed frames
+ * over a socket, see <code>MessageFrames</code>. The codec is negotiated when the channel is set up,
+ * see <code>MessageCodecs</code>.
+ * <p>
+ * Sending is thread-safe, receiving is meant to be done by one thread at a time.
+ */
+public class MessageChannel implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream readFromNet;
+    private final OutputStream writeToNet;
+    private final MessageCodec codec;
+
+    /**
+     * Connects to a peer, offering the default codecs
+     */
+    public MessageChannel(String host, int port) throws IOException {
+        this(host, port, MessageCodecs.defaultPreferences());
+    }
+
+    /**
+     * Connects to a peer
+     * @param preferences - IDs of the codecs to offer, the preferred one first
+     */
+    public MessageChannel(String host, int port, int[] preferences) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        readFromNet = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        writeToNet = new BufferedOutputStream(socket.getOutputStream());
+
+        try {
+            MessageCodecs.writeHello(writeToNet, preferences);
+            codec = MessageCodecs.readAnswer(readFromNet);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private MessageChannel(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        readFromNet = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        writeToNet = new BufferedOutputStream(socket.getOutputStream());
+        codec = MessageCodecs.accept(readFromNet, writeToNet);
+    }
+
+    /**
+     * Sets up a channel on an accepted connection, answering the peer's hello
+     */
+    public static MessageChannel accept(Socket socket) throws IOException {
+        return new MessageChannel(socket);
+    }
+
+    /**
+     * Sends a message
+     */
+    public void send(Message message) throws IOException {
+        // encoding happens under the lock, codecs rely on frames being sent in the order they are encoded
+        synchronized (writeToNet) {
+            ByteBuffer frame = MessageFrames.encode(message, codec);
+            writeToNet.write(frame.array(), 0, frame.limit());
+            writeToNet.flush();
+        }
+    }
+
+    /**
+     * Waits for the next message
+     * @throws java.io.EOFException if the peer closed the connection
+     */
+    public Message receive() throws IOException {
+        int length = readFromNet.readInt();
+        MessageFrames.checkLength(length);
+        byte[] payload = new byte[length];
+        readFromNet.readFully(payload);
+        return MessageFrames.decode(payload, 0, length, codec);
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,30 @@
+package appserver.comm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Interface [MessageCodec] Defines how messages are turned into the payload of a frame and back,
+ * see <code>MessageFrames</code>. Which codec a connection uses is negotiated when it is set up,
+ * see <code>MessageCodecs</code>.
+ * <p>
+ * A codec instance belongs to one connection and may keep state across messages, so frames have to be
+ * decoded in the same order they were encoded in.
+ */
+public interface MessageCodec {
+
+    /**
+     * ID of the codec as used during negotiation
+     */
+    public int getId();
+
+    /**
+     * Writes the encoding of a message
+     */
+    public void encode(Message message, OutputStream out) throws IOException;
+
+    /**
+     * Reads a message from a frame's payload
+     */
+    public Message decode(byte[] payload, int offset, int length) throws IOException;
+}
@@ -0,0 +1,144 @@
+package appserver.comm;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Class [MessageCodecs] Registry of the available codecs and the handshake to negotiate one of them.
+ * <p>
+ * The side that sets up a connection opens it with a hello: the magic bytes "AS", the number of codecs it
+ * offers and their IDs in order of preference. The accepting side answers with one byte, the ID of the
+ * first codec offered that it supports, or NONE. From then on, both sides exchange frames encoded with that codec.
+ */
+public class MessageCodecs {
+
+    // codec IDs
+    public static final int SERIALIZATION = 0;
+    public static final int BINARY = 1;
+    public static final int NONE = 0xFF;
+
+    static final byte[] MAGIC = {'A', 'S'};
+    public static final int HELLO_HEADER_LENGTH = 3;
+
+    /**
+     * Creates a fresh codec instance for a connection
+     * @param id - codec ID
+     */
+    public static MessageCodec create(int id) throws IOException {
+        switch (id) {
+            case SERIALIZATION:
+                return new SerializationCodec();
+            case BINARY:
+                return new BinaryCodec();
+            default:
+                throw new IOException("Unknown codec #" + id);
+        }
+    }
+
+    /**
+     * Looks up a codec ID by name, as used in properties files
+     * @param name - "binary" or "serialization"
+     */
+    public static int forName(String name) {
+        if (name == null || name.trim().equalsIgnoreCase("binary")) {
+            return BINARY;
+        } else if (name.trim().equalsIgnoreCase("serialization")) {
+            return SERIALIZATION;
+        }
+        throw new IllegalArgumentException("Unknown codec: " + name);
+    }
+
+    /**
+     * Returns the codecs to offer, the preferred codec first, falling back to serialization
+     * @param preferred - ID of the preferred codec
+     */
+    public static int[] preferences(int preferred) {
+        return preferred == SERIALIZATION ? new int[]{SERIALIZATION} : new int[]{preferred, SERIALIZATION};
+    }
+
+    /**
+     * Returns the codecs to offer, the named codec first, falling back to serialization
+     * @param preferred - name of the preferred codec, see <code>forName()</code>
+     */
+    public static int[] preferences(String preferred) {
+        return preferences(forName(preferred));
+    }
+
+    /**
+     * Returns the codecs offered by default
+     */
+    public static int[] defaultPreferences() {
+        return preferences(BINARY);
+    }
+
+    /**
+     * Writes the hello opening a connection
+     */
+    public static void writeHello(OutputStream out, int[] preferences) throws IOException {
+        byte[] hello = new byte[HELLO_HEADER_LENGTH + preferences.length];
+        hello[0] = MAGIC[0];
+        hello[1] = MAGIC[1];
+        hello[2] = (byte) preferences.length;
+        for (int i = 0; i < preferences.length; i++) {
+            hello[HELLO_HEADER_LENGTH + i] = (byte) preferences[i];
+        }
+        out.write(hello);
+        out.flush();
+    }
+
+    /**
+     * Reads the acceptor's answer to a hello and creates the codec agreed upon
+     */
+    public static MessageCodec readAnswer(DataInputStream in) throws IOException {
+        int id = in.readUnsignedByte();
+        if (id == NONE) {
+            throw new IOException("Peer supports none of the codecs offered");
+        }
+        return create(id);
+    }
+
+    /**
+     * Checks the header of a hello
+     * @return number of codecs offered
+     */
+    public static int checkHello(byte[] header, int offset) throws IOException {
+        if (header[offset] != MAGIC[0] || header[offset + 1] != MAGIC[1]) {
+            throw new IOException("Invalid connection hello");
+        }
+        return header[offset + 2] & 0xFF;
+    }
+
+    /**
+     * Chooses the first codec offered that is supported
+     * @return codec ID or NONE
+     */
+    public static int select(byte[] offered, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            int id = offered[offset + i] & 0xFF;
+            if (id == SERIALIZATION || id == BINARY) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Accepting side of the handshake on a blocking stream
+     * @return codec agreed upon
+     */
+    public static MessageCodec accept(DataInputStream in, OutputStream out) throws IOException {
+        byte[] header = new byte[HELLO_HEADER_LENGTH];
+        in.readFully(header);
+        byte[] offered = new byte[checkHello(header, 0)];
+        in.readFully(offered);
+
+        int id = select(offered, 0, offered.length);
+        out.write(id);
+        out.flush();
+        if (id == NONE) {
+            throw new IOException("None of the codecs offered is supported");
+        }
+        return create(id);
+    }
+}
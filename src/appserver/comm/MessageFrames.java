@@ -0,0 +1,71 @@
+package appserver.comm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class [MessageFrames] Converts messages to and from length-prefixed frames.
+ * <p>
+ * A frame consists of a four byte header, holding the length of the payload in network byte order,
+ * followed by the payload, i.e. the message as encoded by the connection's codec. Framing lets a receiver
+ * find message boundaries without decoding, which is what non-blocking servers need.
+ */
+public class MessageFrames {
+
+    public static final int HEADER_LENGTH = 4;
+    // upper bound of the payload length, protects receivers from corrupt or malicious headers
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Encodes a message into a frame
+     * @param message - message to encode
+     * @param codec - codec of the connection
+     * @return buffer holding header and payload, ready to be written
+     */
+    public static ByteBuffer encode(Message message, MessageCodec codec) throws IOException {
+        FrameBuffer frame = new FrameBuffer();
+        codec.encode(message, frame);
+        return frame.toFrame();
+    }
+
+    /**
+     * Decodes the payload of a frame
+     * @param payload - array holding the payload
+     * @param offset - start of the payload within the array
+     * @param length - payload length, as given by the frame header
+     * @param codec - codec of the connection
+     */
+    public static Message decode(byte[] payload, int offset, int length, MessageCodec codec) throws IOException {
+        return codec.decode(payload, offset, length);
+    }
+
+    /**
+     * Checks a payload length read from a frame header
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Class [FrameBuffer] Byte array stream that reserves room for the frame header,
+     * so that the payload does not need to be copied once its length is known.
+     */
+    private static class FrameBuffer extends ByteArrayOutputStream {
+
+        FrameBuffer() {
+            super(256);
+            count = HEADER_LENGTH;
+        }
+
+        ByteBuffer toFrame() throws IOException {
+            int length = count - HEADER_LENGTH;
+            checkLength(length);
+            ByteBuffer frame = ByteBuffer.wrap(buf, 0, count);
+            frame.putInt(0, length);
+            return frame;
+        }
+    }
+}
@@ -12,6 +12,19 @@ public interface MessageTypes {
     public static int JOB_REQUEST = 1;
  // public static int LIST_TOOLS = 2;
     public static int REGISTER_SATELLITE = 3;
- // public static int UNREGISTER_SATELLITE = 4;
- // public static int REGISTER_TOOL = 5;   
+    public static int UNREGISTER_SATELLITE = 4;
+    public static int REGISTER_TOOL = 5;      // new version of a tool, from an admin client to the server and on to all satellites
+    public static int JOB_RESULT = 6;
+    public static int JOB_FAILED = 7;
+    public static int HEARTBEAT = 8;
+    public static int CACHEABLE_JOB_RESULT = 9; // JOB_RESULT of a deterministic tool, between satellite and server
+    public static int JOB_BATCH_REQUEST = 10;
+    public static int JOB_BATCH_RESULT = 11;  // one per job of a batch, with the batch request's ID
+    public static int STREAM_REQUEST = 12;    // job of a streaming tool, answered with chunks, then STREAM_END or JOB_FAILED
+    public static int STREAM_CREDIT = 13;     // receiver of a stream is ready for that many more chunks
+    public static int STREAM_CHUNK = 14;
+    public static int STREAM_END = 15;
+    public static int STREAM_CANCEL = 16;
+    public static int ROUTE_REQUEST = 17;     // client asks for a satellite to send its jobs to directly, answered with ROUTE_LEASE or JOB_FAILED
+    public static int ROUTE_LEASE = 18;
 }
@@ -0,0 +1,36 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [SatelliteLease] Content of a ROUTE_LEASE message: the satellite a client may send its jobs to
+ * directly, without the server relaying them, for as long as the lease lasts. Afterwards the client
+ * asks the server for a new lease, which may name another satellite.
+ */
+public class SatelliteLease implements Serializable {
+
+    ConnectivityInfo satelliteInfo;
+    long ttlMillis;
+
+    /**
+     * @param satelliteInfo - connectivity information of the satellite
+     * @param ttlMillis - milliseconds the lease lasts
+     */
+    public SatelliteLease(ConnectivityInfo satelliteInfo, long ttlMillis) {
+        this.satelliteInfo = satelliteInfo;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public ConnectivityInfo getSatelliteInfo() {
+        return satelliteInfo;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    @Override
+    public String toString() {
+        return satelliteInfo.getName() + " for " + ttlMillis + "ms";
+    }
+}
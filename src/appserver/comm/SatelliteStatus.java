@@ -0,0 +1,70 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [SatelliteStatus] Content of a heartbeat: who the satellite is and how busy it is.
+ * A heartbeat of a satellite the server does not know (anymore) registers it again.
+ */
+public class SatelliteStatus implements Serializable {
+
+    ConnectivityInfo satelliteInfo = null;
+    int pendingJobs = 0;
+    int capacity = 0;
+    int workers = 0;
+    long completedJobs = 0;
+
+    public ConnectivityInfo getSatelliteInfo() {
+        return satelliteInfo;
+    }
+
+    public void setSatelliteInfo(ConnectivityInfo satelliteInfo) {
+        this.satelliteInfo = satelliteInfo;
+    }
+
+    /**
+     * Jobs admitted by the satellite that did not complete yet
+     */
+    public int getPendingJobs() {
+        return pendingJobs;
+    }
+
+    public void setPendingJobs(int pendingJobs) {
+        this.pendingJobs = pendingJobs;
+    }
+
+    /**
+     * Jobs the satellite admits at the same time, beyond that it rejects them
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Jobs the satellite runs at the same time, the others it admits wait for a worker
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public long getCompletedJobs() {
+        return completedJobs;
+    }
+
+    public void setCompletedJobs(long completedJobs) {
+        this.completedJobs = completedJobs;
+    }
+
+    @Override
+    public String toString() {
+        return pendingJobs + "/" + capacity + " pending, " + completedJobs + " completed";
+    }
+}
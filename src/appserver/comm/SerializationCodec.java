@@ -0,0 +1,36 @@
+package appserver.comm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Class [SerializationCodec] Encodes messages using Java object serialization.
+ * Every peer understands it, so it is the fallback if no other codec can be agreed upon.
+ */
+public class SerializationCodec implements MessageCodec {
+
+    @Override
+    public int getId() {
+        return MessageCodecs.SERIALIZATION;
+    }
+
+    @Override
+    public void encode(Message message, OutputStream out) throws IOException {
+        ObjectOutputStream writeToPayload = new ObjectOutputStream(out);
+        writeToPayload.writeObject(message);
+        writeToPayload.flush();
+    }
+
+    @Override
+    public Message decode(byte[] payload, int offset, int length) throws IOException {
+        ObjectInputStream readFromPayload = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length));
+        try {
+            return (Message) readFromPayload.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Undecodable frame: " + e, e);
+        }
+    }
+}
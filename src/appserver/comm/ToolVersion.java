@@ -0,0 +1,42 @@
+package appserver.comm;
+
+import java.io.Serializable;
+
+/**
+ * Class [ToolVersion] Content of a REGISTER_TOOL message: a new version of a tool, to be used for all jobs
+ * of the tool from now on. Satellites load every version in a class loader of its own.
+ */
+public class ToolVersion implements Serializable {
+
+    String toolName;
+    String version;
+    String jarPath;
+
+    /**
+     * @param toolName - fully qualified class name of the tool
+     * @param version - version of the tool, registering the version in use again has no effect
+     * @param jarPath - JAR file on the web server the version is published in, null for loose class files
+     */
+    public ToolVersion(String toolName, String version, String jarPath) {
+        this.toolName = toolName;
+        this.version = version;
+        this.jarPath = jarPath;
+    }
+
+    public String getToolName() {
+        return toolName;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getJarPath() {
+        return jarPath;
+    }
+
+    @Override
+    public String toString() {
+        return toolName + " " + version + (jarPath == null ? "" : " (" + jarPath + ")");
+    }
+}
@@ -0,0 +1,9 @@
+package appserver.job;
+
+/**
+ * Interface [Deterministic] Marker interface for tools whose result depends on nothing but their parameters.
+ * The server may cache the results of such tools and answer identical jobs without running them again.
+ * Tools must not implement it if they have side effects or their result depends on time, randomness or state.
+ */
+public interface Deterministic {
+}
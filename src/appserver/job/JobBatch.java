@@ -0,0 +1,25 @@
+package appserver.job;
+
+import java.io.Serializable;
+
+/**
+ * Class [JobBatch] Many jobs submitted in one request. The jobs are independent of each other,
+ * they may run in parallel and on different satellites. Their results are tagged with
+ * the index of the job in the batch.
+ */
+public class JobBatch implements Serializable {
+
+    Job[] jobs;
+
+    public JobBatch(Job[] jobs) {
+        this.jobs = jobs;
+    }
+
+    public Job[] getJobs() {
+        return jobs;
+    }
+
+    public int size() {
+        return jobs.length;
+    }
+}
@@ -0,0 +1,15 @@
+package appserver.job;
+
+/**
+ * Interface [ResultSink] Takes the result chunks of a streaming tool and passes them on to the client.
+ */
+public interface ResultSink {
+
+    /**
+     * Emits the next chunk of the result. Blocks as long as the client is not ready to take more chunks.
+     * @param chunk - part of the result
+     * @throws java.util.concurrent.CancellationException if the client is not interested anymore,
+     * the tool is supposed to let it propagate and stop
+     */
+    public void emit(Object chunk);
+}
@@ -0,0 +1,28 @@
+package appserver.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interface [StreamingTool] A tool that produces its result incrementally, as a sequence of chunks.
+ * Clients requesting a stream see each chunk as soon as it is emitted. They control the pace by granting
+ * credits, so neither the satellite nor the server hold more than a window of chunks, however long the result.
+ * <p>
+ * Run as an ordinary tool, a streaming tool returns the list of all its chunks.
+ */
+public interface StreamingTool extends Tool {
+
+    /**
+     * Runs the tool
+     * @param parameters - the job's parameters
+     * @param results - takes the chunks of the result, in order
+     */
+    public void go(Object parameters, ResultSink results);
+
+    @Override
+    public default Object go(Object parameters) {
+        final List<Object> chunks = new ArrayList<>();
+        go(parameters, chunk -> chunks.add(chunk));
+        return chunks;
+    }
+}
@@ -0,0 +1,30 @@
+package appserver.job;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation [ToolLifecycle] Declares how instances of a tool may be shared between jobs, which a satellite
+ * may run concurrently. Tools without the annotation are treated as <code>PER_INVOCATION</code>,
+ * the one choice that is safe for any tool.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ToolLifecycle {
+
+    Scope value();
+
+    /**
+     * Enum [Scope] The lifecycles a tool can declare
+     */
+    enum Scope {
+        /** The tool keeps no state between or during calls, one instance serves all jobs at once */
+        SHARED,
+        /** The tool keeps state during a call only, an instance serves one job at a time and is reused afterwards */
+        POOLED,
+        /** Every job gets an instance of its own, which is dropped afterwards */
+        PER_INVOCATION
+    }
+}
@@ -5,20 +5,21 @@
  */
 package appserver.job.impl;
 
+import appserver.job.Deterministic;
 import appserver.job.Tool;
+import appserver.job.ToolLifecycle;
 
 /**
  * Fibonacci class gets the Fibonacci result based on the sequence number by calling FibonacciHelper
  * @author Jacob Kaufman
  */
-public class Fibonacci implements Tool{
+@ToolLifecycle(ToolLifecycle.Scope.SHARED)
+public class Fibonacci implements Tool, Deterministic {
 
-    FibonacciHelper helper = null;
-    
     @Override
     public Object go(Object parameters) {
         
-        helper = new FibonacciHelper((Integer) parameters);
+        FibonacciHelper helper = new FibonacciHelper((Integer) parameters);
         return helper.getResult();
     }
 }
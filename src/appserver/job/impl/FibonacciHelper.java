@@ -5,45 +5,118 @@
  */
 package appserver.job.impl;
 
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
 /**
- * FibonacciHelper implements the Fibonacci algroithm to return the result to the 
+ * FibonacciHelper implements the Fibonacci algroithm to return the result to the
  * Fibonacci job.
+ * <p>
+ * Sequence numbers 0 and 1 give 1, every further one the sum of the two before, i.e. the result of sequence
+ * number n is the Fibonacci number F(n + 1). Results are returned as <code>BigInteger</code>. Those up to sequence
+ * number 91 fit into a <code>long</code> and are looked up in a table, larger ones are computed by fast doubling,
+ * in O(log n) steps:
+ * <pre>
+ *   F(2k)     = F(k) * (2 F(k + 1) - F(k))
+ *   F(2k + 1) = F(k)^2 + F(k + 1)^2
+ * </pre>
+ * Each step takes three multiplications of numbers of equal size, two of them squarings, for which
+ * <code>BigInteger</code> switches to Karatsuba and Toom-Cook as the numbers grow. The pairs F(k), F(k + 1)
+ * passed on the way are kept in a table shared by all jobs, so sequence numbers with a common binary prefix,
+ * e.g. those of one batch, reuse each other's steps. The table holds at most MAX_ANCHOR_BITS bits of numbers,
+ * the pairs used least recently are dropped first.
  * @author Jacob Kaufman
  */
 public class FibonacciHelper {
-    
+
+    /**
+     * Largest sequence number computed, the result has about 700,000 bits
+     */
+    public static final int MAX_SEQUENCE_NUMBER = 1000000;
+
+    // F(0) .. F(92), F(93) does not fit into a long any more
+    private static final long[] SMALL = new long[93];
+    // pairs F(k), F(k + 1) by k, for k beyond the small table, in the order they were used, 8 MB at most
+    private static final long MAX_ANCHOR_BITS = 64L * 1024 * 1024;
+    private static final LinkedHashMap<Integer, BigInteger[]> ANCHORS = new LinkedHashMap<>(64, 0.75f, true);
+    private static long anchorBits = 0; // guarded by ANCHORS
+
+    static {
+        SMALL[1] = 1;
+        for (int k = 2; k < SMALL.length; k++) {
+            SMALL[k] = SMALL[k - 1] + SMALL[k - 2];
+        }
+    }
+
     Integer sequenceNumber = null;
-    
+
     public FibonacciHelper(Integer number) {
         this.sequenceNumber = number;
     }
-    
+
     /**
      * Gets the correct Fibonacci result based on the sequence number
      * @return the correct Fibonacci result
      */
-    public long getResult() {
-        
-       long num1 = 0, num2 = 1;
-       
-       // return for base cases
-       if (sequenceNumber == 1 | sequenceNumber == 0){
-           return 1;
-       }
-  
-       int counter = 0;
-  
-        // Iterate till counter is sequence Number
-        while (counter < sequenceNumber) {
-            // calculate next sequence number
-            long nextSequenceNumber = num2 + num1;
-            
-            //swap numbers
-            num1 = num2;
-            num2 = nextSequenceNumber;
-            counter = counter + 1;
-        }
-        
-        return num2;
+    public BigInteger getResult() {
+        if (sequenceNumber < 0 || sequenceNumber > MAX_SEQUENCE_NUMBER) {
+            throw new IllegalArgumentException("Sequence number " + sequenceNumber + " out of range 0 .. " + MAX_SEQUENCE_NUMBER);
+        }
+
+        int k = sequenceNumber + 1;
+        if (k < SMALL.length) {
+            return BigInteger.valueOf(SMALL[k]);
+        }
+        return pair(k)[0];
+    }
+
+    /**
+     * @return F(k) and F(k + 1)
+     */
+    private static BigInteger[] pair(int k) {
+        if (k + 1 < SMALL.length) {
+            return new BigInteger[]{BigInteger.valueOf(SMALL[k]), BigInteger.valueOf(SMALL[k + 1])};
+        }
+        BigInteger[] anchor;
+        synchronized (ANCHORS) {
+            anchor = ANCHORS.get(k);
+        }
+        if (anchor != null) {
+            return anchor;
+        }
+
+        BigInteger[] half = pair(k >>> 1);
+        BigInteger a = half[0];
+        BigInteger b = half[1];
+        BigInteger even = a.multiply(b.shiftLeft(1).subtract(a)); // F(2j)
+        BigInteger odd = a.multiply(a).add(b.multiply(b)); // F(2j + 1)
+        anchor = (k & 1) == 0 ? new BigInteger[]{even, odd} : new BigInteger[]{odd, even.add(odd)};
+
+        remember(k, anchor);
+        return anchor;
+    }
+
+    /**
+     * Keeps a pair in the table, dropping the pairs used least recently if the table gets too large
+     */
+    private static void remember(int k, BigInteger[] anchor) {
+        long bits = bits(anchor);
+        if (bits > MAX_ANCHOR_BITS) {
+            return;
+        }
+        synchronized (ANCHORS) {
+            BigInteger[] previous = ANCHORS.put(k, anchor);
+            anchorBits += bits - (previous == null ? 0 : bits(previous));
+            Iterator<BigInteger[]> eldest = ANCHORS.values().iterator();
+            while (anchorBits > MAX_ANCHOR_BITS) {
+                anchorBits -= bits(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    private static long bits(BigInteger[] anchor) {
+        return (long) anchor[0].bitLength() + anchor[1].bitLength();
     }
 }
@@ -0,0 +1,31 @@
+package appserver.job.impl;
+
+import appserver.job.ResultSink;
+import appserver.job.StreamingTool;
+import appserver.job.ToolLifecycle;
+import java.math.BigInteger;
+import utils.Log;
+
+/**
+ * Class [FibonacciSequence] Streaming tool that emits the Fibonacci results of the sequence numbers
+ * 0 up to the number given, one chunk per sequence number, counted as in <code>FibonacciHelper</code>.
+ * Results are emitted as <code>BigInteger</code>, like those of <code>Fibonacci</code>.
+ */
+@ToolLifecycle(ToolLifecycle.Scope.SHARED)
+public class FibonacciSequence implements StreamingTool {
+
+    @Override
+    public void go(Object parameters, ResultSink results) {
+        int last = (Integer) parameters;
+
+        BigInteger num1 = BigInteger.ONE, num2 = BigInteger.ONE;
+        for (int sequenceNumber = 0; sequenceNumber <= last; sequenceNumber++) {
+            if (sequenceNumber > 1) {
+                BigInteger nextSequenceNumber = num1.add(num2);
+                num1 = num2;
+                num2 = nextSequenceNumber;
+            }
+            results.emit(num2);
+        }
+    }
+}
@@ -1,20 +1,21 @@
 package appserver.job.impl;
 
+import appserver.job.Deterministic;
 import appserver.job.Tool;
+import appserver.job.ToolLifecycle;
 
 /**
  * Class [PlusOne] Simple POC class that implements the Tool interface
  * 
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
-public class PlusOne implements Tool{
+@ToolLifecycle(ToolLifecycle.Scope.SHARED)
+public class PlusOne implements Tool, Deterministic {
 
-    PlusOneAux helper = null;
-    
     @Override
     public Object go(Object parameters) {
         
-        helper = new PlusOneAux((Integer) parameters);
+        PlusOneAux helper = new PlusOneAux((Integer) parameters);
         return helper.getResult();
     }
 }
@@ -0,0 +1,125 @@
+package appserver.satellite;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import utils.Log;
+
+/**
+ * Class [ClassCache] Keeps the class files a satellite fetched from the code server on local disk,
+ * so a restarted satellite does not have to download its tools again.
+ * <p>
+ * Class files are stored under their package path. For every bundle fetched, a manifest named after
+ * the bundle's root class records the bundle's ETag, and the names and lengths of its class files.
+ * The ETag is offered to the code server, which answers "304 Not Modified" if the bundle did not change.
+ * The lengths guard against class files on disk that got lost or damaged since.
+ */
+class ClassCache {
+
+    private final File directory;
+
+    ClassCache(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * Class [Manifest] What the cache knows about a bundle
+     */
+    static class Manifest {
+
+        final String etag;
+        final Map<String, Integer> lengths = new LinkedHashMap<>(); // by class name
+
+        Manifest(String etag) {
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * @return the manifest of the bundle of a class, null if the bundle is not cached
+     */
+    Manifest getManifest(String rootClass) {
+        File file = manifestFile(rootClass);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            Manifest manifest = new Manifest(reader.readLine());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                manifest.lengths.put(line.substring(0, space), Integer.parseInt(line.substring(space + 1)));
+            }
+            return manifest.etag == null ? null : manifest;
+        } catch (IOException | RuntimeException e) {
+            Log.warn("ClassCache.getManifest", "Ignoring broken manifest {}: {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the class files of a cached bundle
+     * @return class bytes by class name, null if a class file is missing or its length does not match the manifest
+     */
+    Map<String, byte[]> getClasses(Manifest manifest) {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : manifest.lengths.entrySet()) {
+            File file = classFile(entry.getKey());
+            if (file.length() != entry.getValue()) {
+                return null;
+            }
+            try {
+                classes.put(entry.getKey(), Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Stores a bundle. The manifest is written last, so a bundle is not taken from the cache
+     * unless all of its class files made it to disk.
+     */
+    void put(String rootClass, String etag, Map<String, byte[]> classes) {
+        try {
+            StringBuilder manifest = new StringBuilder(etag).append('\n');
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                writeAtomically(classFile(entry.getKey()), entry.getValue());
+                manifest.append(entry.getKey()).append(' ').append(entry.getValue().length).append('\n');
+            }
+            File file = manifestFile(rootClass);
+            File temp = new File(file.getPath() + ".tmp");
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+                writer.write(manifest.toString());
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // the cache is an optimization only
+            Log.warn("ClassCache.put", "Could not cache bundle of {}: {}", rootClass, e);
+        }
+    }
+
+    private void writeAtomically(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), data);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File classFile(String className) {
+        return new File(directory, className.replace('.', File.separatorChar) + ".class");
+    }
+
+    private File manifestFile(String rootClass) {
+        return new File(directory, rootClass.replace('.', File.separatorChar) + ".bundle");
+    }
+}
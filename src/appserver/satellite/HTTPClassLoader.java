@@ -3,18 +3,37 @@ package appserver.satellite;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import utils.Log;
 
 /**
  * Class [HTTPClassLoader] Instances of this class can load class files from web servers
+ * <p>
+ * A class is requested as a bundle, together with all class files it depends on, so loading a tool
+ * takes one round trip, however many classes it consists of. Classes of a bundle are kept until they are
+ * asked for. Requests go over one persistent HTTP/1.1 connection. If a cache directory is given, bundles are
+ * also kept on disk and revalidated with their ETag, so a restarted satellite only downloads what changed.
+ * <p>
+ * Classes are loaded child-first: only the platform's classes and the contracts shared between the satellite and
+ * its tools (<code>appserver.job</code>, <code>appserver.comm</code>) come from the parent. Tool classes are always
+ * taken from the web server, even if a copy is on the satellite's class path, so a new version is really loaded.
  *
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
-public class HTTPClassLoader extends ClassLoader {
+public class HTTPClassLoader extends ClassLoader implements Closeable {
 
     String host;
     int port;
     String classRootDir;
 
+    private ClassCache classCache = null; // null if class files are not cached on disk
+    private final Map<String, byte[]> prefetched = new ConcurrentHashMap<>(); // class bytes fetched, not defined yet
+
+    // the connection to the web server, guarded by this
+    private Socket classDataSocket = null;
+    private DataInputStream readFromNet = null;
+    private OutputStream writeToNet = null;
+
     /**
      * Common Constructor
      */
@@ -24,6 +43,17 @@ public class HTTPClassLoader extends ClassLoader {
         this.port = port;
     }
 
+    /**
+     * Constructor with a local cache for class files
+     * @param cacheDirectory - directory to keep class files in, null for no cache
+     */
+    public HTTPClassLoader(String host, int port, File cacheDirectory) {
+        this(host, port);
+        if (cacheDirectory != null) {
+            classCache = new ClassCache(cacheDirectory);
+        }
+    }
+
     /**
      * Constructor for test purposes on "well-known" port
      */
@@ -31,128 +61,266 @@ public class HTTPClassLoader extends ClassLoader {
         this("localhost", 23657);
     }
 
+    /**
+     * Loads shared classes through the parent, all others with <code>findClass()</code>
+     */
+    @Override
+    protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+        if (isShared(className)) {
+            return super.loadClass(className, resolve);
+        }
+        synchronized (getClassLoadingLock(className)) {
+            Class<?> classObject = findLoadedClass(className);
+            if (classObject == null) {
+                classObject = findClass(className);
+            }
+            if (resolve) {
+                resolveClass(classObject);
+            }
+            return classObject;
+        }
+    }
+
+    /**
+     * Tells whether a class is the same for the satellite and all tool versions, i.e. loaded by the parent
+     */
+    static boolean isShared(String className) {
+        for (String prefix : SHARED_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        // the tool contracts, but not the tools in packages below
+        return className.startsWith("appserver.job.") && className.indexOf('.', "appserver.job.".length()) < 0;
+    }
+
+    private static final String[] SHARED_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "appserver.comm."};
+
     /**
      * Overrides corresponding method in superclass <code>ClassLoader</code>
      */
     public Class findClass(String className) throws ClassNotFoundException {
-        byte[] classData = loadClassData(className);
+        byte[] classData = prefetched.remove(className);
+        if (classData == null) {
+            loadBundle(className);
+            classData = prefetched.remove(className);
+            if (classData == null) {
+                throw new ClassNotFoundException(className);
+            }
+        }
 
         Class classObject = defineClass(className, classData, 0, classData.length);
-        System.out.println("Class object \"" + className + "\" created");
+        Log.debug("HTTPClassLoader.findClass", "Class object \"{}\" created", className);
         return classObject;
     }
 
     /**
-     * Auxiliary method for <code>findClass()</code>. Provides for loading of
-     * the bytes of a class file from a web server
+     * Auxiliary method for <code>findClass()</code>. Provides the bytes of a class file and of the
+     * class files it depends on, from the local cache if they did not change, from the web server otherwise
      */
-    private byte[] loadClassData(String className) throws ClassNotFoundException {
+    private synchronized void loadBundle(String className) throws ClassNotFoundException {
+        String classPath = "/" + className.replace('.', '/') + ".class";
+        ClassCache.Manifest manifest = classCache == null ? null : classCache.getManifest(className);
 
-        DataInputStream readFromNet = null;
-        PrintStream writeToNet = null;
-
-        // aux fields for processing HTTP-header
-        byte[] protocolHeaderLine = new byte[256];
-        String inputLine;
+        try {
+            Response response = request(classPath + "?bundle", manifest == null ? null : manifest.etag);
 
-        // aux fields for reading bytes of class file
-        byte[] classData = null;
-        int bytesRead = 0;
-        int offset = 0;
-        int blockSize = 128;
+            if (response.status == 304) {
+                Map<String, byte[]> classes = classCache.getClasses(manifest);
+                if (classes != null) {
+                    Log.info("HTTPClassLoader.loadBundle", "Bundle of class \"{}\" not modified, loaded from {} cached class files", className, classes.size());
+                    prefetched.putAll(classes);
+                    return;
+                }
+                // the cached class files are damaged, fetch the bundle again
+                response = request(classPath + "?bundle", null);
+            }
 
-        try {
-            Socket classDataSocket = new Socket(host, port);
-
-            readFromNet = new DataInputStream(classDataSocket.getInputStream());
-            writeToNet = new PrintStream(classDataSocket.getOutputStream());
-
-            // process resource string
-            String classPath = className.replace('.', '/') + ".class";
-
-            String stringToNet = "GET " + classPath + " HTTP/1.0 \r\n\r\n";
-            System.err.println("\nRequest to Server: \n\"GET " + classPath + " HTTP/1.0\"");
-
-            //  ... requesting class file ...
-            writeToNet.print(stringToNet);
-            writeToNet.flush();
-
-	    // **************************************************************************************************
-            // process header information ...
-            System.err.println("\nServer responds:");
-            int i = -1;
-            while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
-                ; // empty loop
-            }
-            i--;
-            inputLine = new String(protocolHeaderLine, 0, i);
-            System.err.println(inputLine);
-
-            StringTokenizer tokenizer = new StringTokenizer(inputLine);
-            tokenizer.nextToken();
-            String returnCode = tokenizer.nextToken();
-
-            if (returnCode.equals("200")) {
-                // skip the rest
-                while (true) {
-                    i = -1;
-                    while ((protocolHeaderLine[++i] = readFromNet.readByte()) != (byte) '\n') {
-                        ; // empty loop
-                    }
-                    i--;
-                    inputLine = new String(protocolHeaderLine, 0, i);
-                    System.err.println(inputLine);
-
-                    // look for empty line, there is the beginning of the class file data
-                    if (inputLine.trim().equals("")) {
-                        break; // ... this is the beginning
-                    }
+            if (response.status == 200) {
+                Map<String, byte[]> classes = readBundle(response.body);
+                Log.info("HTTPClassLoader.loadBundle", "Bundle of class \"{}\" loaded, classes {}", className, classes.keySet());
+                if (classCache != null && response.etag != null) {
+                    classCache.put(className, response.etag, classes);
                 }
-            } else {
+                prefetched.putAll(classes);
+                return;
+            }
+
+            // web servers that do not serve bundles still serve the class file alone
+            response = request(classPath, null);
+            if (response.status != 200 || response.body.length == 0) {
                 throw new ClassNotFoundException("Class file not found");
             }
+            Log.info("HTTPClassLoader.loadBundle", "Bytes Class \"{}\" loaded", className);
+            prefetched.put(className, response.body);
+        } catch (IOException ioe) {
+            throw new ClassNotFoundException(ioe.toString());
+        }
+    }
 
-	    // **************************************************************************************************
-            // read the bytes of the class file ...
-            classData = new byte[blockSize];
+    /**
+     * Class [Response] Status, ETag and content of an HTTP response
+     */
+    static class Response {
 
-            while (true) {
-                bytesRead = readFromNet.read(classData, offset, blockSize);
+        int status;
+        String etag = null;
+        byte[] body = new byte[0];
+    }
 
-				// End-of-Stream reached
-                // is EOS reached immediately, the file is empty or not there
-                if (bytesRead == -1) {
-                    // EOS or no data
-                    break;
-                }
+    /**
+     * Sends a GET request over the persistent connection and reads the response. A connection that has been
+     * idle may have been closed by the web server in the meantime, then the request is sent once more on a new one.
+     * @param path - path and query to request
+     * @param etag - ETag of the copy at hand, null if there is none
+     */
+    Response request(String path, String etag) throws IOException {
+        boolean reused = classDataSocket != null;
+        try {
+            return exchange(path, etag);
+        } catch (IOException e) {
+            disconnect();
+            if (!reused) {
+                throw e;
+            }
+            return exchange(path, etag);
+        }
+    }
 
-                offset += bytesRead;
+    private Response exchange(String path, String etag) throws IOException {
+        if (classDataSocket == null) {
+            classDataSocket = new Socket(host, port);
+            classDataSocket.setTcpNoDelay(true);
+            readFromNet = new DataInputStream(new BufferedInputStream(classDataSocket.getInputStream()));
+            writeToNet = new BufferedOutputStream(classDataSocket.getOutputStream());
+        }
+
+        //  ... requesting class file ...
+        StringBuilder stringToNet = new StringBuilder("GET ").append(path).append(" HTTP/1.1\r\n");
+        stringToNet.append("Host: ").append(host).append(':').append(port).append("\r\n");
+        if (etag != null) {
+            stringToNet.append("If-None-Match: ").append(etag).append("\r\n");
+        }
+        stringToNet.append("\r\n");
+        Log.debug("HTTPClassLoader.exchange", "Request to Server: \"GET {} HTTP/1.1\"", path);
+        writeToNet.write(stringToNet.toString().getBytes("ISO-8859-1"));
+        writeToNet.flush();
 
-                // enlarge field, if necessary
-                if (offset + blockSize >= classData.length) {
-                    byte[] temp = new byte[classData.length * 2];
-                    System.arraycopy(classData, 0, temp, 0, offset);
-                    classData = temp;
+        // **************************************************************************************************
+        // process header information ...
+        String inputLine = readLine();
+        Log.debug("HTTPClassLoader.exchange", "Server responds: {}", inputLine);
+        StringTokenizer tokenizer = new StringTokenizer(inputLine);
+        tokenizer.nextToken();
+        Response response = new Response();
+        response.status = Integer.parseInt(tokenizer.nextToken());
+
+        int contentLength = -1;
+        boolean close = !inputLine.startsWith("HTTP/1.1");
+        while (!(inputLine = readLine()).trim().equals("")) {
+            int colon = inputLine.indexOf(':');
+            if (colon > 0) {
+                String name = inputLine.substring(0, colon).trim();
+                String value = inputLine.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-length")) {
+                    contentLength = Integer.parseInt(value);
+                } else if (name.equalsIgnoreCase("ETag")) {
+                    response.etag = value;
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
                 }
             }
+        }
 
-            // cut field to proper size
-            if (offset < classData.length) {
-                byte[] temp = new byte[offset];
-                System.arraycopy(classData, 0, temp, 0, offset);
-                classData = temp;
+        // **************************************************************************************************
+        // read the content ...
+        if (contentLength >= 0) {
+            response.body = new byte[contentLength];
+            readFromNet.readFully(response.body);
+        } else if (response.status != 304) {
+            // no length given, the content ends with the connection
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] block = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = readFromNet.read(block)) != -1) {
+                content.write(block, 0, bytesRead);
             }
-        } catch (IOException ioe) {
-            throw new ClassNotFoundException(ioe.toString());
+            response.body = content.toByteArray();
+            close = true;
         }
 
-        // class file data there?
-        if (classData.length == 0) {
-            throw new ClassNotFoundException("No class file present or class file empty");
+        if (close) {
+            disconnect();
         }
+        return response;
+    }
 
-        System.err.println("Bytes Class \"" + className + "\" loaded");
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int character;
+        while ((character = readFromNet.read()) != '\n') {
+            if (character == -1) {
+                throw new EOFException("Connection closed by web server");
+            }
+            if (character != '\r') {
+                line.append((char) character);
+            }
+        }
+        return line.toString();
+    }
 
-        return classData;
+    /**
+     * Closes the connection to the web server, classes asked for later open a new one
+     */
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private void disconnect() {
+        if (classDataSocket != null) {
+            try {
+                classDataSocket.close();
+            } catch (IOException e) {
+            }
+        }
+        classDataSocket = null;
+        readFromNet = null;
+        writeToNet = null;
+    }
+
+    /**
+     * Unpacks a bundle, as written by <code>web.ClassBundles.write()</code>
+     * @return class bytes by class name
+     */
+    private static Map<String, byte[]> readBundle(byte[] bundle) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bundle));
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            in.readUTF(); // ETag of the class file, the bundle's ETag covers it
+            byte[] classData = new byte[in.readInt()];
+            in.readFully(classData);
+            if (!isClassName(name)) {
+                throw new IOException("Invalid class name in bundle: " + name);
+            }
+            classes.put(name, classData);
+        }
+        return classes;
+    }
+
+    private static boolean isClassName(String name) {
+        for (String part : name.split("\\.", -1)) {
+            if (part.isEmpty() || !Character.isJavaIdentifierStart(part.charAt(0))) {
+                return false;
+            }
+            for (int i = 1; i < part.length(); i++) {
+                if (!Character.isJavaIdentifierPart(part.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,119 @@
+package appserver.satellite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.ProtectionDomain;
+import utils.Log;
+
+/**
+ * Class [JarClassLoader] Loads tool classes from a JAR file published on the web server.
+ * <p>
+ * The JAR is downloaded once, when the first class is asked for, and memory-mapped. Classes are defined
+ * straight from the mapped archive, so a tool made of many classes costs a single transfer.
+ * The JAR's name carries its version, e.g. "tools/appserver-tools-1.0.jar": a new version is a new file.
+ * If a cache directory is given, the JAR is kept there and revalidated with its ETag on the next start.
+ * Classes not found in the JAR are loaded as loose class files, see <code>HTTPClassLoader</code>.
+ */
+public class JarClassLoader extends HTTPClassLoader {
+
+    private final String jarPath;
+    private final File cacheDirectory;
+    private MappedJar jar = null; // guarded by this
+
+    /**
+     * Common Constructor
+     * @param jarPath - path of the JAR file on the web server, relative to its document root
+     * @param cacheDirectory - directory to keep the JAR file and class files in, null for no cache
+     */
+    public JarClassLoader(String host, int port, String jarPath, File cacheDirectory) {
+        super(host, port, cacheDirectory);
+        this.jarPath = jarPath.startsWith("/") ? jarPath : "/" + jarPath;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Overrides corresponding method in superclass <code>HTTPClassLoader</code>
+     */
+    @Override
+    public Class<?> findClass(String className) throws ClassNotFoundException {
+        ByteBuffer classData;
+        try {
+            classData = getJar().getClassData(className);
+        } catch (IOException e) {
+            Log.warn("JarClassLoader.findClass", "{}, loading class file \"{}\" instead", e, className);
+            classData = null;
+        }
+        if (classData == null) {
+            return super.findClass(className);
+        }
+
+        Class<?> classObject = defineClass(className, classData, (ProtectionDomain) null);
+        Log.debug("JarClassLoader.findClass", "Class object \"{}\" created from {}", className, jarPath);
+        return classObject;
+    }
+
+    /**
+     * Closes the connection to the web server and lets go of the mapped JAR, the mapping is released
+     * once the classes defined from it are no longer used
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        jar = null;
+    }
+
+    /**
+     * Fetches and maps the JAR file, the first time it is needed
+     */
+    private synchronized MappedJar getJar() throws IOException {
+        if (jar == null) {
+            jar = new MappedJar(fetchJar());
+            Log.info("JarClassLoader.getJar", "JAR \"{}\" mapped, classes {}", jarPath, jar.getClassNames());
+        }
+        return jar;
+    }
+
+    private File fetchJar() throws IOException {
+        String jarName = jarPath.substring(jarPath.lastIndexOf('/') + 1);
+        File jarFile;
+        File etagFile = null;
+        String etag = null;
+        if (cacheDirectory != null) {
+            cacheDirectory.mkdirs();
+            jarFile = new File(cacheDirectory, jarName);
+            etagFile = new File(cacheDirectory, jarName + ".etag");
+            if (jarFile.isFile() && etagFile.isFile()) {
+                etag = new String(Files.readAllBytes(etagFile.toPath()), "ISO-8859-1").trim();
+            }
+        } else {
+            jarFile = File.createTempFile("tools-", ".jar");
+            jarFile.deleteOnExit();
+        }
+
+        Response response = request(jarPath, etag);
+        if (response.status == 304) {
+            Log.info("JarClassLoader.fetchJar", "JAR \"{}\" not modified, using {}", jarPath, jarFile);
+            return jarFile;
+        }
+        if (response.status != 200) {
+            throw new IOException("JAR \"" + jarPath + "\" not found, status " + response.status);
+        }
+
+        // write next to the target, so a JAR that is mapped is never rewritten in place
+        File temp = new File(jarFile.getPath() + ".tmp");
+        Files.write(temp.toPath(), response.body);
+        Files.move(temp.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (etagFile != null) {
+            if (response.etag != null) {
+                Files.write(etagFile.toPath(), response.etag.getBytes("ISO-8859-1"));
+            } else {
+                etagFile.delete();
+            }
+        }
+        Log.info("JarClassLoader.fetchJar", "JAR \"{}\" loaded, {} bytes", jarPath, response.body.length);
+        return jarFile;
+    }
+}
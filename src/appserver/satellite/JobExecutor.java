@@ -0,0 +1,183 @@
+package appserver.satellite;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import utils.LatencyHistogram;
+import utils.Log;
+import utils.Metrics;
+import utils.VirtualThreads;
+
+/**
+ * Class [JobExecutor] Executes the job requests a satellite receives, either on a bounded pool of
+ * worker threads or on virtual threads, as configured in the satellite's properties file.
+ * <p>
+ * At most WORKERS + QUEUE_DEPTH jobs are admitted at any time. Jobs beyond that limit are rejected
+ * with a <code>RejectedExecutionException</code> instead of being queued without bound.
+ * <p>
+ * The time jobs wait for a worker is recorded as "satellite_queue_wait_seconds", see <code>utils.Metrics</code>.
+ */
+public class JobExecutor {
+
+    // values of the EXECUTOR property
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+
+    static final int DEFAULT_QUEUE_DEPTH = 64;
+
+    private final ExecutorService executor;
+    // limits the number of admitted jobs when running on virtual threads, null for the worker pool
+    private final Semaphore admissions;
+    private final String mode;
+    private final int workers;
+    private final int queueDepth;
+    // load statistics reported in heartbeats
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private final AtomicLong completedJobs = new AtomicLong();
+
+    private static final LatencyHistogram queueWait = Metrics.histogram("satellite_queue_wait_seconds");
+    private static final LongAdder rejectedJobs = Metrics.counter("satellite_jobs_rejected_total");
+
+    public JobExecutor(String mode, int workers, int queueDepth) {
+        this.workers = workers;
+        this.queueDepth = queueDepth;
+
+        ExecutorService virtualExecutor = null;
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            virtualExecutor = VirtualThreads.newPerTaskExecutor();
+            if (virtualExecutor == null) {
+                Log.warn("JobExecutor.JobExecutor", "Virtual threads not supported by this JVM, using worker pool");
+            }
+        }
+
+        if (virtualExecutor != null) {
+            this.mode = VIRTUAL;
+            executor = virtualExecutor;
+            admissions = new Semaphore(workers + queueDepth);
+        } else {
+            this.mode = POOL;
+            executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueDepth), new WorkerThreadFactory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            admissions = null;
+        }
+    }
+
+    /**
+     * Creates a job executor from the EXECUTOR, WORKERS and QUEUE_DEPTH properties
+     * @param properties - satellite properties
+     */
+    public static JobExecutor fromProperties(Properties properties) {
+        String mode = properties.getProperty("EXECUTOR", POOL).trim();
+        int workers = Runtime.getRuntime().availableProcessors();
+        if (properties.getProperty("WORKERS") != null) {
+            workers = Integer.parseInt(properties.getProperty("WORKERS").trim());
+        }
+        int queueDepth = DEFAULT_QUEUE_DEPTH;
+        if (properties.getProperty("QUEUE_DEPTH") != null) {
+            queueDepth = Integer.parseInt(properties.getProperty("QUEUE_DEPTH").trim());
+        }
+        return new JobExecutor(mode, workers, queueDepth);
+    }
+
+    /**
+     * Hands a job over for execution
+     * @param job - the job to run
+     * @throws RejectedExecutionException if the satellite is saturated
+     */
+    public void execute(final Runnable job) throws RejectedExecutionException {
+        if (admissions != null && !admissions.tryAcquire()) {
+            rejectedJobs.increment();
+            throw new RejectedExecutionException("Job queue depth of " + (workers + queueDepth) + " exceeded");
+        }
+        pendingJobs.incrementAndGet();
+        final long admitted = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    queueWait.recordSince(admitted);
+                    try {
+                        job.run();
+                    } finally {
+                        completedJobs.incrementAndGet();
+                        pendingJobs.decrementAndGet();
+                        if (admissions != null) {
+                            admissions.release();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedJobs.increment();
+            pendingJobs.decrementAndGet();
+            if (admissions != null) {
+                admissions.release();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Number of jobs admitted that did not complete yet, running or waiting for a worker
+     */
+    public int getPendingJobs() {
+        return pendingJobs.get();
+    }
+
+    /**
+     * Number of jobs run to completion since the satellite started
+     */
+    public long getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    /**
+     * Number of jobs that can be admitted at the same time
+     */
+    public int getCapacity() {
+        return workers + queueDepth;
+    }
+
+    /**
+     * Number of jobs run at the same time, on virtual threads every job admitted runs right away
+     */
+    public int getWorkers() {
+        return mode.equals(VIRTUAL) ? workers + queueDepth : workers;
+    }
+
+    /**
+     * Stops accepting jobs, jobs already admitted are still run to completion
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return mode + " executor, " + workers + " workers, queue depth " + queueDepth;
+    }
+
+    /**
+     * Class [WorkerThreadFactory] Names the worker threads of the pool
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "satellite-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package appserver.satellite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class [MappedJar] A JAR file mapped into memory, giving access to the bytes of its class files.
+ * <p>
+ * Only the central directory is read when the archive is opened. The bytes of a class are located when
+ * the class is asked for: a class stored uncompressed is handed out as a view of the mapped archive, without
+ * copying, a compressed one is inflated into a buffer of its own. Archives larger than 4 GB (ZIP64) are not supported.
+ */
+class MappedJar {
+
+    // signatures and layout of the ZIP format, see the ZIP file format specification (APPNOTE.TXT)
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File file;
+    private final MappedByteBuffer archive;
+    private final Map<String, Entry> entries = new HashMap<>(); // by binary class name
+
+    /**
+     * Class [Entry] Where the bytes of a class file are found in the archive
+     */
+    private static class Entry {
+
+        int method;
+        int compressedSize;
+        int size;
+        int localHeaderOffset;
+    }
+
+    /**
+     * Maps a JAR file and reads its central directory
+     */
+    MappedJar(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        archive.order(ByteOrder.LITTLE_ENDIAN);
+        readCentralDirectory();
+    }
+
+    /**
+     * @return the bytes of a class file, positioned at the start, null if the archive does not contain the class
+     */
+    ByteBuffer getClassData(String className) throws IOException {
+        Entry entry = entries.get(className);
+        if (entry == null) {
+            return null;
+        }
+
+        int offset = entry.localHeaderOffset;
+        if (archive.getInt(offset) != LOCAL_HEADER) {
+            throw new IOException(file + ": broken local header of " + className);
+        }
+        int dataOffset = offset + 30 + Short.toUnsignedInt(archive.getShort(offset + 26))
+                + Short.toUnsignedInt(archive.getShort(offset + 28));
+        ByteBuffer data = archive.duplicate();
+        data.position(dataOffset);
+        data.limit(dataOffset + entry.compressedSize);
+        data = data.slice();
+
+        if (entry.method == STORED) {
+            return data;
+        }
+        if (entry.method != DEFLATED) {
+            throw new IOException(file + ": unsupported compression method " + entry.method + " of " + className);
+        }
+
+        // the JAR's entries are raw deflate streams, without zlib header
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteBuffer classData = ByteBuffer.allocate(entry.size);
+            while (classData.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(classData) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (classData.hasRemaining()) {
+                throw new IOException(file + ": truncated entry " + className);
+            }
+            classData.flip();
+            return classData;
+        } catch (DataFormatException e) {
+            throw new IOException(file + ": broken entry " + className + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the binary names of all classes in the archive
+     */
+    Iterable<String> getClassNames() {
+        return entries.keySet();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        // the end of central directory record is at the very end, unless the archive has a comment
+        int end = -1;
+        int lowest = Math.max(0, archive.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_LENGTH);
+        for (int position = archive.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= lowest; position--) {
+            if (archive.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                end = position;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException(file + " is not a JAR file");
+        }
+
+        int count = Short.toUnsignedInt(archive.getShort(end + 10));
+        int position = archive.getInt(end + 16);
+        for (int i = 0; i < count; i++) {
+            if (archive.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException(file + ": broken central directory");
+            }
+            int nameLength = Short.toUnsignedInt(archive.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(archive.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(archive.getShort(position + 32));
+
+            byte[] nameBytes = new byte[nameLength];
+            archive.get(position + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+                Entry entry = new Entry();
+                entry.method = Short.toUnsignedInt(archive.getShort(position + 10));
+                entry.compressedSize = archive.getInt(position + 20);
+                entry.size = archive.getInt(position + 24);
+                entry.localHeaderOffset = archive.getInt(position + 42);
+                if (entry.compressedSize < 0 || entry.size < 0 || entry.localHeaderOffset < 0) {
+                    throw new IOException(file + ": ZIP64 archives are not supported");
+                }
+                String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+                entries.put(className, entry);
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+}
@@ -4,19 +4,46 @@ import appserver.job.Job;
 import appserver.comm.ConnectivityInfo;
 import appserver.job.UnknownToolException;
 import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import appserver.comm.BatchResult;
+import appserver.comm.SatelliteStatus;
+import appserver.comm.ToolVersion;
+import static appserver.comm.MessageTypes.CACHEABLE_JOB_RESULT;
+import static appserver.comm.MessageTypes.HEARTBEAT;
+import static appserver.comm.MessageTypes.JOB_BATCH_REQUEST;
+import static appserver.comm.MessageTypes.JOB_BATCH_RESULT;
+import static appserver.comm.MessageTypes.JOB_FAILED;
 import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
 import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.REGISTER_TOOL;
+import static appserver.comm.MessageTypes.STREAM_CANCEL;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_END;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import static appserver.comm.MessageTypes.UNREGISTER_SATELLITE;
+import appserver.job.Deterministic;
+import appserver.job.JobBatch;
+import appserver.job.StreamingTool;
 import appserver.job.Tool;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import utils.Log;
+import utils.Metrics;
 import utils.PropertyHandler;
 
 /**
@@ -31,8 +58,22 @@ public class Satellite extends Thread {
     // ConnectivityInfo stores host and port number
     private ConnectivityInfo satelliteInfo = new ConnectivityInfo();
     private ConnectivityInfo serverInfo = new ConnectivityInfo();
-    private HTTPClassLoader classLoader = null; // use to load class files from remote servers
-    private Hashtable toolsCache = null; // use to store and quickly access Tool objects
+    private int[] codecPreferences = null; // codecs to offer to the server
+    private ClassLoader classLoader = null; // use to load class files from remote servers
+    private ToolCache toolCache = null; // use to store and quickly access Tool objects
+    private JobExecutor jobExecutor = null; // runs job requests concurrently
+    // loads new tool versions, one after the other, apart from the jobs
+    private final ExecutorService toolRegistrations = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tool-registration");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long heartbeatInterval = 1000; // milliseconds between heartbeats to the server
+    private long streamCreditTimeout = 30000; // milliseconds a streaming tool waits for credit
+    private int streamMaxCredit = 1024; // chunks a stream's receiver may ask for ahead
+    private File classCacheDirectory = null; // keeps class files loaded from the code server, null for no cache
+    private String codeServerHost = null; // web server serving the tools' class files
+    private int codeServerPort;
 
     public Satellite(String satellitePropertiesFile, String classLoaderPropertiesFile, String serverPropertiesFile) {
 
@@ -43,8 +84,16 @@ public class Satellite extends Thread {
             satelliteInfo.setName(satelliteConfig.getProperty("NAME"));
             satelliteInfo.setPort(Integer.parseInt(satelliteConfig.getProperty("PORT")));
             satelliteInfo.setHost("127.0.0.1");
+            Metrics.registerMBean(satelliteInfo.getName());
+            String classCacheDir = satelliteConfig.getProperty("CLASS_CACHE_DIR");
+            if (classCacheDir != null && !classCacheDir.trim().isEmpty()) {
+                classCacheDirectory = new File(classCacheDir.trim());
+            }
+            streamCreditTimeout = Long.parseLong(satelliteConfig.getProperty("STREAM_CREDIT_TIMEOUT", "30000").trim());
+            // Create the execution engine for job requests
+            jobExecutor = JobExecutor.fromProperties(satelliteConfig);
         } catch (IOException e) {
-            System.err.println(e);
+            Log.error("Satellite.Satellite", "{}", e);
             System.exit(1);
         }
 
@@ -55,138 +104,463 @@ public class Satellite extends Thread {
             PropertyHandler serverConfig = new PropertyHandler(serverPropertiesFile);
             serverInfo.setPort(Integer.parseInt(serverConfig.getProperty("PORT")));
             serverInfo.setHost(serverConfig.getProperty("HOST"));
+            codecPreferences = MessageCodecs.preferences(serverConfig.getProperty("CODEC"));
+            heartbeatInterval = Long.parseLong(serverConfig.getProperty("HEARTBEAT_INTERVAL", "1000").trim());
+            streamMaxCredit = Integer.parseInt(serverConfig.getProperty("STREAM_MAX_CREDIT", "1024").trim());
         } catch (IOException e) {
-            System.err.println(e);
+            Log.error("Satellite.Satellite", "{}", e);
             System.exit(1);
         }
 
         // Read properties of the code server and create class loader
         try {
             PropertyHandler classLoaderConfig = new PropertyHandler(classLoaderPropertiesFile);
-            classLoader = new HTTPClassLoader(classLoaderConfig.getProperty("HOST"),
-                    Integer.parseInt(classLoaderConfig.getProperty("PORT")));
+            codeServerHost = classLoaderConfig.getProperty("HOST");
+            codeServerPort = Integer.parseInt(classLoaderConfig.getProperty("PORT"));
+            String toolJar = classLoaderConfig.getProperty("TOOL_JAR");
+            classLoader = createClassLoader(toolJar == null || toolJar.trim().isEmpty() ? null : toolJar.trim());
         } catch (IOException e) {
-            System.err.println(e);
+            Log.error("Satellite.Satellite", "{}", e);
             System.exit(1);
         }
 
         // Create tools cache
-        toolsCache = new Hashtable();
+        toolCache = new ToolCache(classLoader);
 
     }
 
-    @Override
-    public void run() {
+    /**
+     * Creates a class loader for tool classes
+     * @param jarPath - JAR file on the web server the classes are published in, null for loose class files
+     */
+    private ClassLoader createClassLoader(String jarPath) {
+        if (jarPath != null) {
+            return new JarClassLoader(codeServerHost, codeServerPort, jarPath, classCacheDirectory);
+        }
+        return new HTTPClassLoader(codeServerHost, codeServerPort, classCacheDirectory);
+    }
 
-        // Register this satellite with the SatelliteManager on the server
+    /**
+     * Tells whether an address is the one of the server's host, see SatelliteThread
+     */
+    private boolean isServerAddress(InetAddress address) {
         try {
-            Socket server = new Socket(serverInfo.getHost(), serverInfo.getPort());
-            // Create message with type REGISTER_SATELLITE and object to send satelliteInfo
-            Message registerMsg = new Message(REGISTER_SATELLITE, satelliteInfo);
-            ObjectOutputStream toNetwork = new ObjectOutputStream(server.getOutputStream());
-            System.out.println("[Satellite.run] Register Satellite: " + satelliteInfo.getName());
-            // Send message to application server
-            toNetwork.writeObject(registerMsg);
-            // Could wait for response here in case of message failure
-        } catch (IOException e) {
-            System.err.println(e);
+            for (InetAddress serverAddress : InetAddress.getAllByName(serverInfo.getHost())) {
+                if (serverAddress.equals(address)) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException e) {
+            Log.warn("Satellite.isServerAddress", "{}", e);
         }
+        return false;
+    }
+
+    @Override
+    public void run() {
 
         // Create server socket
         try {
             ServerSocket socket = new ServerSocket(satelliteInfo.getPort());
-            System.out.println("[Satellite.run] Socket Created on Port :" + satelliteInfo.getPort());
+            Log.info("Satellite.run", "Socket Created on Port :{}", satelliteInfo.getPort());
+            Log.info("Satellite.run", "Running jobs on {}", jobExecutor);
 
-            // Start taking job requests in a server loop
+            // Register this satellite with the SatelliteManager on the server and keep reporting liveness,
+            // unregister when the satellite is shut down
+            final HeartbeatThread heartbeat = new HeartbeatThread();
+            heartbeat.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> heartbeat.unregister()));
+
+            // Start taking connections in a server loop, each of them may carry many job requests
             while (true) {
-                new SatelliteThread(socket.accept(), this).run();
+                new SatelliteThread(socket.accept(), this).start();
             }
         } catch (IOException e) {
-            System.err.println(e);
+            Log.error("Satellite.run", "{}", e);
         }
     }
 
     /**
-     * Class [SatelliteThread] An instance of this class represent a thread to process
-     * single job requests received in the satellite server loop.
+     * Class [SatelliteThread] An instance of this class represents a thread serving one
+     * connection accepted in the satellite server loop. Connections are long-lived and multiplexed:
+     * job requests are handed over to the job executor, and each reply carries the correlation ID
+     * of its request, so replies may go out in any order.
+     * <p>
+     * With direct routing, clients connect as well. Only connections from the server's host may register tools,
+     * all others are limited to job and stream messages.
      */
     private class SatelliteThread extends Thread {
 
         Socket jobRequest = null; // socket for communicating with client
-        ObjectInputStream readFromNet = null;
-        ObjectOutputStream writeToNet = null;
+        MessageChannel channel = null;
         Message message = null;
+        // streams running on this connection, by correlation ID
+        final ConcurrentHashMap<Long, StreamSink> streams = new ConcurrentHashMap<>();
+
+        final boolean fromServer; // connection from the server's host
 
         SatelliteThread(Socket jobRequest, Satellite satellite) {
             this.jobRequest = jobRequest;
+            this.fromServer = isServerAddress(jobRequest.getInetAddress());
         }
 
         @Override
         public void run() {
             try {
-                // Create object streams
-                readFromNet = new ObjectInputStream(jobRequest.getInputStream());
-                writeToNet = new ObjectOutputStream(jobRequest.getOutputStream());
-
-                // Read message
-                message = (Message) readFromNet.readObject();
-
-                // This thread should only handle messages of type JOB_REQUEST
-                switch (message.getType()) {
-                    case JOB_REQUEST:
-                        System.out.println("[SatelliteThread.run] Received New Job Request.");
-                        try {
-                            // Cast message content to a Job object
-                            Job requestedJob = (Job) message.getContent();
-                            // Get tool
-                            String toolString = requestedJob.getToolName();
-                            Tool tool = getToolObject(toolString);
-                            // Use tool to process job request
-                            Object result = tool.go(requestedJob.getParameters());
-                            // Notify the client of job request's result
-                            writeToNet.writeObject(result);
-                            System.out.println("[SatelliteThread.run] COMPLETED JOB REQUEST #: " + (long) result);
-                        } catch (UnknownToolException | InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-                            System.err.println(e);
-                        }
-                        break;
+                channel = MessageChannel.accept(jobRequest);
+
+                // Read messages until the peer closes the connection
+                while (true) {
+                    message = channel.receive();
+
+                    // This thread should only handle job requests, single ones or batches
+                    switch (message.getType()) {
+                        case JOB_REQUEST:
+                            Log.debug("SatelliteThread.run", "Received New Job Request #{}", message.getId());
+                            final Message request = message;
+                            try {
+                                jobExecutor.execute(() -> processJob(request));
+                            } catch (RejectedExecutionException e) {
+                                // Satellite is saturated, push back by refusing the request
+                                Log.warn("SatelliteThread.run", "Job request rejected: {}", e.getMessage());
+                                reply(new Message(JOB_FAILED, "Job rejected by " + satelliteInfo.getName() + ": " + e.getMessage(), request.getId()));
+                            }
+                            break;
+
+                        case JOB_BATCH_REQUEST:
+                            final long batchId = message.getId();
+                            JobBatch batch = content(message, JobBatch.class);
+                            Job[] jobs = batch == null ? null : batch.getJobs();
+                            if (jobs == null) {
+                                if (batch != null) {
+                                    reply(new Message(JOB_FAILED, "Malformed batch, no jobs", batchId));
+                                }
+                                break;
+                            }
+                            Log.debug("SatelliteThread.run", "Received New Job Batch #{} of {} jobs", batchId, jobs.length);
+                            // run the jobs of the batch in parallel, each one replies on its own
+                            new BatchRun(batchId, jobs).start();
+                            break;
+
+                        case STREAM_REQUEST:
+                            Log.debug("SatelliteThread.run", "Received New Stream Request #{}", message.getId());
+                            final Message streamRequest = message;
+                            final StreamSink sink = new StreamSink(channel, message.getId(), streamCreditTimeout, streamMaxCredit);
+                            streams.put(message.getId(), sink);
+                            try {
+                                jobExecutor.execute(() -> processStream(streamRequest, sink));
+                            } catch (RejectedExecutionException e) {
+                                streams.remove(message.getId());
+                                reply(new Message(JOB_FAILED, "Job rejected by " + satelliteInfo.getName() + ": " + e.getMessage(), message.getId()));
+                            }
+                            break;
+
+                        case REGISTER_TOOL:
+                            if (!fromServer) {
+                                Log.warn("SatelliteThread.run", "Tool registration #{} from {} refused, not the server",
+                                        message.getId(), jobRequest.getInetAddress());
+                                reply(new Message(JOB_FAILED, "Tools are registered through the server", message.getId()));
+                                break;
+                            }
+                            final ToolVersion toolVersion = content(message, ToolVersion.class);
+                            if (toolVersion == null) {
+                                break;
+                            }
+                            final long registrationId = message.getId();
+                            Log.info("SatelliteThread.run", "Received tool registration #{}: {}", registrationId, toolVersion);
+                            // loading may take a while, do not hold up the messages behind it
+                            toolRegistrations.execute(() -> processToolRegistration(registrationId, toolVersion));
+                            break;
+
+                        case STREAM_CREDIT:
+                            Integer credit = content(message, Integer.class);
+                            StreamSink creditedStream = streams.get(message.getId());
+                            if (credit != null && creditedStream != null) {
+                                creditedStream.grant(credit);
+                            }
+                            break;
+
+                        case STREAM_CANCEL:
+                            StreamSink cancelledStream = streams.remove(message.getId());
+                            if (cancelledStream != null) {
+                                cancelledStream.cancel();
+                            }
+                            break;
+
+                        default:
+                            Log.warn("SatelliteThread.run", "Message type {} not implemented", message.getType());
+                    }
+                }
+            } catch (EOFException e) {
+                // peer closed the connection
+            } catch (IOException e){
+                Log.warn("SatelliteThread.run", "{}", e);
+            } catch (RuntimeException e) {
+                Log.error("SatelliteThread.run", "Closing connection after unexpected failure: {}", e);
+            } finally {
+                // nobody is going to take the chunks of streams still running
+                for (StreamSink sink : streams.values()) {
+                    sink.cancel();
+                }
+
+                try {
+                    jobRequest.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        /**
+         * Gets the content of a message, checking that it is what the message's type calls for.
+         * A malformed message is answered with JOB_FAILED.
+         * @param message - the message
+         * @param type - class the content has to be an instance of
+         * @return the content, or <code>null</code> if it is malformed
+         */
+        private <T> T content(Message message, Class<T> type) {
+            Object content = message.getContent();
+            if (type.isInstance(content)) {
+                return type.cast(content);
+            }
+            Log.warn("SatelliteThread.run", "Malformed message #{} of type {}: {}", message.getId(), message.getType(),
+                    content == null ? "no content" : content.getClass().getName());
+            reply(new Message(JOB_FAILED, "Malformed message, expected " + type.getSimpleName(), message.getId()));
+            return null;
+        }
+
+        /**
+         * Runs a job on the job executor and replies with its result. Whatever the tool throws, errors included,
+         * the job is answered, the server does not give up on jobs by itself.
+         */
+        private void processJob(Message request) {
+            try {
+                // Cast message content to a Job object
+                Job requestedJob = (Job) request.getContent();
+                // Get tool
+                String toolString = requestedJob.getToolName();
+                ToolCache.Lease lease = toolCache.acquire(toolString);
+                Tool tool = lease.getTool();
+                Object result;
+                try {
+                    // Use tool to process job request
+                    result = tool.go(requestedJob.getParameters());
+                } finally {
+                    lease.release();
+                }
+                // Notify the client of job request's result, results of deterministic tools may be cached by the server
+                int resultType = tool instanceof Deterministic ? CACHEABLE_JOB_RESULT : JOB_RESULT;
+                reply(new Message(resultType, result, request.getId()));
+                Log.debug("SatelliteThread.processJob", "COMPLETED JOB REQUEST #{}: {}", request.getId(), result);
+            } catch (UnknownToolException | InstantiationException | IllegalAccessException | ClassNotFoundException | RuntimeException | Error e) {
+                Log.warn("SatelliteThread.processJob", "Job #{} failed: {}", request.getId(), e);
+                reply(new Message(JOB_FAILED, e.toString(), request.getId()));
+            }
+        }
+
+        /**
+         * Runs a streaming tool on the job executor. Its chunks are sent as the tool emits them,
+         * the stream is closed with STREAM_END, or with JOB_FAILED if the tool fails or the stream is cancelled.
+         * Every stream gets one of them, the server keeps track of the stream until then.
+         */
+        private void processStream(Message request, StreamSink sink) {
+            try {
+                Job requestedJob = (Job) request.getContent();
+                ToolCache.Lease lease = toolCache.acquire(requestedJob.getToolName());
+                Tool tool = lease.getTool();
+                try {
+                    if (!(tool instanceof StreamingTool)) {
+                        throw new IllegalArgumentException(requestedJob.getToolName() + " is not a streaming tool");
+                    }
+                    ((StreamingTool) tool).go(requestedJob.getParameters(), sink);
+                } finally {
+                    lease.release();
+                }
+                reply(new Message(STREAM_END, null, request.getId()));
+                Log.debug("SatelliteThread.processStream", "COMPLETED STREAM REQUEST #{}", request.getId());
+            } catch (CancellationException e) {
+                Log.debug("SatelliteThread.processStream", "{}", e.getMessage());
+                reply(new Message(JOB_FAILED, e.getMessage(), request.getId()));
+            } catch (UnknownToolException | InstantiationException | IllegalAccessException | ClassNotFoundException | RuntimeException | Error e) {
+                Log.warn("SatelliteThread.processStream", "Stream #{} failed: {}", request.getId(), e);
+                reply(new Message(JOB_FAILED, e.toString(), request.getId()));
+            } finally {
+                streams.remove(request.getId());
+            }
+        }
 
-                    default:
-                        System.err.println("[SatelliteThread.run] Warning: Message type not implemented");
+        /**
+         * Runs one job of a batch on the job executor and replies with its result, tagged with the job's index
+         */
+        private void processBatchJob(long batchId, int index, Job job) {
+            try {
+                ToolCache.Lease lease = toolCache.acquire(job.getToolName());
+                Object result;
+                try {
+                    result = lease.getTool().go(job.getParameters());
+                } finally {
+                    lease.release();
                 }
-            } catch (IOException | ClassNotFoundException e){
-                System.out.println(e);
+                reply(new Message(JOB_BATCH_RESULT, new BatchResult(index, false, result), batchId));
+            } catch (UnknownToolException | InstantiationException | IllegalAccessException | ClassNotFoundException | RuntimeException | Error e) {
+                Log.warn("SatelliteThread.processBatchJob", "Job {} of batch #{} failed: {}", index, batchId, e);
+                reply(new Message(JOB_BATCH_RESULT, new BatchResult(index, true, e.toString()), batchId));
             }
         }
 
         /**
-         * Aux method to get a tool object, given the fully qualified class string.
-         * If the tool has been used before, it is returned immediately out of the cache,
-         * otherwise it is loaded dynamically.
+         * Class [BatchRun] Runs the jobs of a batch, no more of them at a time than the satellite has workers.
+         * A batch of any size fits into the job executor that way, the next job is handed over when one completes.
+         * Jobs are only rejected if other requests fill the executor meanwhile.
          */
-        public Tool getToolObject(String toolClassString) throws UnknownToolException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+        private class BatchRun {
 
-            // Check cache for tool
-            Tool toolObject = (Tool) toolsCache.get(toolClassString);
+            private final long batchId;
+            private final Job[] jobs;
+            private final AtomicInteger next = new AtomicInteger(); // index of the next job to hand over
 
-            // Otherwise, load dynamically
-            if (toolObject == null) {
-                System.out.println("\nTool's Class: " + toolClassString);
-                if (toolClassString == null) {
-                    throw new UnknownToolException();
+            BatchRun(long batchId, Job[] jobs) {
+                this.batchId = batchId;
+                this.jobs = jobs;
+            }
+
+            void start() {
+                int window = Math.min(jobs.length, Math.max(1, jobExecutor.getWorkers()));
+                for (int i = 0; i < window; i++) {
+                    submitNext();
                 }
-                // Use class loader to get appropriate tool's class
-                Class<?> toolClass = classLoader.loadClass(toolClassString);
-                toolObject = (Tool) toolClass.newInstance();
-                // Store tool in cache for quick access in future
-                toolsCache.put(toolClassString, toolObject);
-            } else {
-                System.out.println("Tool Class: " + toolClassString + " already in Cache.");
             }
 
-            return toolObject;
+            private void submitNext() {
+                int index;
+                while ((index = next.getAndIncrement()) < jobs.length) {
+                    if (jobRequest.isClosed()) {
+                        // nobody is going to take the results
+                        return;
+                    }
+                    final int jobIndex = index;
+                    try {
+                        jobExecutor.execute(() -> {
+                            processBatchJob(batchId, jobIndex, jobs[jobIndex]);
+                            submitNext();
+                        });
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        reply(new Message(JOB_BATCH_RESULT, new BatchResult(jobIndex, true,
+                                "Job rejected by " + satelliteInfo.getName() + ": " + e.getMessage()), batchId));
+                    }
+                }
+            }
         }
 
+        /**
+         * Loads a new version of a tool in a class loader of its own, new jobs of the tool run on it from now on
+         */
+        private void processToolRegistration(long requestId, ToolVersion toolVersion) {
+            try {
+                boolean registered = toolCache.register(toolVersion.getToolName(), toolVersion.getVersion(),
+                        createClassLoader(toolVersion.getJarPath()));
+                reply(new Message(JOB_RESULT, satelliteInfo.getName() + ": " + toolVersion
+                        + (registered ? " registered" : " in use already"), requestId));
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | RuntimeException | LinkageError e) {
+                Log.warn("SatelliteThread.processToolRegistration", "{}: {}", toolVersion, e);
+                reply(new Message(JOB_FAILED, satelliteInfo.getName() + ": " + toolVersion + " failed: " + e, requestId));
+            }
+        }
+
+        /**
+         * Writes a reply, replies of concurrently running jobs share the connection
+         */
+        private void reply(Message reply) {
+            try {
+                channel.send(reply);
+            } catch (IOException e) {
+                Log.warn("SatelliteThread.reply", "Reply #{} lost: {}", reply.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Class [HeartbeatThread] Registers the satellite with the server, then sends a heartbeat
+     * with the satellite's load every HEARTBEAT_INTERVAL milliseconds over the same connection.
+     * The server evicts satellites whose heartbeats stop. If the server cannot be reached,
+     * the connection is set up again and the satellite registers anew.
+     */
+    private class HeartbeatThread extends Thread {
+
+        private MessageChannel server = null;
+        private volatile boolean stopped = false;
+
+        HeartbeatThread() {
+            super("satellite-heartbeat");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                try {
+                    synchronized (this) {
+                        if (server == null) {
+                            server = new MessageChannel(serverInfo.getHost(), serverInfo.getPort(), codecPreferences);
+                            // Create message with type REGISTER_SATELLITE and object to send satelliteInfo
+                            Log.info("HeartbeatThread.run", "Register Satellite: {}", satelliteInfo.getName());
+                            server.send(new Message(REGISTER_SATELLITE, satelliteInfo));
+                        }
+                        server.send(new Message(HEARTBEAT, currentStatus()));
+                    }
+                } catch (IOException e) {
+                    Log.warn("HeartbeatThread.run", "Server unreachable: {}", e);
+                    disconnect();
+                }
+
+                try {
+                    Thread.sleep(heartbeatInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stops the heartbeats and tells the server to stop routing jobs to this satellite
+         */
+        void unregister() {
+            stopped = true;
+            interrupt();
+            synchronized (this) {
+                try {
+                    if (server == null) {
+                        server = new MessageChannel(serverInfo.getHost(), serverInfo.getPort(), codecPreferences);
+                    }
+                    Log.info("HeartbeatThread.unregister", "Unregister Satellite: {}", satelliteInfo.getName());
+                    server.send(new Message(UNREGISTER_SATELLITE, satelliteInfo.getName()));
+                } catch (IOException e) {
+                    Log.warn("HeartbeatThread.unregister", "{}", e);
+                }
+                Log.flush();
+                disconnect();
+            }
+        }
+
+        private synchronized void disconnect() {
+            if (server != null) {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                }
+                server = null;
+            }
+        }
+
+        private SatelliteStatus currentStatus() {
+            SatelliteStatus status = new SatelliteStatus();
+            status.setSatelliteInfo(satelliteInfo);
+            status.setPendingJobs(jobExecutor.getPendingJobs());
+            status.setCapacity(jobExecutor.getCapacity());
+            status.setWorkers(jobExecutor.getWorkers());
+            status.setCompletedJobs(jobExecutor.getCompletedJobs());
+            return status;
+        }
     }
 
     public static void main(String[] args) {
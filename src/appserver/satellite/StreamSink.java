@@ -0,0 +1,92 @@
+package appserver.satellite;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.STREAM_CHUNK;
+import appserver.job.ResultSink;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import utils.Log;
+
+/**
+ * Class [StreamSink] Sends the chunks of a streaming tool's result as STREAM_CHUNK messages.
+ * <p>
+ * Every chunk takes one credit, credits are granted by the receiver with STREAM_CREDIT messages.
+ * Without credit, the tool blocks in <code>emit()</code>, so a slow client slows down the tool
+ * instead of chunks piling up anywhere on the way. A client that grants no credit for STREAM_CREDIT_TIMEOUT
+ * milliseconds does not hold on to the worker though: the stream is cancelled.
+ * Credit not used yet is capped at STREAM_MAX_CREDIT chunks, more is not granted.
+ */
+class StreamSink implements ResultSink {
+
+    private final MessageChannel channel;
+    private final long streamId;
+    private final long creditTimeoutMillis;
+    private final int maxCredit;
+    private final Semaphore credits = new Semaphore(0);
+    private volatile boolean cancelled = false;
+
+    /**
+     * Initializes StreamSink
+     * @param channel - connection the stream request came in on
+     * @param streamId - correlation ID of the stream request
+     * @param creditTimeoutMillis - how long the tool waits for credit before the stream is cancelled
+     * @param maxCredit - chunks granted and not emitted yet, at most
+     */
+    StreamSink(MessageChannel channel, long streamId, long creditTimeoutMillis, int maxCredit) {
+        this.channel = channel;
+        this.streamId = streamId;
+        this.creditTimeoutMillis = creditTimeoutMillis;
+        this.maxCredit = Math.max(1, maxCredit);
+    }
+
+    @Override
+    public void emit(Object chunk) {
+        if (cancelled) {
+            throw new CancellationException("Stream #" + streamId + " cancelled");
+        }
+        try {
+            if (!credits.tryAcquire(creditTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                cancel();
+                Log.warn("StreamSink.emit", "Stream #{} got no credit for {}ms, cancelled", streamId, creditTimeoutMillis);
+                throw new CancellationException("Stream #" + streamId + " got no credit for " + creditTimeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Stream #" + streamId + " interrupted");
+        }
+        if (cancelled) {
+            throw new CancellationException("Stream #" + streamId + " cancelled");
+        }
+
+        try {
+            channel.send(new Message(STREAM_CHUNK, chunk, streamId));
+        } catch (IOException e) {
+            cancel();
+            throw new CancellationException("Stream #" + streamId + " lost: " + e);
+        }
+    }
+
+    /**
+     * Allows the tool to emit more chunks, as far as the credit not used yet stays within the maximum.
+     * Credit is granted by the connection's reader thread only.
+     * @param chunks - number of chunks
+     */
+    void grant(int chunks) {
+        int granted = Math.min(chunks, maxCredit - credits.availablePermits());
+        if (granted > 0 && !cancelled) {
+            credits.release(granted);
+        }
+    }
+
+    /**
+     * Stops the stream, the tool fails with a <code>CancellationException</code> on its next chunk
+     */
+    void cancel() {
+        cancelled = true;
+        // wake up the tool, if it waits for credit
+        credits.release();
+    }
+}
@@ -0,0 +1,292 @@
+package appserver.satellite;
+
+import appserver.job.Tool;
+import appserver.job.ToolLifecycle;
+import appserver.job.UnknownToolException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.LatencyHistogram;
+import utils.Log;
+import utils.Metrics;
+
+/**
+ * Class [ToolCache] Hands out tool instances to the jobs a satellite runs, honoring the lifecycle each tool
+ * declares with <code>ToolLifecycle</code>.
+ * <p>
+ * Once a tool's class is loaded, getting an instance takes a lookup in a concurrent map and no lock.
+ * A tool's class is loaded once: jobs asking for a tool that is still being loaded wait for that load
+ * instead of starting another one. A failed load is not cached, the next job tries again.
+ * <p>
+ * A new version of a tool is registered with a class loader of its own. Jobs starting afterwards get the
+ * new version, jobs running on the old version finish on it. Once the last of them is done, the old version's
+ * class loader is closed, which releases its connection to the web server, and the JVM may unload its classes.
+ * <p>
+ * The time a tool takes to load is recorded as "satellite_class_load_seconds", the time a lease is held, i.e. the time
+ * a job runs the tool, as "satellite_tool_execution_seconds", both per tool, see <code>utils.Metrics</code>.
+ */
+class ToolCache {
+
+    private final ClassLoader classLoader;
+    private final Map<String, CompletableFuture<ToolProvider>> providers = new ConcurrentHashMap<>();
+
+    ToolCache(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Gets an instance of a tool's current version, to be given back with <code>Lease.release()</code>
+     * when the job is done
+     * @param toolClassString - fully qualified class name of the tool
+     */
+    Lease acquire(String toolClassString) throws UnknownToolException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+        if (toolClassString == null) {
+            throw new UnknownToolException();
+        }
+
+        while (true) {
+            CompletableFuture<ToolProvider> provider = providers.get(toolClassString);
+            if (provider == null) {
+                CompletableFuture<ToolProvider> loading = new CompletableFuture<>();
+                provider = providers.putIfAbsent(toolClassString, loading);
+                if (provider == null) {
+                    provider = loading;
+                    load(toolClassString, loading);
+                }
+            }
+
+            Lease lease;
+            try {
+                lease = provider.join().acquire();
+            } catch (CompletionException e) {
+                throw rethrow(e.getCause());
+            }
+            if (lease != null) {
+                return lease;
+            }
+            // the version was retired in the meantime, the new one is registered already
+        }
+    }
+
+    /**
+     * Loads a new version of a tool and makes it the one new jobs get
+     * @param toolClassString - fully qualified class name of the tool
+     * @param version - the version, nothing happens if it is the version in use already
+     * @param versionClassLoader - class loader to load the version with, used for this version only,
+     *        it is closed when the version is retired, or right away if it is not used
+     * @return <code>false</code> if the version is in use already
+     */
+    synchronized boolean register(String toolClassString, String version, ClassLoader versionClassLoader)
+            throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        CompletableFuture<ToolProvider> current = providers.get(toolClassString);
+        ToolProvider previous = current != null && current.isDone() && !current.isCompletedExceptionally() ? current.join() : null;
+        if (previous != null && version.equals(previous.version)) {
+            close(versionClassLoader);
+            return false;
+        }
+
+        ToolProvider provider;
+        try {
+            long loadStart = System.nanoTime();
+            Class<? extends Tool> toolClass = versionClassLoader.loadClass(toolClassString).asSubclass(Tool.class);
+            Metrics.histogram("satellite_class_load_seconds", "tool", toolClassString).recordSince(loadStart);
+            provider = new ToolProvider(toolClass, version, versionClassLoader);
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | RuntimeException | Error e) {
+            close(versionClassLoader);
+            throw e;
+        }
+        providers.put(toolClassString, CompletableFuture.completedFuture(provider));
+        Log.info("ToolCache.register", "{} {} registered, lifecycle {}", toolClassString, version, provider.scope);
+
+        if (previous != null) {
+            previous.retire();
+        }
+        return true;
+    }
+
+    private void load(String toolClassString, CompletableFuture<ToolProvider> loading) {
+        Log.debug("ToolCache.load", "Tool's Class: {}", toolClassString);
+        try {
+            // Use class loader to get appropriate tool's class
+            long loadStart = System.nanoTime();
+            Class<? extends Tool> toolClass = classLoader.loadClass(toolClassString).asSubclass(Tool.class);
+            Metrics.histogram("satellite_class_load_seconds", "tool", toolClassString).recordSince(loadStart);
+            ToolProvider provider = new ToolProvider(toolClass, null, null);
+            Log.info("ToolCache.load", "{} loaded, lifecycle {}", toolClassString, provider.scope);
+            loading.complete(provider);
+        } catch (Throwable e) {
+            providers.remove(toolClassString, loading);
+            loading.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Closes a class loader that holds resources, e.g. the connection of an <code>HTTPClassLoader</code>
+     */
+    private static void close(ClassLoader loader) {
+        if (loader instanceof Closeable) {
+            try {
+                ((Closeable) loader).close();
+            } catch (IOException e) {
+                Log.warn("ToolCache.close", "{}", e);
+            }
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+        if (cause instanceof ClassNotFoundException) {
+            throw (ClassNotFoundException) cause;
+        } else if (cause instanceof InstantiationException) {
+            throw (InstantiationException) cause;
+        } else if (cause instanceof IllegalAccessException) {
+            throw (IllegalAccessException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        InstantiationException e = new InstantiationException(cause.toString());
+        e.initCause(cause);
+        throw e;
+    }
+
+    /**
+     * Class [Lease] A tool instance in use by a job
+     */
+    static class Lease {
+
+        private final ToolProvider provider;
+        private final Tool tool;
+        private final long acquired = System.nanoTime();
+
+        private Lease(ToolProvider provider, Tool tool) {
+            this.provider = provider;
+            this.tool = tool;
+        }
+
+        Tool getTool() {
+            return tool;
+        }
+
+        /**
+         * Gives the instance back after use
+         */
+        void release() {
+            provider.executionTime.recordSince(acquired);
+            provider.release(tool);
+        }
+    }
+
+    /**
+     * Class [ToolProvider] Creates, shares or pools the instances of one version of a tool, according to its lifecycle
+     */
+    private static class ToolProvider {
+
+        final Class<? extends Tool> toolClass;
+        final String version; // null for the version loaded on first use
+        final ClassLoader versionClassLoader; // loader of this version only, null for the satellite's shared loader
+        final ToolLifecycle.Scope scope;
+        final Tool shared; // SHARED only
+        final Queue<Tool> pool = new ConcurrentLinkedQueue<>(); // POOLED only, grows up to the number of concurrent jobs
+
+        // instances in use, counted in steps of LEASE, and the RETIRED flag, set once a newer version took over;
+        // one atomic value, so that no lease is taken on a version that is retired and drained
+        private static final int RETIRED = 1;
+        private static final int LEASE = 2;
+        final AtomicInteger state = new AtomicInteger();
+        final LatencyHistogram executionTime;
+
+        ToolProvider(Class<? extends Tool> toolClass, String version, ClassLoader versionClassLoader)
+                throws InstantiationException, IllegalAccessException {
+            this.toolClass = toolClass;
+            this.version = version;
+            this.versionClassLoader = versionClassLoader;
+            ToolLifecycle lifecycle = toolClass.getAnnotation(ToolLifecycle.class);
+            this.scope = lifecycle == null ? ToolLifecycle.Scope.PER_INVOCATION : lifecycle.value();
+            this.executionTime = Metrics.histogram("satellite_tool_execution_seconds", "tool", toolClass.getName());
+            // create one instance right away, so a tool that cannot be instantiated fails the load
+            Tool first = newInstance();
+            this.shared = scope == ToolLifecycle.Scope.SHARED ? first : null;
+            if (scope == ToolLifecycle.Scope.POOLED) {
+                pool.offer(first);
+            }
+        }
+
+        /**
+         * @return a lease on an instance, null if this version is retired
+         */
+        Lease acquire() throws InstantiationException, IllegalAccessException {
+            while (true) {
+                int current = state.get();
+                if ((current & RETIRED) != 0) {
+                    return null;
+                }
+                if (state.compareAndSet(current, current + LEASE)) {
+                    break;
+                }
+            }
+            try {
+                switch (scope) {
+                    case SHARED:
+                        return new Lease(this, shared);
+                    case POOLED:
+                        Tool tool = pool.poll();
+                        return new Lease(this, tool != null ? tool : newInstance());
+                    default:
+                        return new Lease(this, newInstance());
+                }
+            } catch (InstantiationException | IllegalAccessException | RuntimeException e) {
+                release(null);
+                throw e;
+            }
+        }
+
+        void release(Tool tool) {
+            if (scope == ToolLifecycle.Scope.POOLED && tool != null && (state.get() & RETIRED) == 0) {
+                pool.offer(tool);
+            }
+            if (state.addAndGet(-LEASE) == RETIRED) {
+                drain();
+            }
+        }
+
+        /**
+         * Takes this version out of service, once the jobs still using it are done
+         */
+        void retire() {
+            int before = state.getAndUpdate(current -> current | RETIRED);
+            pool.clear();
+            if (before == 0) {
+                drain();
+            }
+        }
+
+        /**
+         * Called once, when the version is retired and its last lease is released
+         */
+        private void drain() {
+            Log.info("ToolCache.drain", "{}{} retired, no jobs left on it", toolClass.getName(), version == null ? "" : " " + version);
+            // the shared loader serves other tools as well
+            if (versionClassLoader != null) {
+                close(versionClassLoader);
+            }
+        }
+
+        private Tool newInstance() throws InstantiationException, IllegalAccessException {
+            try {
+                return toolClass.getDeclaredConstructor().newInstance();
+            } catch (NoSuchMethodException | InvocationTargetException e) {
+                InstantiationException failure = new InstantiationException(toolClass.getName() + ": " + e);
+                failure.initCause(e);
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package appserver.server;
+
+import appserver.comm.BatchResult;
+import appserver.comm.Message;
+import utils.Log;
+import static appserver.comm.MessageTypes.JOB_BATCH_RESULT;
+
+/**
+ * Class [BatchChunk] A contiguous part of a client's job batch, dispatched to one satellite.
+ * <p>
+ * The satellite answers every job of the chunk with a JOB_BATCH_RESULT, tagged with the job's index in the chunk.
+ * Results are relayed to the client as they arrive, with the index translated back to the client's batch.
+ * If the satellite cannot be reached or the connection fails, the jobs not answered yet are reported as failed.
+ */
+class BatchChunk implements SatelliteConnection.ReplyStream {
+
+    private final ClientChannel client;
+    private final long batchId; // the client's correlation ID of the batch
+    private final SatelliteEntry satellite;
+    private final int offset; // index of the chunk's first job in the client's batch
+    private final long dispatchTime = System.nanoTime();
+
+    // guarded by this
+    private final boolean[] answered;
+    private int remaining;
+
+    BatchChunk(ClientChannel client, long batchId, SatelliteEntry satellite, int offset, int size) {
+        this.client = client;
+        this.batchId = batchId;
+        this.satellite = satellite;
+        this.offset = offset;
+        this.answered = new boolean[size];
+        this.remaining = size;
+    }
+
+    @Override
+    public synchronized boolean onReply(Message reply) {
+        if (reply.getType() != JOB_BATCH_RESULT) {
+            // the satellite refused the chunk as a whole
+            fail(String.valueOf(reply.getContent()));
+            return false;
+        }
+
+        BatchResult result = (BatchResult) reply.getContent();
+        int index = result.getIndex();
+        if (index < 0 || index >= answered.length || answered[index]) {
+            Log.warn("BatchChunk.onReply", "Unexpected result #{} from {}", index, satellite.getName());
+            return remaining > 0;
+        }
+        answered[index] = true;
+        remaining--;
+        long latency = System.nanoTime() - dispatchTime;
+        Server.loadManager.jobCompleted(satellite, latency, !result.isFailed());
+        Server.relayRoundTrip.recordNanos(latency);
+
+        // the reply has been decoded for this chunk only, it is passed on as it is
+        result.setIndex(offset + index);
+        reply.setId(batchId);
+        client.send(reply);
+        return remaining > 0;
+    }
+
+    @Override
+    public synchronized void onFailure(Exception cause) {
+        Server.satelliteFailed(satellite, cause);
+        fail(cause.toString());
+    }
+
+    private void fail(String reason) {
+        long latency = System.nanoTime() - dispatchTime;
+        for (int index = 0; index < answered.length; index++) {
+            if (!answered[index]) {
+                answered[index] = true;
+                Server.loadManager.jobCompleted(satellite, latency, false);
+                client.send(new Message(JOB_BATCH_RESULT, new BatchResult(offset + index, true, reason), batchId));
+            }
+        }
+        remaining = 0;
+    }
+}
@@ -0,0 +1,204 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import appserver.comm.MessageCodec;
+import appserver.comm.MessageCodecs;
+import appserver.comm.MessageFrames;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import utils.Log;
+
+/**
+ * Class [ClientChannel] The server's end of a non-blocking connection to a client or satellite.
+ * <p>
+ * The connection starts with the peer's hello, which is answered with the codec chosen,
+ * see <code>MessageCodecs</code>. After that, incoming bytes are accumulated until a complete frame is available, see <code>MessageFrames</code>.
+ * Outgoing messages are encoded by the sending thread and queued, the owning event loop writes them.
+ */
+public class ClientChannel {
+
+    static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private SelectionKey key;
+
+    // bytes read but not yet decoded, in write mode between reads
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    // encoded frames waiting to be written
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+    // negotiated codec, null until the hello has been processed
+    private volatile MessageCodec codec = null;
+    // streams relayed to the client, by the client's correlation ID
+    private final ConcurrentHashMap<Long, StreamRelay> streams = new ConcurrentHashMap<>();
+
+    ClientChannel(SocketChannel channel, EventLoop eventLoop) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+    }
+
+    void register(Selector selector) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Sends a message to the client, can be called from any thread
+     */
+    public void send(Message message) {
+        if (closed) {
+            return;
+        }
+        try {
+            // codecs rely on frames being queued in the order they are encoded
+            synchronized (outbound) {
+                outbound.add(MessageFrames.encode(message, codec));
+            }
+            eventLoop.requestWrite(this);
+        } catch (IOException e) {
+            Log.error("ClientChannel.send", "Message #{} could not be encoded: {}", message.getId(), e);
+        }
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Registers a stream relayed to the client, it is cancelled if the connection closes
+     * @return <code>false</code> if the client already has a stream with that ID
+     */
+    boolean addStream(long streamId, StreamRelay stream) {
+        if (streams.putIfAbsent(streamId, stream) != null) {
+            return false;
+        }
+        if (closed) {
+            streams.remove(streamId, stream);
+            stream.cancel();
+        }
+        return true;
+    }
+
+    StreamRelay getStream(long streamId) {
+        return streams.get(streamId);
+    }
+
+    void removeStream(long streamId, StreamRelay stream) {
+        streams.remove(streamId, stream);
+    }
+
+    /**
+     * Reads what is available and processes every complete frame, called by the event loop
+     */
+    void onReadable() throws IOException {
+        if (channel.read(readBuffer) == -1) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        if (codec == null && !negotiateCodec()) {
+            readBuffer.compact();
+            return; // hello not complete yet
+        }
+        while (readBuffer.remaining() >= MessageFrames.HEADER_LENGTH) {
+            int length = readBuffer.getInt(readBuffer.position());
+            MessageFrames.checkLength(length);
+            if (readBuffer.remaining() < MessageFrames.HEADER_LENGTH + length) {
+                break; // frame not complete yet
+            }
+
+            int payloadStart = readBuffer.position() + MessageFrames.HEADER_LENGTH;
+            Message message = MessageFrames.decode(readBuffer.array(), readBuffer.arrayOffset() + payloadStart, length, codec);
+            readBuffer.position(payloadStart + length);
+            eventLoop.getServer().processMessage(this, message);
+        }
+        readBuffer.compact();
+
+        // make room for a frame that does not fit into the buffer
+        if (readBuffer.position() >= MessageFrames.HEADER_LENGTH) {
+            int frameLength = MessageFrames.HEADER_LENGTH + readBuffer.getInt(0);
+            if (frameLength > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(frameLength);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        } else if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+            // shrink back once a large frame has been processed
+            readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Processes the peer's hello, if it is complete, and answers it with the codec chosen
+     * @return <code>true</code> if a codec has been agreed upon
+     */
+    private boolean negotiateCodec() throws IOException {
+        if (readBuffer.remaining() < MessageCodecs.HELLO_HEADER_LENGTH) {
+            return false;
+        }
+        int start = readBuffer.arrayOffset() + readBuffer.position();
+        int offered = MessageCodecs.checkHello(readBuffer.array(), start);
+        if (readBuffer.remaining() < MessageCodecs.HELLO_HEADER_LENGTH + offered) {
+            return false;
+        }
+
+        int id = MessageCodecs.select(readBuffer.array(), start + MessageCodecs.HELLO_HEADER_LENGTH, offered);
+        readBuffer.position(readBuffer.position() + MessageCodecs.HELLO_HEADER_LENGTH + offered);
+        outbound.add(ByteBuffer.wrap(new byte[]{(byte) id}));
+        eventLoop.requestWrite(this);
+        if (id == MessageCodecs.NONE) {
+            throw new IOException("None of the codecs offered is supported");
+        }
+        codec = MessageCodecs.create(id);
+        return true;
+    }
+
+    /**
+     * Writes queued frames as far as the channel takes them, called by the event loop
+     */
+    void onWritable() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        ByteBuffer frame;
+        while ((frame = outbound.peek()) != null) {
+            channel.write(frame);
+            if (frame.hasRemaining()) {
+                // socket buffer full, continue once the channel is writable again
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            outbound.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes the connection, queued frames are dropped
+     */
+    public void close() {
+        closed = true;
+        outbound.clear();
+        for (StreamRelay stream : streams.values()) {
+            stream.cancel();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+}
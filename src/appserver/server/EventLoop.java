@@ -0,0 +1,134 @@
+package appserver.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import utils.Log;
+
+/**
+ * Class [EventLoop] A thread multiplexing many client connections over one <code>Selector</code>.
+ * <p>
+ * The event loop reads and decodes incoming frames and hands the messages over to the server.
+ * Replies may be produced on any thread, they are queued on the client connection and written
+ * by the event loop once the channel can take them.
+ * <p>
+ * A connection that fails, or whose messages cannot be processed, is closed on its own,
+ * the other connections of the event loop are not affected.
+ */
+public class EventLoop implements Runnable {
+
+    private final Server server;
+    private final Selector selector;
+    private final Thread thread;
+
+    // connections accepted, but not registered with the selector yet
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    // connections that have replies waiting to be written
+    private final Queue<ClientChannel> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    public EventLoop(String name, Server server) throws IOException {
+        this.server = server;
+        selector = Selector.open();
+        thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands over a freshly accepted connection, can be called from any thread
+     */
+    public void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks for the outbound queue of a connection to be written, can be called from any thread
+     */
+    void requestWrite(ClientChannel client) {
+        pendingWrites.add(client);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    Server getServer() {
+        return server;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                selector.select();
+                registerNewChannels();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ClientChannel client = (ClientChannel) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            client.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.onWritable();
+                        }
+                    } catch (IOException e) {
+                        Log.warn("EventLoop.run", "{}", e);
+                        client.close();
+                    } catch (RuntimeException e) {
+                        // a bug or a malformed message, only this client is affected
+                        Log.error("EventLoop.run", "Closing connection after unexpected failure: {}", e);
+                        client.close();
+                    }
+                }
+
+                // writes requested by other threads woke up the selector, those requested
+                // while processing the keys above (e.g. codec answers) would not
+                writePending();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Log.error("EventLoop.run", "Event loop {} terminated: {}", thread.getName(), e);
+        }
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            try {
+                new ClientChannel(channel, this).register(selector);
+            } catch (IOException e) {
+                Log.warn("EventLoop.registerNewChannels", "{}", e);
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    private void writePending() {
+        ClientChannel client;
+        while ((client = pendingWrites.poll()) != null) {
+            try {
+                client.onWritable();
+            } catch (IOException e) {
+                Log.warn("EventLoop.writePending", "{}", e);
+                client.close();
+            } catch (RuntimeException e) {
+                Log.error("EventLoop.writePending", "Closing connection after unexpected failure: {}", e);
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package appserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.Log;
+
+/**
+ * Class [EwmaLatencyPolicy] Hands out jobs to the satellite with the lowest expected completion time,
+ * estimated as its average job latency times the number of jobs it has in flight, plus the new one.
+ * Fast satellites thereby receive proportionally more work than slow ones.
+ * Satellites without any completed job yet are taken to be as fast as the average of the others,
+ * so that a newly registered satellite gets its share of work rather than all of it.
+ * As long as no satellite has completed a job, jobs go to the one with the fewest jobs in flight.
+ */
+public class EwmaLatencyPolicy implements SchedulingPolicy {
+
+    private final AtomicInteger start = new AtomicInteger();
+
+    @Override
+    public SatelliteEntry select(SatelliteEntry[] satellites) {
+        int size = satellites.length;
+        int offset = Math.floorMod(start.getAndIncrement(), size);
+
+        // latency assumed for satellites without an estimate
+        double sum = 0.0;
+        int sampled = 0;
+        for (SatelliteEntry satellite : satellites) {
+            double estimate = satellite.getLoad().getLatencyEstimate();
+            if (estimate > 0.0) {
+                sum += estimate;
+                sampled++;
+            }
+        }
+        double seed = sampled == 0 ? 1.0 : sum / sampled;
+
+        SatelliteEntry best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            SatelliteEntry candidate = satellites[(offset + i) % size];
+            SatelliteLoad load = candidate.getLoad();
+            double estimate = load.getLatencyEstimate();
+            double cost = (estimate > 0.0 ? estimate : seed) * (load.getOutstanding() + 1);
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,180 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import appserver.comm.SatelliteStatus;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import utils.LatencyHistogram;
+import utils.Log;
+import utils.Metrics;
+
+/**
+ * Class [JobQueue] Central queue of the server for pull-based dispatch.
+ * <p>
+ * Jobs are not pushed to a satellite when they come in, they wait here until a satellite has room:
+ * every satellite takes at most PULL_WINDOW jobs at a time, and no more than it has workers, so that no job
+ * waits in a satellite's queue while another satellite could run it.
+ * Whenever a satellite answers a job it pulls the next ones from the queue. Satellites that finish
+ * their jobs early take over the work that would otherwise back up behind a long-running job elsewhere,
+ * so with tools of skewed run times no satellite sits idle while jobs wait.
+ * <p>
+ * Among the satellites that have room, the one with the fewest jobs in flight gets the next job,
+ * SCHEDULING_POLICY does not apply to the jobs queued here.
+ * <p>
+ * At most MAX_QUEUED jobs wait at a time, jobs beyond are failed right away with a
+ * <code>RejectedExecutionException</code>, which the client gets as JOB_FAILED.
+ */
+class JobQueue {
+
+    private final int window;
+    private final int maxQueued;
+    private final ConcurrentLinkedQueue<QueuedJob> queue = new ConcurrentLinkedQueue<>();
+    // jobs in the queue, ConcurrentLinkedQueue.size() walks the queue
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger start = new AtomicInteger();
+
+    private static final LatencyHistogram queueWait = Metrics.histogram("server_queue_wait_seconds");
+    private static final LongAdder rejectedJobs = Metrics.counter("server_queue_rejected_total");
+
+    /**
+     * Initializes JobQueue
+     * @param window - maximum number of jobs a satellite takes at a time
+     * @param maxQueued - maximum number of jobs waiting for a satellite
+     */
+    JobQueue(int window, int maxQueued) {
+        this.window = Math.max(1, window);
+        this.maxQueued = Math.max(1, maxQueued);
+    }
+
+    /**
+     * Queues a job, it is dispatched right away if a satellite has room
+     * @param job - content of the job request
+     * @return future that completes with the satellite's reply, or exceptionally if the job did not get through
+     */
+    CompletableFuture<Message> submit(Object job) {
+        QueuedJob queued = new QueuedJob(job);
+        if (Server.satelliteManager.getSatellites().length == 0) {
+            queued.result.completeExceptionally(new Exception("No satellites registered"));
+            return queued.result;
+        }
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            rejectedJobs.increment();
+            queued.result.completeExceptionally(new RejectedExecutionException("Job queue full, " + maxQueued + " jobs waiting"));
+            return queued.result;
+        }
+        queue.add(queued);
+        drain();
+        return queued.result;
+    }
+
+    /**
+     * Hands queued jobs to the satellites that have room. Called when jobs come in, when jobs complete
+     * and with every heartbeat, which brings in satellites that just registered.
+     */
+    void drain() {
+        while (!queue.isEmpty()) {
+            SatelliteEntry[] satellites = Server.satelliteManager.getSatellites();
+            if (satellites.length == 0) {
+                // nobody is going to take the jobs
+                QueuedJob queued;
+                while ((queued = queue.poll()) != null) {
+                    waiting.decrementAndGet();
+                    queued.result.completeExceptionally(new Exception("No satellites registered"));
+                }
+                return;
+            }
+
+            SatelliteEntry satellite = reserve(satellites);
+            if (satellite == null) {
+                // all satellites are busy, the next one to answer a job pulls more
+                return;
+            }
+            QueuedJob queued = queue.poll();
+            if (queued == null) {
+                // taken by another thread meanwhile, look again in case more jobs came in
+                satellite.getLoad().dispatchCancelled();
+                continue;
+            }
+            waiting.decrementAndGet();
+            dispatch(queued, satellite);
+        }
+    }
+
+    /**
+     * Accounts a job as dispatched to the satellite with the fewest jobs in flight, if any has room
+     * @return the satellite, or <code>null</code> if all of them are full
+     */
+    private SatelliteEntry reserve(SatelliteEntry[] satellites) {
+        int size = satellites.length;
+        while (true) {
+            int offset = Math.floorMod(start.getAndIncrement(), size);
+            SatelliteEntry best = null;
+            for (int i = 0; i < size; i++) {
+                SatelliteEntry candidate = satellites[(offset + i) % size];
+                if (candidate.getLoad().getOutstanding() < windowOf(candidate)
+                        && (best == null || candidate.getLoad().getOutstanding() < best.getLoad().getOutstanding())) {
+                    best = candidate;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            if (best.getLoad().tryDispatch(windowOf(best))) {
+                return best;
+            }
+            // another thread took the last room there, look again
+        }
+    }
+
+    private int windowOf(SatelliteEntry satellite) {
+        SatelliteStatus status = satellite.getStatus();
+        if (status == null) {
+            // no heartbeat yet
+            return window;
+        }
+        return status.getWorkers() > 0 ? Math.min(window, status.getWorkers()) : Math.min(window, Math.max(1, status.getCapacity()));
+    }
+
+    private void dispatch(final QueuedJob queued, final SatelliteEntry satellite) {
+        final long dispatchTime = System.nanoTime();
+        queueWait.recordNanos(dispatchTime - queued.enqueued);
+        Server.satelliteConnections.send(satellite.getInfo(), new Message(JOB_REQUEST, queued.job))
+                .whenComplete((reply, error) -> {
+                    boolean succeeded = error == null && reply.getType() != JOB_FAILED;
+                    long latency = System.nanoTime() - dispatchTime;
+                    Server.loadManager.jobCompleted(satellite, latency, succeeded);
+                    Server.relayRoundTrip.recordNanos(latency);
+
+                    if (error != null) {
+                        // not drained from here, failures may complete on this very thread;
+                        // the next heartbeat hands the queued jobs to the satellites left
+                        Server.satelliteFailed(satellite, error);
+                        queued.result.completeExceptionally(error);
+                        return;
+                    }
+                    queued.result.complete(reply);
+                    // the satellite has room for the next job
+                    drain();
+                });
+    }
+
+    /**
+     * Class [QueuedJob] A job waiting for a satellite
+     */
+    private static class QueuedJob {
+
+        final Object job;
+        final long enqueued = System.nanoTime();
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        QueuedJob(Object job) {
+            this.job = job;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package appserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class [LeastOutstandingPolicy] Hands out jobs to the satellite with the fewest jobs in flight.
+ * Ties are broken round robin, so idle satellites share the work evenly.
+ */
+public class LeastOutstandingPolicy implements SchedulingPolicy {
+
+    private final AtomicInteger start = new AtomicInteger();
+
+    @Override
+    public SatelliteEntry select(SatelliteEntry[] satellites) {
+        int size = satellites.length;
+        int offset = Math.floorMod(start.getAndIncrement(), size);
+
+        SatelliteEntry best = null;
+        for (int i = 0; i < size; i++) {
+            SatelliteEntry candidate = satellites[(offset + i) % size];
+            if (best == null || candidate.getLoad().getOutstanding() < best.getLoad().getOutstanding()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+}
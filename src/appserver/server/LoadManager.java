@@ -1,74 +1,110 @@
 package appserver.server;
 
-import java.util.ArrayList;
+import utils.Log;
 
 /**
+ * Class [LoadManager] Decides which satellite gets the next job, according to a pluggable scheduling policy.
+ * The load statistics of the satellites are updated when jobs are dispatched and completed.
+ * <p>
+ * Selecting a satellite works on the current snapshot of the satellite manager, it takes no locks.
  *
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public class LoadManager {
 
-    static ArrayList satellites = null;
-    static int nextSatelliteIndex = -1; // The next satellite server to be assigned a job
+    // values of the SCHEDULING_POLICY property
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_OUTSTANDING = "least-outstanding";
+    public static final String POWER_OF_TWO_CHOICES = "power-of-two";
+    public static final String EWMA_LATENCY = "ewma-latency";
+
+    private final SatelliteManager satelliteManager;
+    private final SchedulingPolicy policy;
+
+    /**
+     * Initializes LoadManager with round robin scheduling
+     * @param satelliteManager - registry of the satellites
+     */
+    public LoadManager(SatelliteManager satelliteManager) {
+        this(satelliteManager, ROUND_ROBIN);
+    }
 
     /**
      * Initializes LoadManager
+     * @param satelliteManager - registry of the satellites
+     * @param policyName - name of the scheduling policy
      */
-    public LoadManager() {
-        satellites = new ArrayList<String>();
+    public LoadManager(SatelliteManager satelliteManager, String policyName) {
+        this.satelliteManager = satelliteManager;
+        this.policy = createPolicy(policyName);
     }
 
     /**
-     * Adds a satellite to the arraylist satellites if not already added
-     * @param satelliteName - satellite to add
+     * Creates a scheduling policy by name
+     * @param policyName - one of the policy names defined above
      */
-    public void satelliteAdded(String satelliteName) {
-        // add satellite 
-        
-        if(!satellites.contains(satelliteName))
-        {
-            satellites.add(satelliteName);
-            
-            if (nextSatelliteIndex == -1){
-                nextSatelliteIndex = 0;
-            }
-            
-            System.out.println("[LoadManager.satelliteAdded] " + satelliteName + " has been added");
-        } else {
-            System.out.println("[LoadManager.satelliteAdded] " + satelliteName + " has already been added");
+    static SchedulingPolicy createPolicy(String policyName) {
+        if (policyName == null || policyName.trim().equals(ROUND_ROBIN)) {
+            return new RoundRobinPolicy();
+        } else if (policyName.trim().equals(LEAST_OUTSTANDING)) {
+            return new LeastOutstandingPolicy();
+        } else if (policyName.trim().equals(POWER_OF_TWO_CHOICES)) {
+            return new PowerOfTwoChoicesPolicy();
+        } else if (policyName.trim().equals(EWMA_LATENCY)) {
+            return new EwmaLatencyPolicy();
         }
+        throw new IllegalArgumentException("Unknown scheduling policy: " + policyName);
     }
 
     /**
-     * Grabs the next satellite based on the nextSatelliteIndex
+     * Grabs the next satellite according to the scheduling policy and accounts a job as dispatched to it.
+     * Every call has to be followed by a call of <code>jobCompleted()</code> once the job is done.
      * @return the next satellite
      */
-    public String nextSatellite() throws Exception {
-        
-        int numberSatellites = satellites.size();
-        String nextSatelliteName = null;
-        
-        synchronized (satellites) {
-            // Return a satelite name according to a round robin methodology
-            if (numberSatellites > 0)
-            {
-                // Return the next satellite based on the index
-                nextSatelliteName = (String)satellites.get( nextSatelliteIndex );
-                
-                // Iterate the index so the next satellite will be used
-                nextSatelliteIndex++;
-                // If we have reached the end of the list of satellites, wrap around
-                if( nextSatelliteIndex >= numberSatellites ) {
-                    nextSatelliteIndex = 0;
-                }
-            }
-            else {
-                System.out.println("No Satellites Registered");
-                throw new Exception();
-            }
+    public SatelliteEntry nextSatellite() throws Exception {
+        return nextSatellite(1);
+    }
+
+    /**
+     * Grabs the next satellite for a number of jobs, e.g. a chunk of a batch.
+     * Every one of the jobs has to be followed by a call of <code>jobCompleted()</code>.
+     * @param jobs - number of jobs the satellite is going to take
+     * @return the next satellite
+     */
+    public SatelliteEntry nextSatellite(int jobs) throws Exception {
+
+        SatelliteEntry[] satellites = satelliteManager.getSatellites();
+        if (satellites.length == 0) {
+            Log.warn("LoadManager.nextSatellite", "No Satellites Registered");
+            throw new Exception("No satellites registered");
         }
 
-        return nextSatelliteName;// ... name of satellite who is supposed to take job
-     
+        SatelliteEntry nextSatellite = policy.select(satellites);
+        nextSatellite.getLoad().jobsDispatched(jobs);
+
+        return nextSatellite;// ... satellite who is supposed to take job
+    }
+
+    /**
+     * Grabs the satellite a client may send its jobs to directly for a while, according to the scheduling policy.
+     * Jobs sent directly are not accounted here.
+     * @return the satellite
+     */
+    public SatelliteEntry leaseSatellite() throws Exception {
+        SatelliteEntry[] satellites = satelliteManager.getSatellites();
+        if (satellites.length == 0) {
+            throw new Exception("No satellites registered");
+        }
+        return policy.select(satellites);
+    }
+
+    /**
+     * Completion callback, updates the load statistics of the satellite that ran a job
+     * @param satellite - satellite returned by <code>nextSatellite()</code>
+     * @param latencyNanos - time from dispatch to completion
+     * @param succeeded - <code>false</code> if the job failed
+     */
+    public void jobCompleted(SatelliteEntry satellite, long latencyNanos, boolean succeeded) {
+        satellite.getLoad().jobCompleted(latencyNanos, succeeded);
     }
 }
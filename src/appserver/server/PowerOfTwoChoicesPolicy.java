@@ -0,0 +1,28 @@
+package appserver.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class [PowerOfTwoChoicesPolicy] Samples two satellites at random and hands out the job to the one
+ * with fewer jobs in flight. Close to least-outstanding in balance, but it does not look at every satellite,
+ * and it does not send a burst of jobs to the same satellite on stale statistics.
+ */
+public class PowerOfTwoChoicesPolicy implements SchedulingPolicy {
+
+    @Override
+    public SatelliteEntry select(SatelliteEntry[] satellites) {
+        int size = satellites.length;
+        if (size == 1) {
+            return satellites[0];
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        // second choice is distinct from the first one
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+
+        SatelliteEntry one = satellites[first];
+        SatelliteEntry other = satellites[second];
+        return other.getLoad().getOutstanding() < one.getLoad().getOutstanding() ? other : one;
+    }
+}
@@ -0,0 +1,216 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.CACHEABLE_JOB_RESULT;
+import appserver.job.Job;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import utils.Log;
+
+/**
+ * Class [ResultCache] Caches job results of deterministic tools, keyed by tool name and parameters.
+ * <p>
+ * The server does not load tools, so it learns which tools are deterministic from the satellites:
+ * they reply with CACHEABLE_JOB_RESULT if the tool implements <code>Deterministic</code>.
+ * Jobs of other tools always go to a satellite.
+ * <p>
+ * At most RESULT_CACHE_SIZE results are kept, the least recently used one is evicted first,
+ * and no result is used once it is older than RESULT_CACHE_TTL milliseconds.
+ * Identical jobs that come in while the first one is still running are not dispatched again,
+ * they are answered with the first job's result.
+ * <p>
+ * When a new version of a tool is registered, its results are dropped, see <code>invalidate()</code>.
+ * Whether the new version is deterministic is learned anew from its first reply.
+ */
+public class ResultCache {
+
+    private final int capacity;
+    private final long ttlNanos;
+
+    // cached results in access order, guarded by itself
+    private final LinkedHashMap<JobKey, CachedResult> results;
+    // counts invalidations, results of jobs dispatched before the last one are not cached, guarded by results
+    private long generation = 0;
+    // jobs dispatched and not completed yet, identical jobs wait for them
+    private final ConcurrentHashMap<JobKey, CompletableFuture<Message>> inFlight = new ConcurrentHashMap<>();
+    // tools whose results have been flagged as cacheable by a satellite
+    private final Set<String> deterministicTools = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Initializes ResultCache
+     * @param capacity - maximum number of results kept
+     * @param ttlMillis - time a result may be used for
+     */
+    public ResultCache(final int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        results = new LinkedHashMap<JobKey, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<JobKey, CachedResult> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Answers a job out of the cache, joins an identical job in flight, or dispatches it
+     * @param job - the job
+     * @param dispatcher - sends a job to a satellite, its future completes with the satellite's reply
+     * @return future that completes with the reply, which may be shared and must not be modified
+     */
+    public CompletableFuture<Message> get(Job job, Function<Job, CompletableFuture<Message>> dispatcher) {
+        final long dispatchGeneration = generation();
+        if (job.getToolName() == null || !deterministicTools.contains(job.getToolName())) {
+            // nothing known about the tool yet, its reply tells whether it can be cached
+            return dispatcher.apply(job).thenApply(reply -> {
+                if (reply.getType() == CACHEABLE_JOB_RESULT) {
+                    deterministicTools.add(job.getToolName());
+                    put(new JobKey(job), reply, dispatchGeneration);
+                }
+                return reply;
+            });
+        }
+
+        final JobKey key = new JobKey(job);
+        Message cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final CompletableFuture<Message> flight = new CompletableFuture<>();
+        CompletableFuture<Message> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+
+        misses.increment();
+        dispatcher.apply(job).whenComplete((reply, error) -> {
+            // cache first, so that there is no moment in which an identical job finds neither
+            if (error == null && reply.getType() == CACHEABLE_JOB_RESULT) {
+                put(key, reply, dispatchGeneration);
+            }
+            inFlight.remove(key, flight);
+
+            if (error != null) {
+                flight.completeExceptionally(error);
+            } else {
+                flight.complete(reply);
+            }
+        });
+        return flight;
+    }
+
+    private Message lookup(JobKey key) {
+        synchronized (results) {
+            CachedResult cached = results.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (System.nanoTime() - cached.created > ttlNanos) {
+                results.remove(key);
+                return null;
+            }
+            return cached.reply;
+        }
+    }
+
+    /**
+     * Drops the results of a tool, and lets identical jobs in flight go their own way,
+     * because a new version of the tool has been registered. Results of jobs dispatched before are not cached.
+     * @param toolName - the tool
+     */
+    public void invalidate(String toolName) {
+        synchronized (results) {
+            generation++;
+            results.keySet().removeIf(key -> key.toolName.equals(toolName));
+            // the new version may not be deterministic
+            deterministicTools.remove(toolName);
+        }
+        inFlight.keySet().removeIf(key -> key.toolName.equals(toolName));
+    }
+
+    private long generation() {
+        synchronized (results) {
+            return generation;
+        }
+    }
+
+    private void put(JobKey key, Message reply, long dispatchGeneration) {
+        CachedResult cached = new CachedResult(reply, System.nanoTime());
+        synchronized (results) {
+            // the result may come from a version of the tool that has been replaced in the meantime
+            if (generation == dispatchGeneration) {
+                results.put(key, cached);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        int size;
+        synchronized (results) {
+            size = results.size();
+        }
+        return "result cache, " + size + "/" + capacity + " results, " + hits.sum() + " hits, "
+                + misses.sum() + " misses, " + coalesced.sum() + " coalesced";
+    }
+
+    /**
+     * Class [JobKey] Tool name and parameters of a job. Parameters are compared by value,
+     * arrays element by element, so that identical jobs decoded from different messages are equal.
+     */
+    private static final class JobKey {
+
+        private final String toolName;
+        private final Object parameters;
+        private final int hash;
+
+        JobKey(Job job) {
+            toolName = job.getToolName();
+            parameters = job.getParameters();
+            hash = 31 * toolName.hashCode() + Arrays.deepHashCode(new Object[]{parameters});
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof JobKey)) {
+                return false;
+            }
+            JobKey key = (JobKey) other;
+            return hash == key.hash && toolName.equals(key.toolName) && Objects.deepEquals(parameters, key.parameters);
+        }
+    }
+
+    /**
+     * Class [CachedResult] A satellite's reply and the time it was cached
+     */
+    private static final class CachedResult {
+
+        final Message reply;
+        final long created;
+
+        CachedResult(Message reply, long created) {
+            this.reply = reply;
+            this.created = created;
+        }
+    }
+}
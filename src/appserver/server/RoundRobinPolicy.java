@@ -0,0 +1,18 @@
+package appserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class [RoundRobinPolicy] Hands out jobs to the satellites in turn, regardless of their load
+ */
+public class RoundRobinPolicy implements SchedulingPolicy {
+
+    // The next satellite server to be assigned a job, modulo the number of satellites
+    private final AtomicInteger nextSatelliteIndex = new AtomicInteger();
+
+    @Override
+    public SatelliteEntry select(SatelliteEntry[] satellites) {
+        // wraps around at the end of the array, and on integer overflow
+        return satellites[Math.floorMod(nextSatelliteIndex.getAndIncrement(), satellites.length)];
+    }
+}
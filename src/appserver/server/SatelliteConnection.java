@@ -0,0 +1,232 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import utils.Log;
+
+/**
+ * Class [SatelliteConnection] A long-lived connection from the server to one satellite.
+ * <p>
+ * The connection is multiplexed: any number of requests may be in flight at the same time.
+ * Every request is tagged with a correlation ID, replies are matched to their requests by that ID
+ * and may arrive in any order. A reader thread receives the replies and completes the corresponding futures.
+ * Requests answered with a sequence of replies, like job batches, pass a <code>ReplyStream</code> instead.
+ * <p>
+ * Sending never blocks the caller, which may be an event loop: messages are queued and written by a writer thread.
+ */
+public class SatelliteConnection {
+
+    private final String satelliteName;
+    private final MessageChannel channel;
+
+    // requests sent, but not answered yet, by correlation ID
+    private final ConcurrentHashMap<Long, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    // requests sent that expect more replies, by correlation ID
+    private final ConcurrentHashMap<Long, ReplyStream> streams = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    // messages waiting for the writer thread
+    private final BlockingQueue<Message> outbound = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens a connection to a satellite and starts receiving replies
+     * @param satelliteInfo - connectivity information of the satellite
+     * @param codecPreferences - codecs to offer, see <code>MessageCodecs</code>
+     */
+    public SatelliteConnection(ConnectivityInfo satelliteInfo, int[] codecPreferences) throws IOException {
+        satelliteName = satelliteInfo.getName();
+        channel = new MessageChannel(satelliteInfo.getHost(), satelliteInfo.getPort(), codecPreferences);
+
+        writer = new Thread(this::writeRequests, "satellite-writer-" + satelliteName);
+        writer.setDaemon(true);
+        writer.start();
+
+        Thread reader = new Thread(this::receiveReplies, "satellite-reader-" + satelliteName);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request to the satellite
+     * @param message - request, its ID is overwritten with a fresh correlation ID
+     * @return future that completes with the satellite's reply
+     */
+    public CompletableFuture<Message> send(Message message) {
+        CompletableFuture<Message> reply = new CompletableFuture<>();
+        if (closed) {
+            reply.completeExceptionally(new IOException("Connection to " + satelliteName + " is closed"));
+            return reply;
+        }
+
+        long id = nextId.incrementAndGet();
+        message.setId(id);
+        pending.put(id, reply);
+        if (closed && pending.remove(id) != null) {
+            // closed concurrently, the reader is not going to see this request
+            reply.completeExceptionally(new IOException("Connection to " + satelliteName + " is closed"));
+            return reply;
+        }
+
+        // if the connection fails before the message is written, the request fails with the pending ones
+        outbound.add(message);
+        return reply;
+    }
+
+    /**
+     * Sends a request that is answered with a sequence of replies
+     * @param message - request, its ID is overwritten with a fresh correlation ID
+     * @param stream - receives the replies, and the failure if the connection fails before the last one
+     */
+    public void send(Message message, ReplyStream stream) {
+        if (closed) {
+            stream.onFailure(new IOException("Connection to " + satelliteName + " is closed"));
+            return;
+        }
+
+        long id = nextId.incrementAndGet();
+        message.setId(id);
+        streams.put(id, stream);
+        if (closed && streams.remove(id) != null) {
+            stream.onFailure(new IOException("Connection to " + satelliteName + " is closed"));
+            return;
+        }
+
+        outbound.add(message);
+        // messages posted from now on are written after the request
+        stream.onSent(this, id);
+    }
+
+    /**
+     * Sends a message that belongs to a request sent before, e.g. credit for a stream. No reply is expected.
+     * @param message - the message, carrying the correlation ID of the request
+     */
+    public void post(Message message) {
+        if (!closed) {
+            outbound.add(message);
+        }
+    }
+
+    /**
+     * Returns <code>false</code> once the connection failed or was closed
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Number of requests sent on this connection that are still waiting for their reply
+     */
+    public int pendingRequests() {
+        return pending.size() + streams.size();
+    }
+
+    /**
+     * Closes the connection, pending requests fail
+     */
+    public void close() {
+        close(new IOException("Connection to " + satelliteName + " closed"));
+    }
+
+    /**
+     * Writer loop, writes the queued messages in the order they were queued
+     */
+    private void writeRequests() {
+        try {
+            while (!closed) {
+                channel.send(outbound.take());
+            }
+        } catch (IOException e) {
+            close(e);
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Reader loop, matches replies to pending requests by correlation ID.
+     * Whatever ends it, the connection is closed and the requests still pending fail.
+     */
+    private void receiveReplies() {
+        try {
+            while (true) {
+                Message reply = channel.receive();
+                CompletableFuture<Message> request = pending.remove(reply.getId());
+                ReplyStream stream;
+                if (request != null) {
+                    request.complete(reply);
+                } else if ((stream = streams.get(reply.getId())) != null) {
+                    if (!stream.onReply(reply)) {
+                        streams.remove(reply.getId());
+                    }
+                } else {
+                    Log.warn("SatelliteConnection.receiveReplies", "Reply for unknown request #{} from {}", reply.getId(), satelliteName);
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        } catch (RuntimeException e) {
+            Log.error("SatelliteConnection.receiveReplies", "Closing connection to {} after unexpected failure: {}", satelliteName, e);
+            close(e);
+        }
+    }
+
+    private synchronized void close(Exception cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        outbound.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+
+        // nobody is going to answer the requests still pending
+        Iterator<CompletableFuture<Message>> requests = pending.values().iterator();
+        while (requests.hasNext()) {
+            requests.next().completeExceptionally(cause);
+            requests.remove();
+        }
+        Iterator<ReplyStream> openStreams = streams.values().iterator();
+        while (openStreams.hasNext()) {
+            openStreams.next().onFailure(cause);
+            openStreams.remove();
+        }
+    }
+
+    /**
+     * Interface [ReplyStream] Receives the replies to a request that is answered more than once.
+     * Methods are called on the connection's reader thread, they must not block.
+     */
+    public interface ReplyStream {
+
+        /**
+         * Called for every reply
+         * @return <code>false</code> if this was the last reply to the request
+         */
+        public boolean onReply(Message reply);
+
+        /**
+         * Called if the connection fails before the last reply arrived
+         */
+        public void onFailure(Exception cause);
+
+        /**
+         * Called once the request is on its way, messages related to it can be posted from now on
+         * @param connection - connection the request went out on
+         * @param id - correlation ID of the request
+         */
+        public default void onSent(SatelliteConnection connection, long id) {
+        }
+    }
+}
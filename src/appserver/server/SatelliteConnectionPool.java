@@ -0,0 +1,173 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.Log;
+
+/**
+ * Class [SatelliteConnectionPool] Keeps a small, fixed number of long-lived connections open to each satellite.
+ * <p>
+ * Connections are opened on first use and replaced once they fail. Since every connection is multiplexed,
+ * a handful of them per satellite carries any number of concurrent jobs.
+ */
+public class SatelliteConnectionPool {
+
+    private final int connectionsPerSatellite;
+    private final int[] codecPreferences;
+    private final ConcurrentHashMap<String, Slots> satellites = new ConcurrentHashMap<>();
+    // establishes connections in the background, callers of send() never block on connecting
+    private final ExecutorService connector = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "satellite-connector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Initializes SatelliteConnectionPool
+     * @param connectionsPerSatellite - number of connections kept open to each satellite
+     * @param codecPreferences - codecs to offer to the satellites, see <code>MessageCodecs</code>
+     */
+    public SatelliteConnectionPool(int connectionsPerSatellite, int[] codecPreferences) {
+        this.connectionsPerSatellite = Math.max(1, connectionsPerSatellite);
+        this.codecPreferences = codecPreferences;
+    }
+
+    /**
+     * Sends a request to a satellite over one of its connections, connections are used round robin.
+     * If the connection has to be (re)established first, this is done on a background thread.
+     * @param satelliteInfo - satellite to send the request to
+     * @param message - the request
+     * @return future that completes with the satellite's reply
+     */
+    public CompletableFuture<Message> send(final ConnectivityInfo satelliteInfo, final Message message) {
+        Slots slots = satellites.get(satelliteInfo.getName());
+        if (slots == null) {
+            slots = satellites.computeIfAbsent(satelliteInfo.getName(), name -> new Slots(connectionsPerSatellite, codecPreferences));
+        }
+
+        final Slots satelliteSlots = slots;
+        final int slot = slots.nextSlot();
+        SatelliteConnection connection = slots.openConnection(slot);
+        if (connection != null) {
+            return connection.send(message);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return satelliteSlots.connect(slot, satelliteInfo);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, connector).thenCompose(fresh -> fresh.send(message));
+    }
+
+    /**
+     * Sends a request that is answered with a sequence of replies, see <code>send()</code>
+     * @param satelliteInfo - satellite to send the request to
+     * @param message - the request
+     * @param stream - receives the replies
+     */
+    public void send(final ConnectivityInfo satelliteInfo, final Message message, final SatelliteConnection.ReplyStream stream) {
+        final Slots slots = satellites.computeIfAbsent(satelliteInfo.getName(), name -> new Slots(connectionsPerSatellite, codecPreferences));
+        final int slot = slots.nextSlot();
+        SatelliteConnection connection = slots.openConnection(slot);
+        if (connection != null) {
+            connection.send(message, stream);
+            return;
+        }
+
+        connector.execute(() -> {
+            try {
+                slots.connect(slot, satelliteInfo).send(message, stream);
+            } catch (IOException e) {
+                stream.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Closes all connections to a satellite. Sends that got hold of its connections before fail,
+     * later ones open new connections.
+     * @param satelliteName - name of the satellite
+     */
+    public void closeConnections(String satelliteName) {
+        Slots slots = satellites.remove(satelliteName);
+        if (slots != null) {
+            slots.closeAll();
+        }
+    }
+
+    /**
+     * Class [Slots] The connections to one satellite
+     */
+    private static class Slots {
+
+        private final SatelliteConnection[] connections;
+        private final int[] codecPreferences;
+        private final AtomicInteger nextSlot = new AtomicInteger();
+        private boolean closed = false; // guarded by connections, no connection is opened once set
+
+        Slots(int size, int[] codecPreferences) {
+            connections = new SatelliteConnection[size];
+            this.codecPreferences = codecPreferences;
+        }
+
+        int nextSlot() {
+            return Math.floorMod(nextSlot.getAndIncrement(), connections.length);
+        }
+
+        /**
+         * Returns the connection in a slot, or <code>null</code> if it has to be (re)established
+         */
+        SatelliteConnection openConnection(int slot) {
+            SatelliteConnection connection;
+            synchronized (connections) {
+                connection = connections[slot];
+            }
+            return connection != null && connection.isOpen() ? connection : null;
+        }
+
+        SatelliteConnection connect(int slot, ConnectivityInfo satelliteInfo) throws IOException {
+            SatelliteConnection connection = openConnection(slot);
+            if (connection != null) {
+                return connection;
+            }
+
+            // (re)connect outside of the lock, a slow satellite must not hold up the other slots
+            SatelliteConnection fresh = new SatelliteConnection(satelliteInfo, codecPreferences);
+            synchronized (connections) {
+                if (closed) {
+                    // the satellite's connections were closed while this one was established
+                    fresh.close();
+                    throw new IOException("Connections to " + satelliteInfo.getName() + " closed");
+                }
+                connection = connections[slot];
+                if (connection != null && connection.isOpen()) {
+                    // someone else was faster
+                    fresh.close();
+                    return connection;
+                }
+                connections[slot] = fresh;
+            }
+            return fresh;
+        }
+
+        void closeAll() {
+            synchronized (connections) {
+                closed = true;
+                for (SatelliteConnection connection : connections) {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+}
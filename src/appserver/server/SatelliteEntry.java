@@ -0,0 +1,62 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.SatelliteStatus;
+
+/**
+ * Class [SatelliteEntry] A registered satellite: its connectivity information and its load statistics.
+ * Entries are created once, on registration, and handed out by the scheduler as they are.
+ */
+public class SatelliteEntry {
+
+    private final ConnectivityInfo info;
+    private final SatelliteLoad load;
+    // System.nanoTime() of the last sign of life, registration counts as one
+    private volatile long lastHeartbeat = System.nanoTime();
+    // load reported by the satellite itself in its last heartbeat, null before the first one
+    private volatile SatelliteStatus status = null;
+
+    SatelliteEntry(ConnectivityInfo info) {
+        this.info = info;
+        this.load = new SatelliteLoad(info.getName());
+    }
+
+    /**
+     * Records a heartbeat
+     * @param status - load reported by the satellite
+     */
+    void heartbeat(SatelliteStatus status) {
+        this.status = status;
+        lastHeartbeat = System.nanoTime();
+    }
+
+    /**
+     * Tells if the satellite did not send a heartbeat for longer than the timeout
+     * @param now - current System.nanoTime()
+     * @param timeoutNanos - allowed silence
+     */
+    boolean isSilent(long now, long timeoutNanos) {
+        return now - lastHeartbeat > timeoutNanos;
+    }
+
+    public String getName() {
+        return info.getName();
+    }
+
+    public ConnectivityInfo getInfo() {
+        return info;
+    }
+
+    public SatelliteLoad getLoad() {
+        return load;
+    }
+
+    public SatelliteStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return load.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package appserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class [SatelliteLoad] Load statistics of one satellite, as seen by the server:
+ * the number of jobs in flight and an exponentially weighted moving average (EWMA) of the job latency.
+ * Scheduling policies base their decisions on these statistics.
+ */
+public class SatelliteLoad {
+
+    // weight of the latest sample in the moving average
+    static final double EWMA_WEIGHT = 0.2;
+    // latency accounted for a failed job, keeps failing satellites from looking fast
+    static final long FAILURE_PENALTY_NANOS = 1000000000L;
+
+    private final String satelliteName;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    // bits of a double, the average latency in nanoseconds, 0 as long as there is no sample
+    private final AtomicLong latencyEstimate = new AtomicLong(Double.doubleToLongBits(0.0));
+
+    public SatelliteLoad(String satelliteName) {
+        this.satelliteName = satelliteName;
+    }
+
+    public String getSatelliteName() {
+        return satelliteName;
+    }
+
+    /**
+     * Number of jobs dispatched to the satellite that did not complete yet
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Number of jobs completed by the satellite, successfully or not
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Moving average of the job latency in nanoseconds, 0 if no job completed yet
+     */
+    public double getLatencyEstimate() {
+        return Double.longBitsToDouble(latencyEstimate.get());
+    }
+
+    /**
+     * Called when jobs are dispatched to the satellite, one or a chunk of a batch at once
+     */
+    void jobsDispatched(int jobs) {
+        outstanding.addAndGet(jobs);
+    }
+
+    /**
+     * Accounts a job as dispatched, unless the satellite has as many jobs in flight as it may take
+     * @param limit - jobs the satellite may take at a time
+     * @return <code>false</code> if the satellite is full
+     */
+    boolean tryDispatch(int limit) {
+        while (true) {
+            int current = outstanding.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (outstanding.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes back a job accounted by <code>tryDispatch()</code> that was not dispatched after all
+     */
+    void dispatchCancelled() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Called when a job dispatched to the satellite completes
+     * @param latencyNanos - time from dispatch to completion
+     * @param succeeded - <code>false</code> if the job failed
+     */
+    void jobCompleted(long latencyNanos, boolean succeeded) {
+        outstanding.decrementAndGet();
+        completed.incrementAndGet();
+
+        double sample = succeeded ? latencyNanos : Math.max(latencyNanos, FAILURE_PENALTY_NANOS);
+        while (true) {
+            long bits = latencyEstimate.get();
+            double estimate = Double.longBitsToDouble(bits);
+            double updated = estimate == 0.0 ? sample : estimate + EWMA_WEIGHT * (sample - estimate);
+            if (latencyEstimate.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return satelliteName + " [outstanding: " + getOutstanding() + ", latency: " + (long) getLatencyEstimate() / 1000 + "us]";
+    }
+}
@@ -1,46 +1,168 @@
 package appserver.server;
 
 import appserver.comm.ConnectivityInfo;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import appserver.comm.SatelliteStatus;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import utils.Log;
 
 /**
- * SatelliteManager manages the satellite servers
+ * SatelliteManager manages the satellite servers.
+ * <p>
+ * The registered satellites are kept in an immutable array, a snapshot. Registrations copy the current
+ * snapshot and publish the new one atomically, so readers never take a lock and never see a partial update.
+ * Satellites leave the snapshot when they unregister, or when they are evicted for missing their heartbeats.
+ *
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
 public class SatelliteManager {
 
-    // (the one) hash table that contains the connectivity information of all satellite servers
-    static private Hashtable<String, ConnectivityInfo> satellites = null;
+    static final SatelliteEntry[] NO_SATELLITES = new SatelliteEntry[0];
+
+    // (the one) snapshot of all satellite servers registered, arrays published here are never modified
+    private final AtomicReference<SatelliteEntry[]> satellites = new AtomicReference<>(NO_SATELLITES);
 
     public SatelliteManager() {
-        satellites = new Hashtable();
     }
 
     /**
-     * Registers Satellite Server by adding it into the hashtable satellites 
+     * Registers Satellite Server by publishing a snapshot that includes it
      * @param satelliteInfo - satellite information to add
+     * @return the satellite's entry
      */
-    public void registerSatellite(ConnectivityInfo satelliteInfo) {
-        // ...
+    public SatelliteEntry registerSatellite(ConnectivityInfo satelliteInfo) {
         String satelliteName = satelliteInfo.getName();
-        
-        if(satellites.get(satelliteName) == null)
-        {
-            satellites.put(satelliteName, satelliteInfo);
-            System.out.println("[SatelliteManager.registerSatellite] " + satelliteName + " is registered");
+        SatelliteEntry entry = null;
+
+        while (true) {
+            SatelliteEntry[] current = satellites.get();
+            SatelliteEntry registered = find(current, satelliteName);
+            if (registered != null) {
+                Log.info("SatelliteManager.registerSatellite", "{} is already registered", satelliteName);
+                return registered;
+            }
+
+            if (entry == null) {
+                entry = new SatelliteEntry(satelliteInfo);
+            }
+            SatelliteEntry[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = entry;
+            if (satellites.compareAndSet(current, updated)) {
+                Log.info("SatelliteManager.registerSatellite", "{} is registered", satelliteName);
+                return entry;
+            }
+            // lost against a concurrent registration, try again on the new snapshot
+        }
+    }
+
+    /**
+     * Unregisters Satellite Server by publishing a snapshot without it
+     * @param satelliteName - name of the satellite to remove
+     * @return the satellite's entry, or <code>null</code> if it was not registered
+     */
+    public SatelliteEntry unregisterSatellite(String satelliteName) {
+        while (true) {
+            SatelliteEntry entry = find(satellites.get(), satelliteName);
+            if (entry == null || remove(entry)) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Records a heartbeat. A satellite that is not registered, e.g. because it got evicted before,
+     * is registered again.
+     * @param status - status reported by the satellite
+     */
+    public void heartbeat(SatelliteStatus status) {
+        SatelliteEntry entry = find(satellites.get(), status.getSatelliteInfo().getName());
+        if (entry == null) {
+            entry = registerSatellite(status.getSatelliteInfo());
         }
-        else{
-            System.out.println("[SatelliteManager.registerSatellite] " + satelliteName + " is already registered");
+        entry.heartbeat(status);
+    }
+
+    /**
+     * Evicts all satellites that have been silent for longer than the timeout
+     * @param timeoutNanos - allowed time since the last heartbeat
+     * @return the evicted satellites
+     */
+    public List<SatelliteEntry> evictSilentSatellites(long timeoutNanos) {
+        List<SatelliteEntry> evicted = new ArrayList<>();
+        long now = System.nanoTime();
+        for (SatelliteEntry entry : satellites.get()) {
+            if (entry.isSilent(now, timeoutNanos) && remove(entry)) {
+                evicted.add(entry);
+            }
         }
+        return evicted;
     }
+
     /**
-     * Returns the Satellite information 
+     * Evicts one satellite right away, e.g. because it cannot be reached anymore
+     * @param entry - the satellite's entry, as handed out by the snapshot
+     * @return <code>true</code> if the entry was still registered
+     */
+    public boolean evictSatellite(SatelliteEntry entry) {
+        return remove(entry);
+    }
+
+    /**
+     * Returns the current snapshot of registered satellites. The array must not be modified.
+     */
+    public SatelliteEntry[] getSatellites() {
+        return satellites.get();
+    }
+
+    /**
+     * Returns the Satellite information
      * @param satelliteName - name of satellite to get information for
-     * @return
+     * @return connectivity information, or <code>null</code> if there is no such satellite
      */
     public ConnectivityInfo getSatelliteForName(String satelliteName) {
-        // ..
-        return satellites.get(satelliteName);
+        SatelliteEntry entry = find(satellites.get(), satelliteName);
+        return entry == null ? null : entry.getInfo();
+    }
+
+    /**
+     * Publishes a snapshot without the given entry. Entries are compared by identity, so that a satellite
+     * that registered anew in the meantime is not removed by accident.
+     * @return <code>false</code> if the entry is not part of the snapshot (anymore)
+     */
+    private boolean remove(SatelliteEntry entry) {
+        while (true) {
+            SatelliteEntry[] current = satellites.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == entry) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+
+            SatelliteEntry[] updated = NO_SATELLITES;
+            if (current.length > 1) {
+                updated = new SatelliteEntry[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            }
+            if (satellites.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    private static SatelliteEntry find(SatelliteEntry[] snapshot, String satelliteName) {
+        for (SatelliteEntry entry : snapshot) {
+            if (entry.getName().equals(satelliteName)) {
+                return entry;
+            }
+        }
+        return null;
     }
 }
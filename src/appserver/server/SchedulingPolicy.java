@@ -0,0 +1,17 @@
+package appserver.server;
+
+/**
+ * Interface [SchedulingPolicy] Decides which satellite gets the next job.
+ * The policy is chosen by the SCHEDULING_POLICY property of the server, see <code>LoadManager</code>.
+ * <p>
+ * Policies are called concurrently by all event loops. They must neither block nor allocate.
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Selects a satellite
+     * @param satellites - snapshot of the registered satellites, never empty, must not be modified
+     * @return the satellite that is supposed to take the job
+     */
+    public SatelliteEntry select(SatelliteEntry[] satellites);
+}
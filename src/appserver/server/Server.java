@@ -1,20 +1,67 @@
 package appserver.server;
 
 import appserver.comm.Message;
+import appserver.comm.MessageCodecs;
+import appserver.comm.BatchResult;
+import appserver.comm.SatelliteLease;
+import appserver.comm.SatelliteStatus;
+import appserver.comm.ToolVersion;
+import static appserver.comm.MessageTypes.CACHEABLE_JOB_RESULT;
+import static appserver.comm.MessageTypes.HEARTBEAT;
+import static appserver.comm.MessageTypes.JOB_BATCH_REQUEST;
+import static appserver.comm.MessageTypes.JOB_BATCH_RESULT;
+import static appserver.comm.MessageTypes.JOB_FAILED;
 import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
 import static appserver.comm.MessageTypes.REGISTER_SATELLITE;
+import static appserver.comm.MessageTypes.REGISTER_TOOL;
+import static appserver.comm.MessageTypes.ROUTE_LEASE;
+import static appserver.comm.MessageTypes.ROUTE_REQUEST;
+import static appserver.comm.MessageTypes.STREAM_CANCEL;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import static appserver.comm.MessageTypes.UNREGISTER_SATELLITE;
 import appserver.comm.ConnectivityInfo;
+import appserver.job.Job;
+import appserver.job.JobBatch;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Properties;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import utils.LatencyHistogram;
+import utils.Log;
+import utils.Metrics;
 import utils.PropertyHandler;
 
 /**
+ * Class [Server] The application server. Clients send job requests, which are forwarded to satellites.
+ * <p>
+ * Connections are served by a small number of non-blocking event loops. Jobs are relayed to the satellites
+ * asynchronously, a satellite's reply is passed back to the client as soon as it arrives.
+ * <p>
+ * Clients may also lease a satellite (ROUTE_REQUEST) and send their jobs to it directly for LEASE_TTL milliseconds,
+ * which takes the server off the data path. The satellite is chosen by the scheduling policy, jobs sent
+ * directly do not count as outstanding here, the satellites' heartbeats report them.
+ * <p>
+ * By default jobs are pushed to the satellite chosen when they come in. With DISPATCH = pull they wait
+ * in a central queue instead, and satellites pull them as they have room, see <code>JobQueue</code>.
+ * <p>
+ * Satellites send heartbeats. A satellite that misses HEARTBEAT_MISSES heartbeats in a row is evicted,
+ * as is a satellite that refuses connections, so that no more jobs are routed to it.
+ * <p>
+ * The latencies of jobs, of choosing their satellites and of relaying them are recorded in <code>utils.Metrics</code>,
+ * available over JMX.
  *
  * @author Dr.-Ing. Wolf-Dieter Otte
  */
@@ -23,138 +70,468 @@ public class Server {
     // Singleton objects - there is only one of them. For simplicity, this is not enforced though ...
     static SatelliteManager satelliteManager = null;
     static LoadManager loadManager = null;
-    static ServerSocket serverSocket = null;
+    static ServerSocketChannel serverChannel = null;
+    static SatelliteConnectionPool satelliteConnections = null;
+    static ResultCache resultCache = null; // null if results are not cached
+    static JobQueue jobQueue = null; // null if jobs are pushed to satellites
+    static ConcurrentHashMap<String, ToolVersion> toolVersions = new ConcurrentHashMap<>(); // latest version registered, by tool
+
+    // metrics of the job path
+    static final LongAdder jobsReceived = Metrics.counter("server_jobs_received_total");
+    static final LongAdder jobsFailed = Metrics.counter("server_jobs_failed_total");
+    static final LatencyHistogram jobLatency = Metrics.histogram("server_job_seconds");
+    static final LatencyHistogram selectionLatency = Metrics.histogram("server_satellite_selection_seconds");
+    static final LatencyHistogram relayRoundTrip = Metrics.histogram("server_relay_round_trip_seconds");
+    static final LongAdder leasesGranted = Metrics.counter("server_leases_granted_total");
+
+    // event loops serving client connections
+    private EventLoop[] eventLoops = null;
+
+    // evicts satellites that stopped sending heartbeats
+    private ScheduledExecutorService reaper = null;
+    private long heartbeatInterval = 1000; // milliseconds
+    private long heartbeatTimeoutNanos = 0;
+
+    // milliseconds a client may send jobs to a satellite directly, 0 if clients have to go through the server
+    private long leaseTtl = 0;
+    // chunks a client may ask for ahead in a stream
+    private int streamMaxCredit = 1024;
 
     public Server(String serverPropertiesFile) {
 
-        // create satellite manager and load manager
+        // create satellite manager
         satelliteManager = new SatelliteManager();
-        loadManager = new LoadManager();
+        Metrics.registerMBean("Server");
         
         // read server properties and create server socket
         try
         {
             PropertyHandler serverProperties = new PropertyHandler(serverPropertiesFile);
-            int port = Integer.parseInt(serverProperties.getProperty("PORT"));
-            serverSocket = new ServerSocket(port);
+
+            // create load manager with the configured scheduling policy
+            loadManager = new LoadManager(satelliteManager, serverProperties.getProperty("SCHEDULING_POLICY"));
+
+            int port = Integer.parseInt(serverProperties.getProperty("PORT").trim());
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+
+            // create event loops
+            int numberEventLoops = Integer.parseInt(serverProperties.getProperty("EVENT_LOOPS", "2").trim());
+            eventLoops = new EventLoop[Math.max(1, numberEventLoops)];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop("server-event-loop-" + i, this);
+            }
+
+            // create pool of long-lived connections to the satellites
+            int connectionsPerSatellite = Integer.parseInt(serverProperties.getProperty("SATELLITE_CONNECTIONS", "2").trim());
+            int[] codecPreferences = MessageCodecs.preferences(serverProperties.getProperty("CODEC"));
+            satelliteConnections = new SatelliteConnectionPool(connectionsPerSatellite, codecPreferences);
+
+            // satellites are evicted after missing a number of heartbeats
+            heartbeatInterval = Long.parseLong(serverProperties.getProperty("HEARTBEAT_INTERVAL", "1000").trim());
+            int heartbeatMisses = Integer.parseInt(serverProperties.getProperty("HEARTBEAT_MISSES", "3").trim());
+            heartbeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatInterval * Math.max(1, heartbeatMisses));
+
+            leaseTtl = Long.parseLong(serverProperties.getProperty("LEASE_TTL", "0").trim());
+            streamMaxCredit = Integer.parseInt(serverProperties.getProperty("STREAM_MAX_CREDIT", "1024").trim());
+
+            // queue jobs centrally, satellites pull them, unless jobs are pushed
+            if ("pull".equals(serverProperties.getProperty("DISPATCH", "push").trim())) {
+                jobQueue = new JobQueue(Integer.parseInt(serverProperties.getProperty("PULL_WINDOW", "8").trim()),
+                        Integer.parseInt(serverProperties.getProperty("MAX_QUEUED", "10000").trim()));
+                String policyName = serverProperties.getProperty("SCHEDULING_POLICY");
+                if (policyName != null && !policyName.trim().equals(LoadManager.LEAST_OUTSTANDING)) {
+                    Log.warn("Server.Server", "DISPATCH = pull hands single jobs to the satellite with the fewest jobs in flight, "
+                            + "SCHEDULING_POLICY {} only applies to batches, streams and leases", policyName.trim());
+                }
+            }
+
+            // cache results of deterministic tools, unless the cache size is 0
+            int resultCacheSize = Integer.parseInt(serverProperties.getProperty("RESULT_CACHE_SIZE", "0").trim());
+            if (resultCacheSize > 0) {
+                long resultCacheTtl = Long.parseLong(serverProperties.getProperty("RESULT_CACHE_TTL", "60000").trim());
+                resultCache = new ResultCache(resultCacheSize, resultCacheTtl);
+            }
             
         } catch(IOException e)
         {
-            System.err.println(e);
+            Log.error("Server.Server", "{}", e);
             System.exit(1);
         }
     }
 
     /**
-     * Runs a new server thread
+     * Starts the event loops and accepts connections, which are spread over the event loops
      */
     public void run() {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "satellite-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::evictSilentSatellites, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+
         // serve clients in server loop ...
-        // when a request comes in, a ServerThread object is spawned
+        // when a connection comes in, it is handed over to the next event loop
+        int nextEventLoop = 0;
         while(true)
         {
             try{
-                (new ServerThread(serverSocket.accept())).start();
+                SocketChannel client = serverChannel.accept();
+                eventLoops[nextEventLoop].register(client);
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
             } catch (IOException e) {
-                System.err.println(e);
+                Log.warn("Server.run", "{}", e);
             }
         }
     
     }
 
-    // objects of this helper class communicate with satellites or clients
-    private class ServerThread extends Thread {
+    /**
+     * Evicts the satellites that missed too many heartbeats, jobs in flight on them fail right away
+     */
+    private void evictSilentSatellites() {
+        for (SatelliteEntry satellite : satelliteManager.evictSilentSatellites(heartbeatTimeoutNanos)) {
+            Log.warn("Server.evictSilentSatellites", "{} missed its heartbeats, evicted", satellite.getName());
+            satelliteConnections.closeConnections(satellite.getName());
+        }
+        if (jobQueue != null) {
+            // jobs left waiting after failures, or with no satellite left
+            jobQueue.drain();
+        }
+    }
 
-        Socket client = null;
-        ObjectInputStream readFromNet = null;
-        ObjectOutputStream writeToNet = null;
-        Message message = null;
+    /**
+     * Forwards a job to the satellite chosen by the load manager
+     * @param job - content of the job request
+     * @return future that completes with the satellite's reply, or exceptionally if the job did not get through
+     */
+    CompletableFuture<Message> dispatchJob(Object job) {
+        if (Server.jobQueue != null) {
+            return Server.jobQueue.submit(job);
+        }
 
-        private ServerThread(Socket client) {
-            this.client = client;
+        final SatelliteEntry jobSatellite;
+        try {
+            // get next satellite from load manager
+            long selectionStart = System.nanoTime();
+            jobSatellite = Server.loadManager.nextSatellite();
+            selectionLatency.recordSince(selectionStart);
+            Log.debug("Server.dispatchJob", "Grabbing Server {}", jobSatellite.getName());
+        } catch (Exception e) {
+            CompletableFuture<Message> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
 
-        /**
-         * Runs the server and takes care of the satellite server incomming messages. 
-         */
-        @Override
-        public void run() {
-            // set up object streams and read message
-            try {
-                readFromNet = new ObjectInputStream(client.getInputStream());
-                writeToNet = new ObjectOutputStream(client.getOutputStream());
-                
-                message = (Message) readFromNet.readObject();
-                
-            } catch (IOException | ClassNotFoundException e){
-                System.err.println(e);
-            } 
-       
-            
-            // process message
-            switch (message.getType()) {
-                case REGISTER_SATELLITE:
-                    // read satellite info
-                    ConnectivityInfo newSattelite = (ConnectivityInfo) message.getContent();
-                    
-                    // register satellite
-                    synchronized (Server.satelliteManager)
-                    {
-                        Server.satelliteManager.registerSatellite(newSattelite);
-                    }
-                    
-                    // add satellite to loadManager
-                    synchronized (Server.loadManager)
-                    {
-                        Server.loadManager.satelliteAdded(newSattelite.getName());
+        final long dispatchTime = System.nanoTime();
+        return Server.satelliteConnections.send(jobSatellite.getInfo(), new Message(JOB_REQUEST, job))
+                .whenComplete((reply, error) -> {
+                    // feed the scheduling policy
+                    boolean succeeded = error == null && reply.getType() != JOB_FAILED;
+                    long latency = System.nanoTime() - dispatchTime;
+                    Server.loadManager.jobCompleted(jobSatellite, latency, succeeded);
+                    relayRoundTrip.recordNanos(latency);
+
+                    if (error != null) {
+                        satelliteFailed(jobSatellite, error);
                     }
+                });
+    }
+
+    /**
+     * Splits a batch into one chunk per satellite, chunks are assigned to satellites by the load manager.
+     * Results are relayed to the client as they come in, tagged with the index of their job.
+     * @param client - connection the batch came in on
+     * @param batchId - the client's correlation ID of the batch
+     * @param batch - the jobs
+     */
+    void dispatchBatch(ClientChannel client, long batchId, JobBatch batch) {
+        Job[] jobs = batch.getJobs();
+        if (jobs == null) {
+            client.send(new Message(JOB_FAILED, "Malformed batch, no jobs", batchId));
+            return;
+        }
+        if (jobs.length == 0) {
+            client.send(new Message(JOB_BATCH_RESULT, new BatchResult(-1, false, null), batchId));
+            return;
+        }
+
+        int chunks = Math.max(1, Math.min(jobs.length, satelliteManager.getSatellites().length));
+        int chunkSize = (jobs.length + chunks - 1) / chunks;
+
+        for (int offset = 0; offset < jobs.length; offset += chunkSize) {
+            int size = Math.min(chunkSize, jobs.length - offset);
+            SatelliteEntry satellite;
+            try {
+                long selectionStart = System.nanoTime();
+                satellite = Server.loadManager.nextSatellite(size);
+                selectionLatency.recordSince(selectionStart);
+                Log.debug("Server.dispatchBatch", "Grabbing Server {} for {} jobs", satellite.getName(), size);
+            } catch (Exception e) {
+                for (int index = offset; index < offset + size; index++) {
+                    client.send(new Message(JOB_BATCH_RESULT, new BatchResult(index, true, e.toString()), batchId));
+                }
+                continue;
+            }
+
+            Job[] chunk = size == jobs.length ? jobs : Arrays.copyOfRange(jobs, offset, offset + size);
+            Server.satelliteConnections.send(satellite.getInfo(), new Message(JOB_BATCH_REQUEST, new JobBatch(chunk)),
+                    new BatchChunk(client, batchId, satellite, offset, size));
+        }
+    }
+
+    /**
+     * Forwards the job of a streaming tool to the satellite chosen by the load manager.
+     * Its chunks are relayed to the client, which paces the stream with credits, see <code>StreamRelay</code>.
+     * @param client - connection the request came in on
+     * @param streamId - the client's correlation ID of the stream
+     * @param job - the job
+     */
+    void dispatchStream(ClientChannel client, long streamId, Object job) {
+        final SatelliteEntry streamSatellite;
+        try {
+            long selectionStart = System.nanoTime();
+            streamSatellite = Server.loadManager.nextSatellite();
+            selectionLatency.recordSince(selectionStart);
+            Log.debug("Server.dispatchStream", "Grabbing Server {}", streamSatellite.getName());
+        } catch (Exception e) {
+            client.send(new Message(JOB_FAILED, e.toString(), streamId));
+            return;
+        }
+
+        StreamRelay stream = new StreamRelay(client, streamId, streamSatellite, streamMaxCredit);
+        if (!client.addStream(streamId, stream)) {
+            Server.loadManager.jobCompleted(streamSatellite, 0, false);
+            client.send(new Message(JOB_FAILED, "Stream #" + streamId + " is already open", streamId));
+            return;
+        }
+        Server.satelliteConnections.send(streamSatellite.getInfo(), new Message(STREAM_REQUEST, job), stream);
+    }
+
+    /**
+     * Answers a client asking for a satellite to send its jobs to directly
+     * @param client - connection the request came in on
+     * @param requestId - the client's correlation ID of the request
+     */
+    void grantLease(ClientChannel client, long requestId) {
+        if (leaseTtl <= 0) {
+            client.send(new Message(JOB_FAILED, "Direct routing is off, LEASE_TTL is 0", requestId));
+            return;
+        }
+        try {
+            SatelliteEntry satellite = Server.loadManager.leaseSatellite();
+            leasesGranted.increment();
+            Log.debug("Server.grantLease", "Leasing {} for {}ms", satellite.getName(), leaseTtl);
+            client.send(new Message(ROUTE_LEASE, new SatelliteLease(satellite.getInfo(), leaseTtl), requestId));
+        } catch (Exception e) {
+            client.send(new Message(JOB_FAILED, e.toString(), requestId));
+        }
+    }
+
+    /**
+     * Registers a new version of a tool with all satellites. Jobs of the tool dispatched afterwards run on the new
+     * version, jobs in flight finish on the old one. Satellites registering later get the new version as well.
+     * The client is answered when all satellites have loaded the new version, or failed to.
+     * <p>
+     * Until then, jobs may still run on the old version somewhere, so the tool's results are dropped once more
+     * when all satellites have answered: results of jobs dispatched in between are not cached.
+     * @param client - connection the registration came in on
+     * @param requestId - the client's correlation ID of the registration
+     * @param toolVersion - the tool's new version
+     */
+    void registerTool(ClientChannel client, long requestId, ToolVersion toolVersion) {
+        Server.toolVersions.put(toolVersion.getToolName(), toolVersion);
+        if (Server.resultCache != null) {
+            // results of the old version must not answer jobs meant for the new one
+            Server.resultCache.invalidate(toolVersion.getToolName());
+        }
+
+        SatelliteEntry[] satellites = Server.satelliteManager.getSatellites();
+        List<CompletableFuture<Message>> replies = new ArrayList<>(satellites.length);
+        for (SatelliteEntry satellite : satellites) {
+            replies.add(Server.satelliteConnections.send(satellite.getInfo(), new Message(REGISTER_TOOL, toolVersion))
+                    .exceptionally(error -> new Message(JOB_FAILED, satellite.getName() + ": " + error)));
+        }
+
+        CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            if (Server.resultCache != null) {
+                Server.resultCache.invalidate(toolVersion.getToolName());
+            }
+            StringBuilder outcome = new StringBuilder(toolVersion.toString()).append(" on ")
+                    .append(satellites.length).append(" satellites");
+            boolean failed = false;
+            for (CompletableFuture<Message> reply : replies) {
+                Message satelliteReply = reply.join();
+                failed |= satelliteReply.getType() != JOB_RESULT;
+                outcome.append("\n").append(satelliteReply.getContent());
+            }
+            client.send(new Message(failed ? JOB_FAILED : JOB_RESULT, outcome.toString(), requestId));
+        });
+    }
+
+    /**
+     * Called when jobs could not be delivered to a satellite, or the connection failed before they were answered
+     * @param satellite - the satellite
+     * @param error - why
+     */
+    static void satelliteFailed(SatelliteEntry satellite, Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (cause instanceof ConnectException && Server.satelliteManager.evictSatellite(satellite)) {
+            // nobody listens anymore, stop routing there until it sends a heartbeat again
+            Log.warn("Server.satelliteFailed", "{} is unreachable, evicted", satellite.getName());
+        }
+        Log.warn("Server.satelliteFailed", "Job failed on {}: {}", satellite.getName(), error);
+    }
+
+    /**
+     * Processes a message received from a client or satellite, called by the event loop owning the connection.
+     * Must not block, replies are sent back asynchronously.
+     * @param client - connection the message came in on
+     * @param message - the message
+     */
+    void processMessage(final ClientChannel client, Message message) {
+        switch (message.getType()) {
+            case REGISTER_SATELLITE:
+                // read satellite info
+                ConnectivityInfo newSattelite = content(client, message, ConnectivityInfo.class);
+                if (newSattelite == null) {
+                    break;
+                }
+
+                // register satellite, the load manager picks it up with the next snapshot
+                Server.satelliteManager.registerSatellite(newSattelite);
+
+                // bring it up to date with the tool versions registered so far
+                for (ToolVersion toolVersion : Server.toolVersions.values()) {
+                    Server.satelliteConnections.send(newSattelite, new Message(REGISTER_TOOL, toolVersion))
+                            .whenComplete((reply, error) -> Log.info("Server.processMessage", "{} on {}: {}", toolVersion,
+                                    newSattelite.getName(), error != null ? error : reply.getContent()));
+                }
+                break;
+
+            case HEARTBEAT:
+                SatelliteStatus status = content(client, message, SatelliteStatus.class);
+                if (status == null) {
                     break;
+                }
+                Server.satelliteManager.heartbeat(status);
+                if (Server.jobQueue != null) {
+                    // satellites that registered since pull their first jobs
+                    Server.jobQueue.drain();
+                }
+                break;
+
+            case UNREGISTER_SATELLITE:
+                String satelliteName = content(client, message, String.class);
+                if (satelliteName != null && Server.satelliteManager.unregisterSatellite(satelliteName) != null) {
+                    Log.info("Server.processMessage", "{} is unregistered", satelliteName);
+                    Server.satelliteConnections.closeConnections(satelliteName);
+                }
+                break;
 
-                case JOB_REQUEST:
-                    System.err.println("\n[ServerThread.run] Received job request");
-                    ConnectivityInfo currentSatellite;
-
-                    String satelliteName = null;
-                    synchronized (Server.loadManager) {
-                        try {
-                            // get next satellite from load manager
-                            satelliteName = Server.loadManager.nextSatellite();
-                            System.out.println("[ServerThread.run] Grabbing Server " + satelliteName);
-                        } catch (Exception e) {
-                            System.err.println(e);
-                        }
-                            
-                        // get connectivity info for next satellite from satellite manager
-                        currentSatellite = Server.satelliteManager.getSatelliteForName(satelliteName);
+            case JOB_REQUEST:
+                Log.debug("Server.processMessage", "Received job request #{}", message.getId());
+                final long requestId = message.getId();
+                final long received = System.nanoTime();
+                Object job = message.getContent();
+                jobsReceived.increment();
+
+                // answer deterministic jobs out of the cache, if possible
+                CompletableFuture<Message> result;
+                if (Server.resultCache != null && job instanceof Job) {
+                    result = Server.resultCache.get((Job) job, this::dispatchJob);
+                } else {
+                    result = dispatchJob(job);
+                }
+
+                // relay the reply to the client under the client's correlation ID,
+                // the reply itself may be shared with other clients
+                result.whenComplete((reply, error) -> {
+                    jobLatency.recordSince(received);
+                    if (error != null || reply.getType() == JOB_FAILED) {
+                        jobsFailed.increment();
                     }
-                    
-                    try {   
-                        // connect to satellite
-                        Socket satellite = new Socket(currentSatellite.getHost(), currentSatellite.getPort());
-                        System.out.println("[ServerThread.run] Connection Created to " + satelliteName);
-                        
-                        // open object streams,
-                        ObjectOutputStream toSatellite = new ObjectOutputStream(satellite.getOutputStream());
-                        
-                        // forward message (as is) to satellite,
-                        toSatellite.writeObject(message);
-                        
-                        // receive result from satellite and
-                        ObjectInputStream fromSatellite = new ObjectInputStream(satellite.getInputStream());
-                        Object result = fromSatellite.readObject();
-                        // write result back to client
-                        writeToNet.writeObject(result);
-                        
-                    } catch (IOException | ClassNotFoundException e) {
-                        System.err.println(e);
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        client.send(new Message(JOB_FAILED, cause.toString(), requestId));
+                    } else {
+                        int type = reply.getType() == CACHEABLE_JOB_RESULT ? JOB_RESULT : reply.getType();
+                        client.send(new Message(type, reply.getContent(), requestId));
                     }
-                    
+                });
+                break;
+
+            case REGISTER_TOOL:
+                Log.info("Server.processMessage", "Received tool registration #{}: {}", message.getId(), message.getContent());
+                ToolVersion toolVersion = content(client, message, ToolVersion.class);
+                if (toolVersion != null) {
+                    registerTool(client, message.getId(), toolVersion);
+                }
+                break;
+
+            case JOB_BATCH_REQUEST:
+                JobBatch batch = content(client, message, JobBatch.class);
+                if (batch == null) {
                     break;
+                }
+                Log.debug("Server.processMessage", "Received job batch #{} of {} jobs", message.getId(),
+                        batch.getJobs() == null ? 0 : batch.size());
+                dispatchBatch(client, message.getId(), batch);
+                break;
 
-                default:
-                    System.err.println("[ServerThread.run] Warning: Message type not implemented");
-            }
+            case STREAM_REQUEST:
+                Log.debug("Server.processMessage", "Received stream request #{}", message.getId());
+                dispatchStream(client, message.getId(), message.getContent());
+                break;
+
+            case ROUTE_REQUEST:
+                grantLease(client, message.getId());
+                break;
+
+            case STREAM_CREDIT:
+                Integer credit = content(client, message, Integer.class);
+                StreamRelay creditedStream = client.getStream(message.getId());
+                if (credit != null && (credit <= 0 || credit > streamMaxCredit)) {
+                    client.send(new Message(JOB_FAILED, "Credit must be between 1 and " + streamMaxCredit, message.getId()));
+                } else if (credit != null && creditedStream != null) {
+                    creditedStream.grant(credit);
+                }
+                break;
+
+            case STREAM_CANCEL:
+                StreamRelay cancelledStream = client.getStream(message.getId());
+                if (cancelledStream != null) {
+                    cancelledStream.cancel();
+                }
+                break;
+
+            default:
+                Log.warn("Server.processMessage", "Message type {} not implemented", message.getType());
+        }
+    }
+
+    /**
+     * Gets the content of a message, checking that it is what the message's type calls for.
+     * A malformed message is answered with JOB_FAILED.
+     * @param client - connection the message came in on
+     * @param message - the message
+     * @param type - class the content has to be an instance of
+     * @return the content, or <code>null</code> if it is malformed
+     */
+    private static <T> T content(ClientChannel client, Message message, Class<T> type) {
+        Object content = message.getContent();
+        if (type.isInstance(content)) {
+            return type.cast(content);
         }
+        Log.warn("Server.processMessage", "Malformed message #{} of type {}: {}", message.getId(), message.getType(),
+                content == null ? "no content" : content.getClass().getName());
+        client.send(new Message(JOB_FAILED, "Malformed message, expected " + type.getSimpleName(), message.getId()));
+        return null;
     }
 
     // main()
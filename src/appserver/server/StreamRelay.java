@@ -0,0 +1,112 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import utils.Log;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.STREAM_CANCEL;
+import static appserver.comm.MessageTypes.STREAM_CHUNK;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_END;
+
+/**
+ * Class [StreamRelay] Relays a stream of result chunks from a satellite to a client.
+ * <p>
+ * The relay does not buffer: chunks are passed on as they arrive, and the client's credits are passed on
+ * to the satellite, which only sends as many chunks as the client asked for. The chunks on their way
+ * through the server are thereby bounded by the client's window, however long the stream.
+ * Credit granted before the request went out is collected up to STREAM_MAX_CREDIT chunks.
+ */
+class StreamRelay implements SatelliteConnection.ReplyStream {
+
+    private final ClientChannel client;
+    private final long streamId; // the client's correlation ID of the stream
+    private final SatelliteEntry satellite;
+    private final int maxCredit;
+    private final long dispatchTime = System.nanoTime();
+
+    // guarded by this
+    private SatelliteConnection connection = null; // null until the request went out
+    private long satelliteStreamId;
+    private int pendingCredits = 0; // granted before the request went out
+    private boolean cancelled = false;
+    private boolean finished = false;
+
+    StreamRelay(ClientChannel client, long streamId, SatelliteEntry satellite, int maxCredit) {
+        this.client = client;
+        this.streamId = streamId;
+        this.satellite = satellite;
+        this.maxCredit = maxCredit;
+    }
+
+    @Override
+    public synchronized void onSent(SatelliteConnection connection, long id) {
+        this.connection = connection;
+        this.satelliteStreamId = id;
+        if (cancelled) {
+            connection.post(new Message(STREAM_CANCEL, null, id));
+        } else if (!finished && pendingCredits > 0) {
+            connection.post(new Message(STREAM_CREDIT, pendingCredits, id));
+            pendingCredits = 0;
+        }
+    }
+
+    /**
+     * Passes credit granted by the client on to the satellite
+     * @param credits - number of chunks the client is ready to take
+     */
+    synchronized void grant(int credits) {
+        if (finished || cancelled) {
+            return;
+        }
+        if (connection == null) {
+            pendingCredits = (int) Math.min((long) pendingCredits + credits, maxCredit);
+        } else {
+            connection.post(new Message(STREAM_CREDIT, credits, satelliteStreamId));
+        }
+    }
+
+    /**
+     * Stops the stream, because the client cancelled it or went away
+     */
+    synchronized void cancel() {
+        if (finished || cancelled) {
+            return;
+        }
+        cancelled = true;
+        if (connection != null) {
+            connection.post(new Message(STREAM_CANCEL, null, satelliteStreamId));
+        }
+        finish(false);
+    }
+
+    @Override
+    public synchronized boolean onReply(Message reply) {
+        if (finished) {
+            return false;
+        }
+        reply.setId(streamId);
+        client.send(reply);
+
+        if (reply.getType() == STREAM_CHUNK) {
+            return true;
+        }
+        finish(reply.getType() == STREAM_END);
+        return false;
+    }
+
+    @Override
+    public synchronized void onFailure(Exception cause) {
+        if (finished) {
+            return;
+        }
+        Server.satelliteFailed(satellite, cause);
+        client.send(new Message(JOB_FAILED, cause.toString(), streamId));
+        finish(false);
+    }
+
+    private void finish(boolean succeeded) {
+        finished = true;
+        client.removeStream(streamId, this);
+        Server.loadManager.jobCompleted(satellite, System.nanoTime() - dispatchTime, succeeded);
+    }
+}
@@ -0,0 +1,404 @@
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.BufferedInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class [Log]
+ * <p>
+ * Logging shared by all packages. Logging a message takes no lock and does no I/O: the message's template and
+ * arguments are put into a bounded ring buffer, a background thread formats them and writes them out.
+ * Messages below the level set are dropped before anything is done with them, so a disabled DEBUG message
+ * costs a comparison. If the buffer is full, e.g. because the output cannot keep up, messages are dropped
+ * and counted as "log_records_dropped_total", see <code>Metrics</code>, instead of holding up the caller.
+ * <p>
+ * Templates refer to their arguments with "{}", e.g. <code>Log.debug("Server.dispatchJob", "Job #{} on {}", id, name)</code>.
+ * Arguments are turned into text by the background thread, so they must not change after they are logged.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ * <li>log.level - ERROR, WARN, INFO, DEBUG or TRACE (default INFO)</li>
+ * <li>log.buffer - number of messages the ring buffer holds, rounded up to a power of two (default 8192)</li>
+ * <li>log.binary - file to write binary records to instead of text, read them with <code>java utils.Log &lt;file&gt;</code></li>
+ * </ul>
+ * Text goes to standard error for WARN and ERROR, to standard output otherwise, whichever streams are set when it is written.
+ * <p>
+ * The writer thread sleeps while there is nothing to write, the first message logged after that wakes it up.
+ */
+public class Log {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG, TRACE
+    }
+
+    private static final Level[] LEVELS = Level.values();
+
+    private static volatile int threshold = Level.INFO.ordinal();
+
+    // the ring buffer, many producers and the writer thread as the single consumer
+    private static final Slot[] slots;
+    private static final int mask;
+    private static final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private static long head = 0; // next slot to write out, guarded by drain()
+
+    private static final LongAdder dropped = Metrics.counter("log_records_dropped_total");
+    private static long droppedReported = 0; // guarded by drain()
+    private static DataOutputStream binary = null; // null to write text
+    // a binary record is put together here before it is written, guarded by drain()
+    private static final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private static final DataOutputStream recordOut = new DataOutputStream(record);
+
+    private static final Thread writer;
+    private static volatile boolean writerIdle = false; // the writer is parked, or about to park
+    // longest the writer sleeps without being woken up
+    private static final long IDLE_PARK_NANOS = 1000000000L;
+
+    /**
+     * Class [Slot] A message in the ring buffer. The slot belongs to the producer that claimed it
+     * until it publishes the message by setting the sequence, then to the writer thread
+     */
+    private static class Slot {
+
+        volatile long sequence;
+        long time;
+        Level level;
+        String thread;
+        String source;
+        String template;
+        int argumentCount;
+        Object argument0;
+        Object argument1;
+        Object argument2;
+    }
+
+    static {
+        String level = System.getProperty("log.level");
+        if (level != null) {
+            try {
+                threshold = Level.valueOf(level.trim().toUpperCase()).ordinal();
+            } catch (IllegalArgumentException e) {
+                System.err.println("[Log] Unknown log level " + level + ", using INFO");
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(16, Integer.getInteger("log.buffer", 8192)) * 2 - 1);
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            slots[i].sequence = i;
+        }
+        mask = capacity - 1;
+
+        String binaryFile = System.getProperty("log.binary");
+        if (binaryFile != null && !binaryFile.trim().isEmpty()) {
+            try {
+                binary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile.trim(), true), 65536));
+            } catch (IOException e) {
+                System.err.println("[Log] Cannot write " + binaryFile + ", logging text: " + e);
+            }
+        }
+
+        writer = new Thread(Log::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // write out what is still buffered when the process ends
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    /**
+     * Sets the level below which messages are dropped
+     */
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    /**
+     * @return <code>true</code> if messages of a level are logged, to skip preparing arguments that are costly
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() <= threshold;
+    }
+
+    public static void error(String source, String template) {
+        log(Level.ERROR, source, template, 0, null, null, null);
+    }
+
+    public static void error(String source, String template, Object argument) {
+        log(Level.ERROR, source, template, 1, argument, null, null);
+    }
+
+    public static void error(String source, String template, Object argument0, Object argument1) {
+        log(Level.ERROR, source, template, 2, argument0, argument1, null);
+    }
+
+    public static void warn(String source, String template) {
+        log(Level.WARN, source, template, 0, null, null, null);
+    }
+
+    public static void warn(String source, String template, Object argument) {
+        log(Level.WARN, source, template, 1, argument, null, null);
+    }
+
+    public static void warn(String source, String template, Object argument0, Object argument1) {
+        log(Level.WARN, source, template, 2, argument0, argument1, null);
+    }
+
+    public static void warn(String source, String template, Object argument0, Object argument1, Object argument2) {
+        log(Level.WARN, source, template, 3, argument0, argument1, argument2);
+    }
+
+    public static void info(String source, String template) {
+        log(Level.INFO, source, template, 0, null, null, null);
+    }
+
+    public static void info(String source, String template, Object argument) {
+        log(Level.INFO, source, template, 1, argument, null, null);
+    }
+
+    public static void info(String source, String template, Object argument0, Object argument1) {
+        log(Level.INFO, source, template, 2, argument0, argument1, null);
+    }
+
+    public static void info(String source, String template, Object argument0, Object argument1, Object argument2) {
+        log(Level.INFO, source, template, 3, argument0, argument1, argument2);
+    }
+
+    public static void debug(String source, String template) {
+        log(Level.DEBUG, source, template, 0, null, null, null);
+    }
+
+    public static void debug(String source, String template, Object argument) {
+        log(Level.DEBUG, source, template, 1, argument, null, null);
+    }
+
+    public static void debug(String source, String template, Object argument0, Object argument1) {
+        log(Level.DEBUG, source, template, 2, argument0, argument1, null);
+    }
+
+    public static void debug(String source, String template, Object argument0, Object argument1, Object argument2) {
+        log(Level.DEBUG, source, template, 3, argument0, argument1, argument2);
+    }
+
+    private static void log(Level level, String source, String template, int argumentCount,
+            Object argument0, Object argument1, Object argument2) {
+        if (level.ordinal() > threshold) {
+            return;
+        }
+
+        // claim a slot, the writer frees it after writing it out
+        Slot slot;
+        long position;
+        while (true) {
+            position = tail.get();
+            slot = slots[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                // the writer is a whole buffer behind
+                dropped.increment();
+                return;
+            }
+            // another producer claimed the slot first, try the next one
+        }
+
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.thread = Thread.currentThread().getName();
+        slot.source = source;
+        slot.template = template;
+        slot.argumentCount = argumentCount;
+        slot.argument0 = argument0;
+        slot.argument1 = argument1;
+        slot.argument2 = argument2;
+        slot.sequence = position + 1; // publish
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Writes out the messages logged so far before returning, e.g. before the process ends
+     */
+    public static void flush() {
+        drain();
+    }
+
+    /**
+     * The writer thread's loop, it parks whenever the buffer is empty until a producer wakes it up
+     */
+    private static void write() {
+        while (true) {
+            if (!drain()) {
+                writerIdle = true;
+                // a message published before the flag was set would not wake the writer up
+                if (!hasPublished()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                writerIdle = false;
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a message is waiting to be written out
+     */
+    private static synchronized boolean hasPublished() {
+        return slots[(int) head & mask].sequence == head + 1;
+    }
+
+    /**
+     * Writes out the messages published so far
+     * @return <code>false</code> if there were none
+     */
+    private static synchronized boolean drain() {
+        boolean written = false;
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            Slot slot = slots[(int) head & mask];
+            if (slot.sequence != head + 1) {
+                break;
+            }
+            try {
+                if (binary != null) {
+                    writeBinary(slot);
+                } else {
+                    line.setLength(0);
+                    format(line, slot.time, slot.level, slot.thread, slot.source, slot.template, slot.argumentCount,
+                            slot.argument0, slot.argument1, slot.argument2);
+                    PrintStream stream = slot.level.ordinal() <= Level.WARN.ordinal() ? System.err : System.out;
+                    stream.println(line);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[Log.drain] Message not written: " + e);
+            }
+            // free the slot for the producers
+            slot.thread = null;
+            slot.source = null;
+            slot.template = null;
+            slot.argument0 = null;
+            slot.argument1 = null;
+            slot.argument2 = null;
+            slot.sequence = head + slots.length;
+            head++;
+            written = true;
+        }
+        if (written) {
+            try {
+                if (binary != null) {
+                    binary.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("[Log.drain] " + e);
+            }
+            System.out.flush();
+            System.err.flush();
+        }
+        long droppedSoFar = dropped.sum();
+        if (droppedSoFar != droppedReported) {
+            droppedReported = droppedSoFar;
+            System.err.println("[Log.drain] Log buffer full, " + droppedSoFar + " messages dropped so far");
+        }
+        return written;
+    }
+
+    /**
+     * Writes a binary record. It is put together completely first, so a record that fails is left out as a whole.
+     * Strings are written as their length in bytes followed by their UTF-8 bytes, there is no limit on their length.
+     */
+    private static void writeBinary(Slot slot) throws IOException {
+        record.reset();
+        recordOut.writeLong(slot.time);
+        recordOut.writeByte(slot.level.ordinal());
+        writeString(recordOut, slot.thread);
+        writeString(recordOut, slot.source);
+        writeString(recordOut, slot.template);
+        recordOut.writeByte(slot.argumentCount);
+        Object[] arguments = {slot.argument0, slot.argument1, slot.argument2};
+        for (int i = 0; i < slot.argumentCount; i++) {
+            writeString(recordOut, String.valueOf(arguments[i]));
+        }
+        record.writeTo(binary);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void format(StringBuilder line, long time, Level level, String thread, String source, String template,
+            int argumentCount, Object argument0, Object argument1, Object argument2) {
+        line.append(Instant.ofEpochMilli(time)).append(' ').append(level);
+        for (int i = level.name().length(); i < 5; i++) {
+            line.append(' ');
+        }
+        line.append(" (").append(thread).append(") [").append(source).append("] ");
+
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while (argument < argumentCount && (placeholder = template.indexOf("{}", start)) >= 0) {
+            line.append(template, start, placeholder);
+            line.append(argument == 0 ? argument0 : argument == 1 ? argument1 : argument2);
+            argument++;
+            start = placeholder + 2;
+        }
+        line.append(template, start, template.length());
+    }
+
+    /**
+     * Prints a file of binary records as text
+     * @param args - the file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java utils.Log <binary log file>");
+            System.exit(1);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            StringBuilder line = new StringBuilder(256);
+            while (true) {
+                long time;
+                try {
+                    time = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                Level level = LEVELS[in.readByte()];
+                String thread = readString(in);
+                String source = readString(in);
+                String template = readString(in);
+                String[] arguments = new String[3];
+                int argumentCount = in.readByte();
+                for (int i = 0; i < argumentCount; i++) {
+                    arguments[i] = readString(in);
+                }
+                line.setLength(0);
+                format(line, time, level, thread, source, template, argumentCount, arguments[0], arguments[1], arguments[2]);
+                System.out.println(line);
+            }
+        }
+    }
+}
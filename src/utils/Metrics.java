@@ -0,0 +1,224 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Class [Metrics]
+ * <p>
+ * Counters and latency histograms of one process, by name. Counters are <code>LongAdder</code>s, latencies
+ * are recorded in <code>LatencyHistogram</code>s, so updating a metric takes no lock. Looking a metric up
+ * takes a map lookup: code on a hot path looks its metrics up once and keeps them.
+ * <p>
+ * Metrics are named in the style of Prometheus, e.g. "server_relay_round_trip_seconds", and may carry
+ * one label, e.g. the tool a latency was measured for. They can be read as text, see <code>render()</code>,
+ * and over JMX, see <code>registerMBean()</code>.
+ */
+public class Metrics {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    // quantiles reported for histograms
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Gets a counter, it is created on first use
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Gets a counter with a label, e.g. counter("satellite_jobs", "tool", "appserver.job.impl.PlusOne")
+     */
+    public static LongAdder counter(String name, String label, String value) {
+        return counter(key(name, label, value));
+    }
+
+    /**
+     * Gets a latency histogram, it is created on first use
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Gets a latency histogram with a label, e.g. histogram("satellite_tool_execution_seconds", "tool", toolName)
+     */
+    public static LatencyHistogram histogram(String name, String label, String value) {
+        return histogram(key(name, label, value));
+    }
+
+    private static String key(String name, String label, String value) {
+        return name + "{" + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format. Latencies are given in seconds,
+     * as a summary of their quantiles, count and sum, plus the largest latency.
+     */
+    public static String render() {
+        StringBuilder text = new StringBuilder();
+        String lastName = null;
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            String name = baseName(counter.getKey());
+            if (!name.equals(lastName)) {
+                text.append("# TYPE ").append(name).append(" counter\n");
+                lastName = name;
+            }
+            text.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+
+        for (Map.Entry<String, LatencyHistogram> histogram : new TreeMap<>(histograms).entrySet()) {
+            String key = histogram.getKey();
+            String name = baseName(key);
+            String labels = key.substring(name.length());
+            if (!name.equals(lastName)) {
+                text.append("# TYPE ").append(name).append(" summary\n");
+                lastName = name;
+            }
+            LatencyHistogram.Snapshot snapshot = histogram.getValue().snapshot();
+            for (double quantile : QUANTILES) {
+                text.append(name).append(withLabel(labels, "quantile=\"" + quantile + "\"")).append(' ')
+                        .append(seconds(snapshot.getQuantile(quantile))).append('\n');
+            }
+            text.append(name).append("_count").append(labels).append(' ').append(snapshot.getCount()).append('\n');
+            text.append(name).append("_sum").append(labels).append(' ').append(seconds(snapshot.getSum())).append('\n');
+            text.append(name).append("_max").append(labels).append(' ').append(seconds(snapshot.getMax())).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String baseName(String key) {
+        int brace = key.indexOf('{');
+        return brace < 0 ? key : key.substring(0, brace);
+    }
+
+    private static String withLabel(String labels, String label) {
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Makes the metrics available over JMX, as the MBean "appserver:type=Metrics,name=&lt;process&gt;"
+     * @param process - name of the process, e.g. "Server" or the satellite's name
+     */
+    public static void registerMBean(String process) {
+        try {
+            ObjectName objectName = new ObjectName("appserver:type=Metrics,name=" + ObjectName.quote(process));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+            }
+        } catch (Exception e) {
+            Log.warn("Metrics.registerMBean", "Metrics not available over JMX: {}", e);
+        }
+    }
+
+    /**
+     * Class [MetricsMBean] Every counter is an attribute of its own, every histogram gives the attributes
+     * "&lt;name&gt; count", "&lt;name&gt; mean", "&lt;name&gt; max" and one per quantile, e.g. "&lt;name&gt; p99",
+     * all latencies in microseconds. Metrics created later show up once a JMX client fetches the MBean's info again.
+     */
+    private static class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            int space = attribute.lastIndexOf(' ');
+            LatencyHistogram histogram = space < 0 ? null : histograms.get(attribute.substring(0, space));
+            if (histogram == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            String statistic = attribute.substring(space + 1);
+            switch (statistic) {
+                case "count":
+                    return (double) snapshot.getCount();
+                case "mean":
+                    return snapshot.getMean() / 1e3;
+                case "max":
+                    return snapshot.getMax() / 1e3;
+                default:
+                    for (double quantile : QUANTILES) {
+                        if (statistic.equals(quantileName(quantile))) {
+                            return snapshot.getQuantile(quantile) / 1e3;
+                        }
+                    }
+                    throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // left out, as the contract of DynamicMBean asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String counter : new TreeMap<>(counters).keySet()) {
+                attributes.add(new MBeanAttributeInfo(counter, "long", "counter", true, false, false));
+            }
+            for (String histogram : new TreeMap<>(histograms).keySet()) {
+                attributes.add(new MBeanAttributeInfo(histogram + " count", "double", "latencies recorded", true, false, false));
+                attributes.add(new MBeanAttributeInfo(histogram + " mean", "double", "mean latency in microseconds", true, false, false));
+                for (double quantile : QUANTILES) {
+                    attributes.add(new MBeanAttributeInfo(histogram + " " + quantileName(quantile), "double",
+                            quantile + " quantile in microseconds", true, false, false));
+                }
+                attributes.add(new MBeanAttributeInfo(histogram + " max", "double", "largest latency in microseconds", true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Counters and latency histograms of the process",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+
+        private static String quantileName(double quantile) {
+            // 0.5 -> p50, 0.99 -> p99, 0.999 -> p999
+            String digits = Double.toString(quantile).substring(2);
+            return "p" + (digits.length() == 1 ? digits + "0" : digits);
+        }
+    }
+}
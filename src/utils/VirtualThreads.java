@@ -0,0 +1,44 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Class [VirtualThreads]
+ * <p>
+ * Auxiliary class giving access to virtual threads on runtimes that provide them.
+ * The project is compiled for an older release, so the factory method is looked up reflectively.
+ */
+public class VirtualThreads {
+
+    /**
+     * Returns <code>true</code> if the running JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return factoryMethod() != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task,
+     * or returns <code>null</code> if the running JVM does not support virtual threads
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        Method factory = factoryMethod();
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Method factoryMethod() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
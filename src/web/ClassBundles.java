@@ -0,0 +1,220 @@
+package web;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class [ClassBundles] Serves a class file together with all class files it depends on, in one response.
+ * <p>
+ * Dependencies are found by scanning the constant pool of a class file: every class it names,
+ * directly or in a field or method descriptor, is part of the bundle if it is found under the document root.
+ * Classes that are not, e.g. the JDK's, are left to the loader's parent. The scan is transitive.
+ * <p>
+ * A bundle is sent as a count, followed by name, ETag, length and bytes of every class file,
+ * see <code>write()</code>. Its ETag is derived from the ETags of its class files,
+ * so a bundle is unchanged as long as none of its class files changed.
+ */
+public class ClassBundles {
+
+    public static final String CONTENT_TYPE = "application/x-class-bundle";
+
+    // constant pool tags, see the JVM specification, chapter 4.4
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELD_REF = 9;
+    private static final int CONSTANT_METHOD_REF = 10;
+    private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private ClassBundles() {
+    }
+
+    /**
+     * Collects a class file and, transitively, the class files it depends on
+     * @param documentRoot - directory the class files are served from
+     * @param classFile - path of the root class file, relative to the document root
+     * @return class files by binary class name, the root class first
+     */
+    public static Map<String, File> collect(String documentRoot, String classFile) throws IOException {
+        Map<String, File> bundle = new LinkedHashMap<>();
+        Deque<String> toScan = new ArrayDeque<>();
+
+        String rootName = classFile.replace('\\', '/');
+        if (rootName.startsWith("/")) {
+            rootName = rootName.substring(1);
+        }
+        rootName = rootName.substring(0, rootName.length() - ".class".length());
+        toScan.add(rootName);
+
+        while (!toScan.isEmpty()) {
+            String internalName = toScan.poll();
+            String className = internalName.replace('/', '.');
+            if (bundle.containsKey(className)) {
+                continue;
+            }
+            File file = new File(documentRoot, internalName + ".class");
+            if (!file.isFile()) {
+                continue; // not ours to serve, e.g. a JDK class
+            }
+            bundle.put(className, file);
+            toScan.addAll(referencedClasses(file));
+        }
+        return bundle;
+    }
+
+    /**
+     * ETag of a single file, changes when the file's length or modification time changes
+     */
+    public static String etag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /**
+     * ETag of a bundle, changes when any of its class files changes, or the set of class files changes
+     */
+    public static String etag(Map<String, File> bundle) {
+        long hash = 1125899906842597L;
+        for (Map.Entry<String, File> entry : bundle.entrySet()) {
+            hash = 31 * hash + entry.getKey().hashCode();
+            hash = 31 * hash + etag(entry.getValue()).hashCode();
+        }
+        return "\"b" + Long.toHexString(hash) + "-" + bundle.size() + "\"";
+    }
+
+    /**
+     * Writes a bundle: the number of class files, then for every class file its binary name, its ETag,
+     * its length and its bytes. Names and ETags are written as modified UTF-8, see <code>DataOutputStream</code>.
+     */
+    public static void write(Map<String, File> bundle, DataOutputStream out) throws IOException {
+        out.writeInt(bundle.size());
+        for (Map.Entry<String, File> entry : bundle.entrySet()) {
+            byte[] data = readFile(entry.getValue());
+            out.writeUTF(entry.getKey());
+            out.writeUTF(etag(entry.getValue()));
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    /**
+     * Names of the classes a class file refers to, in internal form, e.g. "appserver/job/Tool"
+     */
+    static List<String> referencedClasses(File classFile) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(classFile))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(classFile + " is not a class file");
+            }
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            List<Integer> classNameIndexes = new ArrayList<>();
+            for (int index = 1; index < count; index++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        utf8[index] = in.readUTF();
+                        break;
+                    case CONSTANT_CLASS:
+                        classNameIndexes.add(in.readUnsignedShort());
+                        break;
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        in.skipBytes(2);
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        in.skipBytes(3);
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELD_REF:
+                    case CONSTANT_METHOD_REF:
+                    case CONSTANT_INTERFACE_METHOD_REF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        in.skipBytes(4);
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        in.skipBytes(8);
+                        index++; // takes two entries
+                        break;
+                    default:
+                        throw new IOException(classFile + ": unknown constant pool tag " + tag);
+                }
+            }
+
+            for (int nameIndex : classNameIndexes) {
+                addClassName(utf8[nameIndex], names);
+            }
+            // types that only show up in descriptors, e.g. of parameters, are needed for verification too
+            for (String constant : utf8) {
+                if (constant != null && constant.indexOf(';') > 0) {
+                    addDescriptorClasses(constant, names);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void addClassName(String name, List<String> names) {
+        if (name == null) {
+            return;
+        }
+        if (name.startsWith("[")) {
+            addDescriptorClasses(name, names); // array class
+        } else {
+            names.add(name);
+        }
+    }
+
+    private static void addDescriptorClasses(String descriptor, List<String> names) {
+        int start = descriptor.indexOf('L');
+        while (start >= 0) {
+            int end = descriptor.indexOf(';', start);
+            if (end < 0) {
+                return;
+            }
+            String name = descriptor.substring(start + 1, end);
+            if (name.indexOf('(') < 0 && name.indexOf(')') < 0 && name.indexOf('<') < 0) {
+                names.add(name);
+            }
+            start = descriptor.indexOf('L', end);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+}
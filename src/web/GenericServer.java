@@ -2,8 +2,21 @@ package web;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.Log;
 import utils.PropertyHandler;
+import utils.VirtualThreads;
 
 /**
  * Class [GenericServer]
@@ -11,32 +24,89 @@ import utils.PropertyHandler;
  * An abstract template-class for socket servers.. Concrete servers have to be
  * derived from this class. To do this, the method
  * <code>processConnection()</code>. has to be overridden
+ * <p>
+ * The server accepts connections and hands each one to a worker, which calls <code>processConnection()</code>.
+ * All state is held per instance, so several servers can run in one JVM. The following properties are read:
+ * <ul>
+ * <li>PORT - port to listen on</li>
+ * <li>BACKLOG - connections the operating system queues before they are accepted (default 50)</li>
+ * <li>EXECUTOR - "pool" for a fixed pool of WORKERS threads, with room for CONNECTION_QUEUE connections
+ * waiting for one, "workstealing" for a work-stealing pool of WORKERS threads, or "virtual" for a virtual thread
+ * per connection (default "pool")</li>
+ * <li>MAX_CONNECTIONS - connections served at the same time, 0 for no limit (default 0)</li>
+ * </ul>
+ * Connections beyond these limits are handed to <code>rejectConnection()</code>.
+ * <code>shutdown()</code> stops accepting and gives the connections being served time to finish.
  *
  * @author Prof. Dr.-Ing. Wolf-Dieter Otte
  * @version Feb. 2000
  */
 public abstract class GenericServer implements Runnable {
 
-    static ServerSocket serverSocket;
-    static int port;
+    protected ServerSocket serverSocket;
+    protected int port;
+    protected int backlog = 50;
+    protected ExecutorService executor;
 
-    protected Socket socket;
+    private Semaphore connectionPermits = null; // null if connections are not limited
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet(); // being served
+    private volatile boolean running = true;
 
     /**
      * The Constructor
      */
     public GenericServer(String serverPropertiesFile) {
         try {
-            // init static variables with properties read 
+            // init instance variables with properties read
             Properties properties;
             properties = new PropertyHandler(serverPropertiesFile);
-            port = Integer.parseInt(properties.getProperty("PORT"));
+            port = Integer.parseInt(properties.getProperty("PORT").trim());
+            backlog = Integer.parseInt(properties.getProperty("BACKLOG", "50").trim());
+
+            String mode = properties.getProperty("EXECUTOR", "pool").trim();
+            int workers = Integer.parseInt(properties.getProperty("WORKERS", "32").trim());
+            int connectionQueue = Integer.parseInt(properties.getProperty("CONNECTION_QUEUE", "64").trim());
+            executor = createExecutor(mode, workers, connectionQueue);
+
+            int maxConnections = Integer.parseInt(properties.getProperty("MAX_CONNECTIONS", "0").trim());
+            if (maxConnections > 0) {
+                connectionPermits = new Semaphore(maxConnections);
+            }
         } catch (Exception e) {
-            System.err.println("[GenericServer.GenericServer] Properties file " + serverPropertiesFile + " not found, exiting ...");
+            Log.error("GenericServer.GenericServer", "Properties file {} not found, exiting ...", serverPropertiesFile);
             System.exit(1);
         }
+    }
+
+    /**
+     * Creates the executor serving connections
+     * @param mode - "pool", "workstealing" or "virtual"
+     * @param workers - number of threads of a pool
+     * @param connectionQueue - connections a fixed pool keeps waiting for a thread
+     */
+    private ExecutorService createExecutor(String mode, int workers, int connectionQueue) {
+        String threadName = getClass().getSimpleName() + "-worker-";
+        if (mode.equalsIgnoreCase("virtual")) {
+            ExecutorService virtual = VirtualThreads.newPerTaskExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            Log.warn("GenericServer.createExecutor", "Virtual threads not supported by this JVM, using worker pool");
+        } else if (mode.equalsIgnoreCase("workstealing")) {
+            return Executors.newWorkStealingPool(workers);
+        } else if (!mode.equalsIgnoreCase("pool")) {
+            Log.warn("GenericServer.createExecutor", "Unknown executor \"{}\", using worker pool", mode);
+        }
 
-        this.port = port;
+        AtomicInteger workerNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, connectionQueue)), runnable -> {
+                    Thread thread = new Thread(runnable, threadName + workerNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     /**
@@ -45,25 +115,110 @@ public abstract class GenericServer implements Runnable {
      */
     public void run() {
         try {
-            serverSocket = new ServerSocket(port);
+            // the server socket is backed by a channel, so are the sockets it accepts,
+            // which lets servers send files with FileChannel.transferTo()
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), backlog);
+            serverSocket = serverChannel.socket();
+            Log.info("GenericServer.run", "Waiting for connections on Port #{}", port);
 
-            while (true) {
-                System.out.println("[GenericServer.run] Waiting for connections on Port #" + port);
-                socket = serverSocket.accept();
-                System.out.println("[GenericServer.run] A connection to a client is established!");
-                processConnection(socket);
+            while (running) {
+                Socket socket = serverSocket.accept();
+                dispatch(socket);
             }
 
         } catch (IOException ioe) {
-            System.err.println("IOException" + ioe.getMessage());
-            ioe.printStackTrace();
+            if (running) {
+                Log.error("GenericServer.run", "{}", ioe);
+            }
+        }
+    }
+
+    /**
+     * Hands a connection to a worker, or rejects it if the limits are reached
+     */
+    private void dispatch(final Socket socket) {
+        if (connectionPermits != null && !connectionPermits.tryAcquire()) {
+            Log.warn("GenericServer.dispatch", "Connection turned away, {} connections open", connections.size());
+            rejectConnection(socket);
+            close(socket);
+            return;
+        }
+        connections.add(socket);
+        try {
+            executor.execute(() -> {
+                try {
+                    processConnection(socket);
+                } finally {
+                    close(socket);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.warn("GenericServer.dispatch", "Connection turned away, all workers busy");
+            connections.remove(socket);
+            if (connectionPermits != null) {
+                connectionPermits.release();
+            }
+            rejectConnection(socket);
+            close(socket);
+        }
+    }
+
+    private void close(Socket socket) {
+        if (connections.remove(socket) && connectionPermits != null) {
+            connectionPermits.release();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
         }
     }
 
+    /**
+     * Stops accepting connections, waits for the connections being served to finish
+     * and closes those still open after the timeout
+     * @param timeoutMillis - milliseconds to wait for connections to finish
+     * @return <code>true</code> if all connections finished in time
+     */
+    public boolean shutdown(long timeoutMillis) {
+        running = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+            }
+        }
+        executor.shutdown();
+        boolean finished = false;
+        try {
+            finished = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!finished) {
+            Log.warn("GenericServer.shutdown", "Closing {} connections still open", connections.size());
+            for (Socket socket : connections) {
+                close(socket);
+            }
+            executor.shutdownNow();
+        }
+        Log.info("GenericServer.shutdown", "Server on Port #{} stopped", port);
+        Log.flush();
+        return finished;
+    }
+
     /**
      * The method <code>processConnection()</code> contains the "Intelligence"
      * of servers, i.e. his application specific functionality. This method has
-     * to be overridden by concrete servers.
+     * to be overridden by concrete servers. It runs on a worker and serves the
+     * connection to its end, the socket is closed when it returns.
      */
     protected abstract void processConnection(Socket socket);
+
+    /**
+     * Turns a connection away that exceeds the limits of the server.
+     * Concrete servers may override this to tell the client, the socket is closed afterwards.
+     */
+    protected void rejectConnection(Socket socket) {
+    }
 }
@@ -0,0 +1,337 @@
+package web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import utils.Log;
+import utils.Metrics;
+
+/**
+ * Class [HotFileCache] Keeps responses for frequently requested files in memory, so that satellites
+ * warming up all at once are served without going to disk.
+ * <p>
+ * A cached response holds the headers that do not change between requests, followed by the file's content,
+ * in a direct buffer, ready to be written to a socket. Bundles of class files are cached the same way.
+ * At most HOT_FILE_CACHE_SIZE bytes are kept, the least recently used response is dropped first, and files
+ * larger than HOT_FILE_MAX_SIZE are not cached at all. Concurrent requests for a file not cached yet read it once.
+ * <p>
+ * A <code>WatchService</code> on the document root drops a response as soon as one of its files changes.
+ */
+class HotFileCache {
+
+    /**
+     * Class [Response] A pre-rendered response: entity headers, blank line and content
+     */
+    static class Response {
+
+        final String etag;
+        final ByteBuffer buffer; // read-only, hand out duplicates only
+        final List<Path> files; // the response changes when any of these changes
+
+        Response(String etag, ByteBuffer buffer, List<Path> files) {
+            this.etag = etag;
+            this.buffer = buffer;
+            this.files = files;
+        }
+
+        /**
+         * @return the headers and content, positioned at the start
+         */
+        ByteBuffer getBuffer() {
+            return buffer.duplicate();
+        }
+    }
+
+    private final String documentRoot;
+    private final long capacity;
+    private final long maxFileSize;
+
+    // responses in access order, guarded by itself
+    private final LinkedHashMap<String, Response> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0; // bytes held, guarded by responses
+    private long generation = 0; // counts invalidations, guarded by responses
+    // responses being rendered, concurrent requests wait for them
+    private final ConcurrentHashMap<String, CompletableFuture<Response>> loading = new ConcurrentHashMap<>();
+
+    private final WatchService watchService;
+
+    private final LongAdder hits = Metrics.counter("web_hot_file_cache_hits_total");
+    private final LongAdder misses = Metrics.counter("web_hot_file_cache_misses_total");
+    private final LongAdder invalidations = Metrics.counter("web_hot_file_cache_invalidations_total");
+
+    /**
+     * Creates the cache and starts watching the document root
+     * @param documentRoot - directory files are served from
+     * @param capacity - maximum number of bytes kept
+     * @param maxFileSize - files larger than this are not cached
+     */
+    HotFileCache(String documentRoot, long capacity, long maxFileSize) throws IOException {
+        this.documentRoot = documentRoot;
+        this.capacity = capacity;
+        this.maxFileSize = maxFileSize;
+
+        Path root = new File(documentRoot).toPath().toAbsolutePath().normalize();
+        watchService = root.getFileSystem().newWatchService();
+        watchTree(root);
+
+        Thread watcher = new Thread(this::watch, "doc-root-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * @param path - path of the file, relative to the document root
+     * @param contentType - content type of the file
+     * @return the response for a file, null if the file does not exist or is too large to be cached
+     */
+    Response getFile(final String path, final String contentType) throws IOException {
+        return get(path, () -> {
+            File file = new File(documentRoot, path);
+            if (!file.isFile() || file.length() > maxFileSize) {
+                return null;
+            }
+            // read the ETag first, if the file changes while it is read, the next request reads it again
+            String etag = ClassBundles.etag(file);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length > maxFileSize) {
+                    return null;
+                }
+                byte[] headers = headers(etag, length, contentType, true);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(headers.length + (int) length);
+                buffer.put(headers);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    ;
+                }
+                if (buffer.hasRemaining()) {
+                    // the file shrank while it was read, its Content-length would be wrong, serve it from disk
+                    return null;
+                }
+                buffer.flip();
+                return new Response(etag, buffer.asReadOnlyBuffer(), List.of(normalize(file)));
+            }
+        });
+    }
+
+    /**
+     * @param path - path of the root class file of the bundle, relative to the document root
+     * @return the response for a bundle of class files, null if there is no such class file or the bundle is too large
+     */
+    Response getBundle(final String path) throws IOException {
+        return get(path + "?bundle", () -> {
+            Map<String, File> bundle = ClassBundles.collect(documentRoot, path);
+            if (bundle.isEmpty()) {
+                return null;
+            }
+            String etag = ClassBundles.etag(bundle);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            ClassBundles.write(bundle, new DataOutputStream(content));
+            if (content.size() > maxFileSize) {
+                return null;
+            }
+
+            byte[] headers = headers(etag, content.size(), ClassBundles.CONTENT_TYPE, false);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(headers.length + content.size());
+            buffer.put(headers);
+            buffer.put(content.toByteArray());
+            buffer.flip();
+            List<Path> files = new ArrayList<>();
+            for (File file : bundle.values()) {
+                files.add(normalize(file));
+            }
+            return new Response(etag, buffer.asReadOnlyBuffer(), files);
+        });
+    }
+
+    @Override
+    public String toString() {
+        int count;
+        long bytes;
+        synchronized (responses) {
+            count = responses.size();
+            bytes = size;
+        }
+        return "hot file cache, " + count + " responses, " + bytes + "/" + capacity + " bytes, "
+                + hits.sum() + " hits, " + misses.sum() + " misses, " + invalidations.sum() + " invalidations";
+    }
+
+    /**
+     * Class [Renderer] Renders a response, null if it is not to be cached
+     */
+    private interface Renderer {
+
+        Response render() throws IOException;
+    }
+
+    private Response get(String key, Renderer renderer) throws IOException {
+        synchronized (responses) {
+            Response response = responses.get(key);
+            if (response != null) {
+                hits.increment();
+                return response;
+            }
+        }
+
+        CompletableFuture<Response> flight = new CompletableFuture<>();
+        CompletableFuture<Response> running = loading.putIfAbsent(key, flight);
+        if (running != null) {
+            hits.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        misses.increment();
+        long renderGeneration;
+        synchronized (responses) {
+            renderGeneration = generation;
+        }
+        try {
+            Response response = renderer.render();
+            if (response != null) {
+                put(key, response, renderGeneration);
+            }
+            flight.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, flight);
+        }
+    }
+
+    private void put(String key, Response response, long renderGeneration) {
+        synchronized (responses) {
+            // a file of the response may have changed while it was rendered
+            if (generation != renderGeneration || response.buffer.capacity() > capacity) {
+                return;
+            }
+            Response previous = responses.put(key, response);
+            if (previous != null) {
+                size -= previous.buffer.capacity();
+            }
+            size += response.buffer.capacity();
+
+            Iterator<Response> eldest = responses.values().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                size -= eldest.next().buffer.capacity();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the responses that depend on a file, or on a file under a directory
+     */
+    private void invalidate(Path changed) {
+        synchronized (responses) {
+            generation++;
+            Iterator<Response> iterator = responses.values().iterator();
+            while (iterator.hasNext()) {
+                Response response = iterator.next();
+                for (Path file : response.files) {
+                    if (file.startsWith(changed)) {
+                        size -= response.buffer.capacity();
+                        iterator.remove();
+                        invalidations.increment();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        synchronized (responses) {
+            generation++;
+            invalidations.add(responses.size());
+            responses.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Waits for changes under the document root, runs on a thread of its own
+     */
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // events got lost, nothing cached can be trusted
+                    invalidateAll();
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                    try {
+                        watchTree(changed);
+                    } catch (IOException e) {
+                        Log.warn("HotFileCache.watch", "Cannot watch {}: {}", changed, e);
+                    }
+                }
+                invalidate(changed);
+            }
+            key.reset();
+        }
+    }
+
+    private void watchTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static byte[] headers(String etag, long length, String contentType, boolean acceptRanges) {
+        StringBuilder headers = new StringBuilder();
+        headers.append("ETag: ").append(etag).append("\r\n");
+        headers.append("Content-length: ").append(length).append("\r\n");
+        if (acceptRanges) {
+            headers.append("Accept-Ranges: bytes\r\n");
+        }
+        headers.append("Content-type: ").append(contentType).append("\r\n");
+        headers.append("\r\n");
+        return headers.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -1,29 +1,56 @@
 package web;
 
 import appserver.client.PlusOneClient;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.LongAdder;
+import utils.LatencyHistogram;
+import utils.Log;
+import utils.Metrics;
 import utils.PropertyHandler;
 
 /**
  * Class [SimpleWebServer]
  *
  * A simple web server, which only implements the GET-method.
+ * <p>
+ * Connections are served by the workers of <code>GenericServer</code>, connections beyond its limits
+ * are turned away with "503 Service Unavailable". Persistent connections are closed after IDLE_TIMEOUT
+ * milliseconds without a request, so that idle clients do not hold on to workers.
+ * <p>
+ * "GET /metrics" is answered with the metrics of the web server's process in the Prometheus text format,
+ * see <code>utils.Metrics</code>.
  *
  * @author Prof. Dr.-Ing. Wolf-Dieter Otte
  */
 public class SimpleWebServer extends GenericServer {
 
-    static String documentRoot;
+    String documentRoot;
     static String indexfile = "index.html";
+    HotFileCache hotFiles = null; // null if responses are not cached
+    int idleTimeout = 15000; // milliseconds a persistent connection may wait for its next request
+
+    static final LongAdder requests = Metrics.counter("web_requests_total");
+    static final LatencyHistogram requestLatency = Metrics.histogram("web_request_seconds");
 
     /**
      * The constructor
@@ -32,13 +59,26 @@ public class SimpleWebServer extends GenericServer {
         super(webServerPropertiesFile);
 
         try {
-            // init static variables with properties read 
+            // init instance variables with properties read 
             Properties properties;
             properties = new PropertyHandler(webServerPropertiesFile);
             documentRoot = properties.getProperty("DOC_ROOT");
+            idleTimeout = Integer.parseInt(properties.getProperty("IDLE_TIMEOUT", "15000").trim());
+            Metrics.registerMBean("WebServer");
+
+            // keep responses for hot files in memory, unless the cache size is 0
+            long hotFileCacheSize = Long.parseLong(properties.getProperty("HOT_FILE_CACHE_SIZE", "0").trim());
+            if (hotFileCacheSize > 0) {
+                long hotFileMaxSize = Long.parseLong(properties.getProperty("HOT_FILE_MAX_SIZE", "1048576").trim());
+                try {
+                    hotFiles = new HotFileCache(documentRoot, hotFileCacheSize, hotFileMaxSize);
+                } catch (IOException e) {
+                    Log.warn("SimpleWebServer.SimpleWebServer", "Cannot watch {}, hot files are not cached: {}", documentRoot, e);
+                }
+            }
 
         } catch (Exception e) {
-            System.err.println("Properties file " + webServerPropertiesFile + " not found, exiting ...");
+            Log.error("SimpleWebServer.SimpleWebServer", "Properties file {} not found, exiting ...", webServerPropertiesFile);
             System.exit(1);
         }
     }
@@ -48,14 +88,34 @@ public class SimpleWebServer extends GenericServer {
      * of the web server.
      */
     protected void processConnection(Socket socket) {
-        (new SocketThread(socket)).start();
+        new SocketThread(socket).run();
+    }
+
+    /**
+     * Tells a client turned away to come back later
+     */
+    @Override
+    protected void rejectConnection(Socket socket) {
+        try {
+            socket.getOutputStream().write(("HTTP/1.1 503 Service Unavailable\r\nContent-length: 0\r\n"
+                    + "Connection: close\r\nRetry-After: 1\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        } catch (IOException ioe) {
+        }
     }
 
     /**
-     * Inner Class [SocketThread] This thread processes a client (web browser)
-     * request. In the meantime the web server can accept other clients.
+     * Inner Class [SocketThread] This task processes the requests of a client (web browser),
+     * running on one of the workers of <code>GenericServer</code>. In the meantime the web server can accept other clients.
+     * <p>
+     * Connections are kept alive for further requests if the client asks for it,
+     * with HTTP/1.1 or with "Connection: keep-alive". Requests may be pipelined: responses are sent
+     * in the order of the requests, and written out together while further requests are waiting.
+     * Files are sent with an ETag, a request
+     * carrying a matching "If-None-Match" header is answered with "304 Not Modified".
+     * Class files requested with the query "?bundle" are sent together with the class files
+     * they depend on, see <code>ClassBundles</code>.
      */
-    class SocketThread extends Thread {
+    class SocketThread implements Runnable {
 
         Socket socket = null;
 
@@ -66,8 +126,14 @@ public class SimpleWebServer extends GenericServer {
         String httpMethod;
         StringTokenizer tokenizer;
         String fileString;
+        String query;
         String version;
         String contentType;
+        String ifNoneMatch;
+        String connection;
+        String range;
+        String contentRange;
+        boolean keepAlive;
         File fileToServe;
 
         /**
@@ -82,95 +148,387 @@ public class SimpleWebServer extends GenericServer {
          */
         public void run() {
             try {
-                writeToNet = new PrintStream(socket.getOutputStream());
-                readFromNet = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                inputLine = readFromNet.readLine();
-                tokenizer = new StringTokenizer(inputLine);
-                httpMethod = tokenizer.nextToken();
+                socket.setSoTimeout(idleTimeout);
+                writeToNet = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+                // ISO-8859-1 maps bytes to chars one to one, so a request body can be skipped by its length
+                readFromNet = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
 
-                if (httpMethod.equals("GET")) {
-                    fileString = tokenizer.nextToken();
-
-                    if (fileString.endsWith("/")) {
-                        fileString += indexfile;
+                keepAlive = true;
+                while (keepAlive && (inputLine = readFromNet.readLine()) != null) {
+                    if (inputLine.trim().equals("")) {
+                        continue;
                     }
-                    contentType = guessContentTypeFromName(fileString);
+                    long requestStart = System.nanoTime();
+                    tokenizer = new StringTokenizer(inputLine);
+                    httpMethod = tokenizer.nextToken();
+                    fileString = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "/";
+                    version = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
 
-                    if (tokenizer.hasMoreTokens()) {
-                        version = tokenizer.nextToken();
+                    // Read the header lines we care about, skip the rest
+                    ifNoneMatch = null;
+                    connection = null;
+                    range = null;
+                    contentRange = null;
+                    long contentLength = 0;
+                    if (version.startsWith("HTTP/")) {
+                        while ((inputLine = readFromNet.readLine()) != null) {
+                            if (inputLine.trim().equals("")) {
+                                break;
+                            }
+                            int colon = inputLine.indexOf(':');
+                            if (colon > 0) {
+                                String name = inputLine.substring(0, colon).trim();
+                                String value = inputLine.substring(colon + 1).trim();
+                                if (name.equalsIgnoreCase("If-None-Match")) {
+                                    ifNoneMatch = value;
+                                } else if (name.equalsIgnoreCase("Connection")) {
+                                    connection = value;
+                                } else if (name.equalsIgnoreCase("Range")) {
+                                    range = value;
+                                } else if (name.equalsIgnoreCase("Content-Length")) {
+                                    contentLength = Long.parseLong(value);
+                                }
+                            }
+                        }
                     }
-
-                    // Skip the rest
-                    while ((inputLine = readFromNet.readLine()) != null) {
-                        if (inputLine.trim().equals("")) {
-                            break;
+                    if (version.equals("HTTP/1.1")) {
+                        keepAlive = !hasToken(connection, "close");
+                    } else {
+                        keepAlive = hasToken(connection, "keep-alive");
+                    }
+                    // a body is of no use to any method served, skip it to get to the next request
+                    while (contentLength > 0) {
+                        long skipped = readFromNet.skip(contentLength);
+                        if (skipped <= 0) {
+                            throw new EOFException("Request body cut short");
                         }
+                        contentLength -= skipped;
                     }
 
-                    try {
-                        System.err.println("File to serve: " + "\"" + fileString + "\"");
-                        fileToServe = new File(SimpleWebServer.documentRoot, fileString);
-                        FileInputStream fis = new FileInputStream(fileToServe);
-                        byte[] theData = new byte[(int) fileToServe.length()];
-
-                        fis.read(theData);
-                        fis.close();
-
-                        if (version.startsWith("HTTP/")) {
-                            // Send a MIME header
-                            writeToNet.print("HTTP/1.0 200 OK\r\n");
-                            writeToNet.print("Date: " + new Date() + "\r\n");
-                            writeToNet.print("Server: WebServer Version Feb 2000\r\n");
-                            writeToNet.print("Content-length: " + theData.length + "\r\n");
-                            writeToNet.print("Content-type: " + contentType + "\r\n\r\n");
+                    if (httpMethod.equals("GET")) {
+                        query = null;
+                        int questionMark = fileString.indexOf('?');
+                        if (questionMark >= 0) {
+                            query = fileString.substring(questionMark + 1);
+                            fileString = fileString.substring(0, questionMark);
                         }
+                        if (fileString.endsWith("/")) {
+                            fileString += indexfile;
+                        }
+                        contentType = guessContentTypeFromName(fileString);
 
-                        // Send the file
-                        writeToNet.write(theData);
-                        writeToNet.close();
-                        System.err.println("File: " + fileToServe + " sent\n");
-
-                    } catch (IOException e) {
-                        // Cannot find the file
-                        if (version.startsWith("HTTP/")) {
-                            // send a MIME header
-                            writeToNet.print("HTTP/1.0 404 File Not Found\r\n");
-                            writeToNet.print("Date: " + new Date() + "\r\n");
-                            writeToNet.print("Server: MyWebServer Version Feb 2000\r\n");
-                            writeToNet.print("Content-type: text/html" + "\r\n\r\n");
+                        if (fileString.equals("/metrics")) {
+                            serveMetrics();
+                        } else if ("bundle".equals(query) && fileString.endsWith(".class")) {
+                            serveBundle();
+                        } else {
+                            serveFile();
                         }
-                        writeToNet.println("<HTML><HEAD><TITLE>File Not Found</TITLE></HEAD>");
-                        writeToNet.println("<BODY><H1>HTTP Error 404: File Not Found</H1></BODY></HTML>");
-                        writeToNet.close();
-                        System.err.println("File: " + fileToServe + " not found\n");
+                    } else {
+                        // Method doesn't equal "GET"
+                        sendError("501 Not Implemented", "Not Implemented");
+                        Log.debug("SocketThread.run", "Method: {} is not supported", httpMethod);
+                    }
+                    requests.increment();
+                    requestLatency.recordSince(requestStart);
+                    // with more requests pipelined, their responses go out together
+                    if (!readFromNet.ready()) {
+                        writeToNet.flush();
                     }
+                }
+            } catch (SocketTimeoutException e) {
+                // idle for too long
+            } catch (IOException | NumberFormatException e) {
+            }
+            if (writeToNet != null) {
+                writeToNet.flush();
+            }
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /**
+         * @return <code>true</code> if a comma separated header value, e.g. of "Connection", contains a token
+         */
+        boolean hasToken(String value, String token) {
+            if (value == null) {
+                return false;
+            }
+            for (String element : value.split(",")) {
+                if (element.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Sends the file requested, or "304 Not Modified" if the client's copy is current.
+         * A "Range" header asking for a single range of bytes is answered with that range only.
+         * The file is handed to the socket with <code>FileChannel.transferTo()</code>, which lets the
+         * operating system copy it without passing it through the heap, whatever the size of the file.
+         */
+        void serveFile() {
+            Log.debug("SocketThread.serveFile", "File to serve: \"{}\"", fileString);
+            if (hotFiles != null && range == null && version.startsWith("HTTP/")) {
+                HotFileCache.Response cached = null;
+                try {
+                    cached = hotFiles.getFile(fileString, contentType);
+                } catch (IOException e) {
+                    // serve it from disk
+                }
+                if (cached != null) {
+                    sendCached(cached, "File", fileString);
+                    return;
+                }
+            }
+
+            fileToServe = new File(documentRoot, fileString);
+            if (!fileToServe.isFile()) {
+                sendError("404 File Not Found", "File Not Found");
+                Log.debug("SocketThread.serveFile", "File: {} not found", fileToServe);
+                return;
+            }
+
+            String etag = ClassBundles.etag(fileToServe);
+            if (etag.equals(ifNoneMatch)) {
+                sendHeader("304 Not Modified", null, -1, etag);
+                Log.debug("SocketThread.serveFile", "File: {} not modified", fileToServe);
+                return;
+            }
+
+            try (FileChannel file = FileChannel.open(fileToServe.toPath(), StandardOpenOption.READ)) {
+                long length = file.size();
+                long first = 0;
+                long last = length - 1;
+
+                if (range != null && version.startsWith("HTTP/")) {
+                    long[] requested = parseRange(range, length);
+                    if (requested == null) {
+                        contentRange = "bytes */" + length;
+                        sendError("416 Range Not Satisfiable", "Range Not Satisfiable");
+                        Log.debug("SocketThread.serveFile", "File: {} range {} not satisfiable", fileToServe, range);
+                        return;
+                    }
+                    if (requested.length == 2) {
+                        first = requested[0];
+                        last = requested[1];
+                        contentRange = "bytes " + first + "-" + last + "/" + length;
+                    }
+                }
+
+                // Send a MIME header, then the file
+                long count = last - first + 1;
+                sendHeader(contentRange != null ? "206 Partial Content" : "200 OK", contentType, count, etag);
+                writeToNet.flush();
+                if (writeToNet.checkError()) {
+                    throw new IOException("Connection lost");
+                }
+                WritableByteChannel socketChannel = socket.getChannel() != null
+                        ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+                long position = first;
+                while (position <= last) {
+                    long sent = file.transferTo(position, last + 1 - position, socketChannel);
+                    if (sent <= 0 && position >= file.size()) {
+                        throw new IOException("File truncated while being sent");
+                    }
+                    position += sent;
+                }
+                Log.debug("SocketThread.serveFile", "File: {}{} sent", fileToServe, contentRange != null ? " " + contentRange : "");
+            } catch (IOException e) {
+                // Cannot read the file, or the client went away while it was sent
+                keepAlive = false;
+                Log.warn("SocketThread.serveFile", "File: {} not sent: {}", fileToServe, e);
+            }
+        }
+
+        /**
+         * Parses the value of a "Range" header
+         * @return first and last byte of a satisfiable single range, an empty array if the header is to be ignored,
+         * null if the range is not satisfiable
+         */
+        long[] parseRange(String range, long length) {
+            if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+                // other units and multiple ranges are not supported, the whole file is sent
+                return new long[0];
+            }
+            String spec = range.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return new long[0];
+            }
+            try {
+                long first;
+                long last;
+                if (dash == 0) {
+                    // the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        // "bytes=--n" is no range at all
+                        return new long[0];
+                    }
+                    if (suffix == 0) {
+                        return null;
+                    }
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
                 } else {
-                    // Method doesn't equal "GET"
-                    if (version.startsWith("HTTP/")) {
-                        // send a MIME header
-                        writeToNet.print("HTTP/1.0 501 Not Implemented\r\n");
-                        writeToNet.print("Date: " + new Date() + "\r\n");
-                        writeToNet.print("Server: MyWebServer Version Feb 2000\r\n");
-                        writeToNet.print("Content-type: text/html" + "\r\n\r\n");
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (last < first) {
+                        return new long[0];
                     }
+                    last = Math.min(last, length - 1);
+                }
+                return first < length ? new long[]{first, last} : null;
+            } catch (NumberFormatException e) {
+                return new long[0];
+            }
+        }
 
-                    writeToNet.println("<HTML><HEAD><TITLE>Not Implemented</TITLE></HEAD>");
-                    writeToNet.println("<BODY><H1>HTTP Error 501: Not Implemented</H1></BODY></HTML>");
-                    writeToNet.close();
+        /**
+         * Sends a class file and the class files it depends on, or "304 Not Modified" if none of them changed
+         */
+        void serveBundle() {
+            Log.debug("SocketThread.serveBundle", "Bundle to serve: \"{}\"", fileString);
+            if (hotFiles != null && version.startsWith("HTTP/")) {
+                HotFileCache.Response cached = null;
+                try {
+                    cached = hotFiles.getBundle(fileString);
+                } catch (IOException e) {
+                    // collect it from disk
+                }
+                if (cached != null) {
+                    sendCached(cached, "Bundle", fileString);
+                    return;
+                }
+            }
+            try {
 
-                    System.err.println("Method: " + httpMethod + " is not supported\n");
+                Map<String, File> bundle = ClassBundles.collect(documentRoot, fileString);
+                if (bundle.isEmpty()) {
+                    sendError("404 File Not Found", "File Not Found");
+                    Log.debug("SocketThread.serveBundle", "Bundle: {} not found", fileString);
+                    return;
+                }
 
+                String etag = ClassBundles.etag(bundle);
+                if (etag.equals(ifNoneMatch)) {
+                    sendHeader("304 Not Modified", null, -1, etag);
+                    Log.debug("SocketThread.serveBundle", "Bundle: {} not modified", fileString);
+                    return;
                 }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ClassBundles.write(bundle, new DataOutputStream(bytes));
+                sendHeader("200 OK", ClassBundles.CONTENT_TYPE, bytes.size(), etag);
+                bytes.writeTo(writeToNet);
+                Log.debug("SocketThread.serveBundle", "Bundle: {} sent, classes {}", fileString, bundle.keySet());
             } catch (IOException e) {
+                sendError("500 Internal Server Error", "Internal Server Error");
+                Log.warn("SocketThread.serveBundle", "Bundle: {} failed: {}", fileString, e);
             }
+        }
+
+        /**
+         * Sends the metrics of this process
+         */
+        void serveMetrics() {
+            byte[] metrics = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            sendHeader("200 OK", "text/plain; version=0.0.4; charset=utf-8", metrics.length, null);
+            writeToNet.write(metrics, 0, metrics.length);
+        }
 
+        /**
+         * Sends a cached response, or "304 Not Modified" if the client's copy is current
+         * @param kind - "File" or "Bundle", for the log
+         * @param name - what is sent, for the log
+         */
+        void sendCached(HotFileCache.Response cached, String kind, String name) {
+            if (cached.etag.equals(ifNoneMatch)) {
+                sendHeader("304 Not Modified", null, -1, cached.etag);
+                Log.debug("SocketThread.sendCached", "{}: {} not modified", kind, name);
+                return;
+            }
             try {
-                socket.close();
+                sendStatus("200 OK");
+                writeToNet.flush();
+                if (writeToNet.checkError()) {
+                    throw new IOException("Connection lost");
+                }
+                ByteBuffer response = cached.getBuffer();
+                WritableByteChannel socketChannel = socket.getChannel() != null
+                        ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+                while (response.hasRemaining()) {
+                    socketChannel.write(response);
+                }
+                Log.debug("SocketThread.sendCached", "{}: {} sent from memory, {}", kind, name, hotFiles);
             } catch (IOException e) {
+                // the client went away while the response was sent
+                keepAlive = false;
+                Log.warn("SocketThread.sendCached", "{}: {} not sent: {}", kind, name, e);
+            }
+        }
+
+        /**
+         * Sends the status line and the headers that do not depend on the content
+         * @param status - status code and reason phrase
+         */
+        void sendStatus(String status) {
+            writeToNet.print((version.equals("HTTP/1.1") ? "HTTP/1.1 " : "HTTP/1.0 ") + status + "\r\n");
+            writeToNet.print("Date: " + new Date() + "\r\n");
+            writeToNet.print("Server: WebServer Version Feb 2000\r\n");
+            if (keepAlive && !version.equals("HTTP/1.1")) {
+                writeToNet.print("Connection: keep-alive\r\n");
+            } else if (!keepAlive && version.equals("HTTP/1.1")) {
+                writeToNet.print("Connection: close\r\n");
             }
         }
 
+        /**
+         * Sends a MIME header, unless the client speaks HTTP/0.9
+         * @param status - status code and reason phrase
+         * @param type - content type, null if there is no content
+         * @param length - content length, -1 if there is no content
+         * @param etag - ETag of the content, null if there is none
+         */
+        void sendHeader(String status, String type, long length, String etag) {
+            if (!version.startsWith("HTTP/")) {
+                return;
+            }
+            sendStatus(status);
+            if (etag != null) {
+                writeToNet.print("ETag: " + etag + "\r\n");
+            }
+            if (length >= 0) {
+                writeToNet.print("Content-length: " + length + "\r\n");
+            }
+            if (contentRange != null) {
+                writeToNet.print("Content-Range: " + contentRange + "\r\n");
+            }
+            if (etag != null && type != null && !type.equals(ClassBundles.CONTENT_TYPE)) {
+                writeToNet.print("Accept-Ranges: bytes\r\n");
+            }
+            if (type != null) {
+                writeToNet.print("Content-type: " + type + "\r\n");
+            }
+            writeToNet.print("\r\n");
+        }
+
+        /**
+         * Sends an error page
+         */
+        void sendError(String status, String title) {
+            String page = "<HTML><HEAD><TITLE>" + title + "</TITLE></HEAD>\r\n"
+                    + "<BODY><H1>HTTP Error " + status + "</H1></BODY></HTML>\r\n";
+            byte[] theData = page.getBytes(StandardCharsets.ISO_8859_1);
+            sendHeader(status, "text/html", theData.length, null);
+            writeToNet.write(theData, 0, theData.length);
+        }
+
         /**
          * The method <code>guessContentTypeFromName()</code> returns the
          * MIME-type of a file, which is guessed from the file's extention.
@@ -184,6 +542,8 @@ public class SimpleWebServer extends GenericServer {
                 return "image/gif";
             } else if (name.endsWith(".class")) {
                 return "application/octet-stream";
+            } else if (name.endsWith(".jar")) {
+                return "application/java-archive";
             } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
                 return "image/jpeg";
             } else {
@@ -203,7 +563,11 @@ public class SimpleWebServer extends GenericServer {
         } else {
             webServer = new SimpleWebServer("../../config/WebServer.properties");
         }
-        
+
+        // let the requests being served finish on Ctrl-C
+        final SimpleWebServer server = webServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.shutdown(5000), "web-server-shutdown"));
+
         webServer.run();
     }
 }
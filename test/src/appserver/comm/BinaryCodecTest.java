@@ -0,0 +1,208 @@
+package appserver.comm;
+
+import appserver.job.Job;
+import appserver.job.JobBatch;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [BinaryCodecTest] Round trips through a pair of codecs, one for each end of a connection,
+ * and frames that must not decode.
+ */
+public class BinaryCodecTest {
+
+    private static final String TOOL = "appserver.job.impl.PlusOne";
+
+    private final BinaryCodec sender = new BinaryCodec();
+    private final BinaryCodec receiver = new BinaryCodec();
+
+    @Test
+    public void roundTripsPlainValues() throws IOException {
+        assertNull(roundTrip(null));
+        assertEquals(Boolean.TRUE, roundTrip(true));
+        assertEquals(Boolean.FALSE, roundTrip(false));
+        assertEquals(-42, roundTrip(-42));
+        assertEquals(Integer.MIN_VALUE, roundTrip(Integer.MIN_VALUE));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE));
+        assertEquals(0.1, (Double) roundTrip(0.1), 0.0);
+        assertEquals("Grüße", roundTrip("Grüße"));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) roundTrip(new byte[]{1, 2, 3}));
+        BigInteger large = BigInteger.ONE.shiftLeft(100000).subtract(BigInteger.TEN);
+        assertEquals(large, roundTrip(large));
+        // anything else is embedded in serialized form
+        assertEquals(Arrays.asList(1, "two"), roundTrip(Arrays.asList(1, "two")));
+    }
+
+    @Test
+    public void roundTripsMessageContents() throws IOException {
+        Job job = (Job) roundTrip(new Job(TOOL, 41));
+        assertEquals(TOOL, job.getToolName());
+        assertEquals(41, job.getParameters());
+
+        JobBatch batch = (JobBatch) roundTrip(new JobBatch(new Job[]{new Job(TOOL, 1), new Job("Other", null), new Job(TOOL, 3)}));
+        assertEquals(3, batch.size());
+        assertEquals(TOOL, batch.getJobs()[2].getToolName());
+        assertEquals("Other", batch.getJobs()[1].getToolName());
+        assertNull(batch.getJobs()[1].getParameters());
+
+        BatchResult result = (BatchResult) roundTrip(new BatchResult(7, true, "failed"));
+        assertEquals(7, result.getIndex());
+        assertTrue(result.isFailed());
+        assertEquals("failed", result.getContent());
+
+        ToolVersion toolVersion = (ToolVersion) roundTrip(new ToolVersion(TOOL, "v2", "tools/t.jar"));
+        assertEquals(TOOL, toolVersion.getToolName());
+        assertEquals("v2", toolVersion.getVersion());
+        assertEquals("tools/t.jar", toolVersion.getJarPath());
+
+        SatelliteLease lease = (SatelliteLease) roundTrip(new SatelliteLease(info("Earth", 25176), 5000));
+        assertEquals("Earth", lease.getSatelliteInfo().getName());
+        assertEquals(25176, lease.getSatelliteInfo().getPort());
+        assertEquals(5000, lease.getTtlMillis());
+
+        SatelliteStatus status = new SatelliteStatus();
+        status.setSatelliteInfo(info("Venus", 25177));
+        status.setPendingJobs(3);
+        status.setCapacity(68);
+        status.setWorkers(4);
+        status.setCompletedJobs(1L << 40);
+        SatelliteStatus decoded = (SatelliteStatus) roundTrip(status);
+        assertEquals("Venus", decoded.getSatelliteInfo().getName());
+        assertEquals("127.0.0.1", decoded.getSatelliteInfo().getHost());
+        assertEquals(3, decoded.getPendingJobs());
+        assertEquals(68, decoded.getCapacity());
+        assertEquals(4, decoded.getWorkers());
+        assertEquals(1L << 40, decoded.getCompletedJobs());
+    }
+
+    @Test
+    public void keepsTypeAndId() throws IOException {
+        Message message = new Message(MessageTypes.JOB_REQUEST, new Job(TOOL, 1), 1234567890123L);
+        Message decoded = decode(encode(message));
+        assertEquals(MessageTypes.JOB_REQUEST, decoded.getType());
+        assertEquals(1234567890123L, decoded.getId());
+    }
+
+    @Test
+    public void sendsToolNamesOnlyOnce() throws IOException {
+        byte[] first = encode(new Message(MessageTypes.JOB_REQUEST, new Job(TOOL, 1), 1));
+        byte[] second = encode(new Message(MessageTypes.JOB_REQUEST, new Job(TOOL, 1), 1));
+        assertTrue("second frame refers to the tool by number", second.length < first.length - TOOL.length());
+        assertEquals(TOOL, ((Job) decode(first).getContent()).getToolName());
+        assertEquals(TOOL, ((Job) decode(second).getContent()).getToolName());
+    }
+
+    @Test
+    public void failedFrameDoesNotDefineToolNames() throws IOException {
+        Message unencodable = new Message(MessageTypes.JOB_BATCH_REQUEST,
+                new JobBatch(new Job[]{new Job(TOOL, 1), new Job(TOOL, new Object())}), 1);
+        try {
+            encode(unencodable);
+            fail("parameter cannot be serialized");
+        } catch (NotSerializableException e) {
+            // the frame is dropped, the receiver never sees it
+        }
+
+        // the receiver has not learned the tool's name, the next frame has to define it again
+        Job job = (Job) decode(encode(new Message(MessageTypes.JOB_REQUEST, new Job(TOOL, 2), 2))).getContent();
+        assertEquals(TOOL, job.getToolName());
+        assertEquals(2, job.getParameters());
+        job = (Job) decode(encode(new Message(MessageTypes.JOB_REQUEST, new Job(TOOL, 3), 3))).getContent();
+        assertEquals(TOOL, job.getToolName());
+    }
+
+    @Test
+    public void refusesNestedValueOfWrongType() {
+        // CONNECTIVITY_INFO whose name is an integer
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_CONNECTIVITY_INFO, BinaryCodec.T_INTEGER, 2, BinaryCodec.T_NULL, 0});
+        // SATELLITE_LEASE of a string instead of connectivity information
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_SATELLITE_LEASE, BinaryCodec.T_STRING, 1, 'x', 0});
+        // JOB whose tool name is defined as a long
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_JOB, BinaryCodec.TOOL_DEFINE, BinaryCodec.T_LONG, 2, BinaryCodec.T_NULL});
+    }
+
+    @Test
+    public void refusesMalformedFrames() throws IOException {
+        byte[] frame = encode(new Message(MessageTypes.JOB_REQUEST, new Job(TOOL, "parameter"), 1));
+        assertUndecodable(Arrays.copyOf(frame, frame.length - 1));
+        // unknown type tag
+        assertUndecodable(new byte[]{1, 1, 99});
+        // trailing bytes
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_NULL, 0});
+        // tool number never defined
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_JOB, BinaryCodec.TOOL_DEFINED + 5, BinaryCodec.T_NULL});
+        // string longer than the frame
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_STRING, 100, 'x'});
+        // BigInteger without bytes
+        assertUndecodable(new byte[]{1, 1, BinaryCodec.T_BIG_INTEGER, 0});
+    }
+
+    @Test
+    public void refusesMoreToolNamesThanItWouldSend() throws IOException {
+        // a peer that keeps defining new names
+        for (int i = 0; i < BinaryCodec.MAX_TOOL_NAMES; i++) {
+            decode(encode(new Message(MessageTypes.JOB_REQUEST, new Job(TOOL + i, null), i)));
+        }
+        byte[] name = "Tool".getBytes("UTF-8");
+        byte[] frame = {1, 1, BinaryCodec.T_JOB, BinaryCodec.TOOL_DEFINE, BinaryCodec.T_STRING, (byte) name.length,
+            name[0], name[1], name[2], name[3], BinaryCodec.T_NULL};
+        try {
+            decode(frame);
+            fail("too many tool names");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("tool names"));
+        }
+    }
+
+    @Test
+    public void roundTripsOverSerializationCodecToo() throws IOException {
+        SerializationCodec codec = new SerializationCodec();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(new Message(MessageTypes.JOB_RESULT, Collections.singletonMap("k", 1), 9), out);
+        Message decoded = codec.decode(out.toByteArray(), 0, out.size());
+        assertEquals(9, decoded.getId());
+        assertEquals(Collections.singletonMap("k", 1), decoded.getContent());
+    }
+
+    private Object roundTrip(Object content) throws IOException {
+        return decode(encode(new Message(MessageTypes.JOB_RESULT, content, 1))).getContent();
+    }
+
+    private byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sender.encode(message, out);
+        return out.toByteArray();
+    }
+
+    private Message decode(byte[] frame) throws IOException {
+        return receiver.decode(frame, 0, frame.length);
+    }
+
+    private void assertUndecodable(byte[] frame) {
+        try {
+            new BinaryCodec().decode(frame, 0, frame.length);
+            fail("frame " + Arrays.toString(frame) + " decoded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Undecodable frame"));
+        }
+    }
+
+    private static ConnectivityInfo info(String name, int port) {
+        ConnectivityInfo info = new ConnectivityInfo();
+        info.setName(name);
+        info.setHost("127.0.0.1");
+        info.setPort(port);
+        return info;
+    }
+}
@@ -0,0 +1,80 @@
+package appserver.job.impl;
+
+import appserver.job.ResultSink;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Class [FibonacciHelperTest] Fast doubling and the table of small results against the sums of the
+ * sequence computed one by one, and the chunks of the streaming tool.
+ */
+public class FibonacciHelperTest {
+
+    @Test
+    public void matchesIterativeResults() {
+        List<BigInteger> expected = iterative(3000);
+        // in increasing order, and again in decreasing order, once the table of pairs is filled
+        for (int sequenceNumber = 0; sequenceNumber <= 3000; sequenceNumber++) {
+            assertEquals("sequence number " + sequenceNumber, expected.get(sequenceNumber),
+                    new FibonacciHelper(sequenceNumber).getResult());
+        }
+        for (int sequenceNumber = 3000; sequenceNumber >= 0; sequenceNumber -= 7) {
+            assertEquals("sequence number " + sequenceNumber, expected.get(sequenceNumber),
+                    new FibonacciHelper(sequenceNumber).getResult());
+        }
+    }
+
+    @Test
+    public void matchesIterativeResultAtLargeSequenceNumbers() {
+        List<BigInteger> expected = iterative(70000);
+        for (int sequenceNumber : new int[]{65535, 65536, 65537, 70000}) {
+            assertEquals("sequence number " + sequenceNumber, expected.get(sequenceNumber),
+                    new FibonacciHelper(sequenceNumber).getResult());
+        }
+    }
+
+    @Test
+    public void refusesSequenceNumbersOutOfRange() {
+        for (int sequenceNumber : new int[]{-1, FibonacciHelper.MAX_SEQUENCE_NUMBER + 1}) {
+            try {
+                new FibonacciHelper(sequenceNumber).getResult();
+                fail("sequence number " + sequenceNumber);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void sequenceEmitsResultsOfFibonacci() {
+        final List<Object> chunks = new ArrayList<>();
+        new FibonacciSequence().go(200, new ResultSink() {
+            @Override
+            public void emit(Object chunk) {
+                chunks.add(chunk);
+            }
+        });
+        assertEquals(201, chunks.size());
+        for (int sequenceNumber = 0; sequenceNumber <= 200; sequenceNumber++) {
+            // the same type on both sides of the range of long
+            assertEquals(new Fibonacci().go(sequenceNumber), chunks.get(sequenceNumber));
+        }
+    }
+
+    /**
+     * Results of the sequence numbers 0 .. last, each one the sum of the two before
+     */
+    private static List<BigInteger> iterative(int last) {
+        List<BigInteger> results = new ArrayList<>();
+        results.add(BigInteger.ONE);
+        results.add(BigInteger.ONE);
+        for (int sequenceNumber = 2; sequenceNumber <= last; sequenceNumber++) {
+            results.add(results.get(sequenceNumber - 1).add(results.get(sequenceNumber - 2)));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,85 @@
+package appserver.satellite;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import utils.VirtualThreads;
+
+/**
+ * Class [JobExecutorTest] Admission of jobs by the worker pool and by virtual threads,
+ * jobs beyond WORKERS + QUEUE_DEPTH are rejected in both modes.
+ */
+public class JobExecutorTest {
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_DEPTH = 3;
+
+    @Test
+    public void poolRejectsJobsBeyondQueueDepth() throws InterruptedException {
+        JobExecutor executor = new JobExecutor(JobExecutor.POOL, WORKERS, QUEUE_DEPTH);
+        assertTrue(executor.toString(), executor.toString().startsWith(JobExecutor.POOL));
+        assertEquals(WORKERS, executor.getWorkers());
+        assertSaturates(executor);
+    }
+
+    @Test
+    public void virtualThreadsRejectJobsBeyondQueueDepth() throws InterruptedException {
+        JobExecutor executor = new JobExecutor(JobExecutor.VIRTUAL, WORKERS, QUEUE_DEPTH);
+        if (VirtualThreads.isSupported()) {
+            assertTrue(executor.toString(), executor.toString().startsWith(JobExecutor.VIRTUAL));
+            // every job admitted runs right away
+            assertEquals(WORKERS + QUEUE_DEPTH, executor.getWorkers());
+        } else {
+            // falls back to the worker pool
+            assertTrue(executor.toString(), executor.toString().startsWith(JobExecutor.POOL));
+        }
+        assertSaturates(executor);
+    }
+
+    /**
+     * Fills the executor with jobs that wait to be released, the next job is rejected,
+     * once the jobs are done there is room again
+     */
+    private static void assertSaturates(JobExecutor executor) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(WORKERS + QUEUE_DEPTH);
+        for (int i = 0; i < WORKERS + QUEUE_DEPTH; i++) {
+            executor.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        assertEquals(WORKERS + QUEUE_DEPTH, executor.getCapacity());
+        assertEquals(WORKERS + QUEUE_DEPTH, executor.getPendingJobs());
+        try {
+            executor.execute(() -> { });
+            fail("executor is saturated");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals("rejected job is not pending", WORKERS + QUEUE_DEPTH, executor.getPendingJobs());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // counters are updated right after a job returns
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getPendingJobs() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getPendingJobs());
+        assertEquals(WORKERS + QUEUE_DEPTH, executor.getCompletedJobs());
+
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(ran::countDown);
+        assertTrue("admitted again", ran.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
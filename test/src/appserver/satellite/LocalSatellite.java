@@ -0,0 +1,103 @@
+package appserver.satellite;
+
+import appserver.comm.MessageChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import web.SimpleWebServer;
+import utils.Log;
+
+/**
+ * Class [LocalSatellite] A satellite and the web server it loads its tools from, both running in the test's JVM
+ * on free ports. The web server serves the document root "docRoot" in the working directory, or the one given
+ * with the system property "test.docRoot". No application server is running, the satellite's heartbeats go nowhere.
+ * The server's host is configured as 127.0.0.2, so connections of the test are taken for client connections.
+ */
+class LocalSatellite {
+
+    private final File configDirectory;
+    private final int port;
+
+    /**
+     * Starts the web server and the satellite
+     * @param satelliteProperties - properties of the satellite besides NAME and PORT, as keys and values
+     */
+    LocalSatellite(String... satelliteProperties) throws IOException {
+        configDirectory = File.createTempFile("test-config-", "");
+        configDirectory.delete();
+        configDirectory.mkdirs();
+
+        String webServerProperties = writeProperties("WebServer.properties",
+                "HOST", "127.0.0.1",
+                "PORT", Integer.toString(freePort()),
+                "DOC_ROOT", new File(System.getProperty("test.docRoot", "docRoot")).getAbsolutePath(),
+                "TOOL_JAR", "tools/appserver-tools-1.0.jar");
+        String serverProperties = writeProperties("Server.properties",
+                "HOST", "127.0.0.2",
+                "PORT", Integer.toString(freePort()),
+                "CODEC", "binary");
+        port = freePort();
+        String[] properties = new String[satelliteProperties.length + 4];
+        properties[0] = "NAME";
+        properties[1] = "Test";
+        properties[2] = "PORT";
+        properties[3] = Integer.toString(port);
+        System.arraycopy(satelliteProperties, 0, properties, 4, satelliteProperties.length);
+        String satelliteConfig = writeProperties("Satellite.Test.properties", properties);
+
+        Thread webServer = new Thread(new SimpleWebServer(webServerProperties), "test-web-server");
+        webServer.setDaemon(true);
+        webServer.start();
+        Satellite satellite = new Satellite(satelliteConfig, webServerProperties, serverProperties);
+        satellite.setDaemon(true);
+        satellite.start();
+    }
+
+    /**
+     * Opens a connection to the satellite, waiting for it to accept connections.
+     * Replies are waited for 10 seconds at most, a test missing a reply fails instead of hanging.
+     */
+    MessageChannel connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                MessageChannel channel = new MessageChannel("127.0.0.1", port);
+                channel.getSocket().setSoTimeout(10000);
+                return channel;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                // satellite not accepting yet
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * Deletes the properties files, the satellite and the web server end with the JVM
+     */
+    void deleteConfig() {
+        for (File file : configDirectory.listFiles()) {
+            file.delete();
+        }
+        configDirectory.delete();
+    }
+
+    private String writeProperties(String fileName, String... keysAndValues) throws IOException {
+        File file = new File(configDirectory, fileName);
+        try (PrintWriter writer = new PrintWriter(file, "ISO-8859-1")) {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                writer.println(keysAndValues[i] + "\t" + keysAndValues[i + 1]);
+            }
+        }
+        return file.getAbsolutePath();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
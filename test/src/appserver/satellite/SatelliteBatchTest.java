@@ -0,0 +1,70 @@
+package appserver.satellite;
+
+import appserver.comm.BatchResult;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.JOB_BATCH_REQUEST;
+import static appserver.comm.MessageTypes.JOB_BATCH_RESULT;
+import appserver.job.Job;
+import appserver.job.JobBatch;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Class [SatelliteBatchTest] Batches of a satellite running in the test's JVM, see <code>LocalSatellite</code>.
+ */
+public class SatelliteBatchTest {
+
+    private static final String TOOL = "appserver.job.impl.PlusOne";
+
+    private static LocalSatellite satellite;
+
+    private MessageChannel channel;
+
+    @BeforeClass
+    public static void startSatellite() throws Exception {
+        satellite = new LocalSatellite("WORKERS", "2", "QUEUE_DEPTH", "4");
+    }
+
+    @AfterClass
+    public static void deleteConfig() {
+        satellite.deleteConfig();
+    }
+
+    @Before
+    public void connect() throws Exception {
+        channel = satellite.connect();
+    }
+
+    @After
+    public void disconnect() throws IOException {
+        channel.close();
+    }
+
+    @Test
+    public void runsBatchLargerThanExecutor() throws IOException {
+        Job[] jobs = new Job[500];
+        for (int i = 0; i < jobs.length; i++) {
+            jobs[i] = new Job(TOOL, i);
+        }
+        channel.send(new Message(JOB_BATCH_REQUEST, new JobBatch(jobs), 1));
+
+        boolean[] answered = new boolean[jobs.length];
+        for (int i = 0; i < jobs.length; i++) {
+            Message reply = channel.receive();
+            assertEquals(JOB_BATCH_RESULT, reply.getType());
+            assertEquals(1, reply.getId());
+            BatchResult result = (BatchResult) reply.getContent();
+            assertFalse(String.valueOf(result.getContent()), result.isFailed());
+            assertFalse("answered once", answered[result.getIndex()]);
+            answered[result.getIndex()] = true;
+            assertEquals(result.getIndex() + 1, result.getContent());
+        }
+    }
+}
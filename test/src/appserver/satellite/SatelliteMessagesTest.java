@@ -0,0 +1,84 @@
+package appserver.satellite;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.ToolVersion;
+import static appserver.comm.MessageTypes.JOB_BATCH_REQUEST;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.REGISTER_TOOL;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import appserver.job.Job;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Class [SatelliteMessagesTest] Messages a satellite does not take from a client: control messages and messages
+ * whose content does not fit their type. They are answered with JOB_FAILED, the connection carries on.
+ */
+public class SatelliteMessagesTest {
+
+    private static final String TOOL = "appserver.job.impl.PlusOne";
+
+    private static LocalSatellite satellite;
+
+    private MessageChannel channel;
+
+    @BeforeClass
+    public static void startSatellite() throws Exception {
+        satellite = new LocalSatellite("WORKERS", "2");
+    }
+
+    @AfterClass
+    public static void deleteConfig() {
+        satellite.deleteConfig();
+    }
+
+    @Before
+    public void connect() throws Exception {
+        channel = satellite.connect();
+    }
+
+    @After
+    public void disconnect() throws IOException {
+        channel.close();
+    }
+
+    @Test
+    public void refusesToolRegistrationFromClient() throws IOException {
+        channel.send(new Message(REGISTER_TOOL, new ToolVersion(TOOL, "2", "tools/appserver-tools-1.0.jar"), 1));
+        assertReply(JOB_FAILED, 1);
+        assertStillServing();
+    }
+
+    @Test
+    public void refusesMalformedContent() throws IOException {
+        channel.send(new Message(STREAM_REQUEST, new Job("appserver.job.impl.FibonacciSequence", 10), 2));
+        channel.send(new Message(STREAM_CREDIT, null, 2));
+        assertReply(JOB_FAILED, 2);
+        channel.send(new Message(STREAM_CREDIT, "ten", 2));
+        assertReply(JOB_FAILED, 2);
+        channel.send(new Message(JOB_BATCH_REQUEST, new Job(TOOL, 1), 3));
+        assertReply(JOB_FAILED, 3);
+        assertStillServing();
+    }
+
+    private void assertReply(int type, long id) throws IOException {
+        Message reply = channel.receive();
+        assertEquals(String.valueOf(reply.getContent()), type, reply.getType());
+        assertEquals(id, reply.getId());
+    }
+
+    private void assertStillServing() throws IOException {
+        channel.send(new Message(JOB_REQUEST, new Job(TOOL, 41), 99));
+        Message reply = channel.receive();
+        assertEquals(99, reply.getId());
+        assertEquals(42, reply.getContent());
+    }
+}
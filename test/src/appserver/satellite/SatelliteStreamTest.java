@@ -0,0 +1,100 @@
+package appserver.satellite;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.STREAM_CANCEL;
+import static appserver.comm.MessageTypes.STREAM_CHUNK;
+import static appserver.comm.MessageTypes.STREAM_CREDIT;
+import static appserver.comm.MessageTypes.STREAM_END;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import appserver.job.Job;
+import java.io.IOException;
+import java.math.BigInteger;
+import org.junit.After;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [SatelliteStreamTest] Streams of a satellite running in the test's JVM, see <code>LocalSatellite</code>.
+ */
+public class SatelliteStreamTest {
+
+    private static final String TOOL = "appserver.job.impl.FibonacciSequence";
+    private static final long CREDIT_TIMEOUT = 500;
+
+    private static LocalSatellite satellite;
+
+    private MessageChannel channel;
+
+    @BeforeClass
+    public static void startSatellite() throws Exception {
+        satellite = new LocalSatellite("WORKERS", "2", "STREAM_CREDIT_TIMEOUT", Long.toString(CREDIT_TIMEOUT));
+    }
+
+    @AfterClass
+    public static void deleteConfig() {
+        satellite.deleteConfig();
+    }
+
+    @Before
+    public void connect() throws Exception {
+        channel = satellite.connect();
+    }
+
+    @After
+    public void disconnect() throws IOException {
+        channel.close();
+    }
+
+    @Test
+    public void streamEndsWithCredit() throws IOException {
+        channel.send(new Message(STREAM_REQUEST, new Job(TOOL, 4), 1));
+        channel.send(new Message(STREAM_CREDIT, 10, 1));
+        long[] expected = {1, 1, 2, 3, 5};
+        for (long chunk : expected) {
+            Message message = channel.receive();
+            assertEquals(STREAM_CHUNK, message.getType());
+            assertEquals(BigInteger.valueOf(chunk), message.getContent());
+        }
+        Message end = channel.receive();
+        assertEquals(STREAM_END, end.getType());
+        assertEquals(1, end.getId());
+    }
+
+    @Test
+    public void cancelledStreamGetsTerminalReply() throws IOException {
+        channel.send(new Message(STREAM_REQUEST, new Job(TOOL, 1000), 2));
+        channel.send(new Message(STREAM_CREDIT, 2, 2));
+        assertEquals(STREAM_CHUNK, channel.receive().getType());
+        assertEquals(STREAM_CHUNK, channel.receive().getType());
+
+        // the tool waits for credit now, the cancellation wakes it up
+        channel.send(new Message(STREAM_CANCEL, null, 2));
+        Message reply = channel.receive();
+        assertEquals(JOB_FAILED, reply.getType());
+        assertEquals(2, reply.getId());
+
+        // the connection carries on
+        channel.send(new Message(STREAM_REQUEST, new Job(TOOL, 0), 3));
+        channel.send(new Message(STREAM_CREDIT, 1, 3));
+        assertEquals(STREAM_CHUNK, channel.receive().getType());
+        assertEquals(STREAM_END, channel.receive().getType());
+    }
+
+    @Test
+    public void streamWithoutCreditIsCancelled() throws IOException {
+        long start = System.nanoTime();
+        channel.send(new Message(STREAM_REQUEST, new Job(TOOL, 1000), 4));
+        Message reply = channel.receive();
+        assertEquals(JOB_FAILED, reply.getType());
+        assertEquals(4, reply.getId());
+        assertTrue(String.valueOf(reply.getContent()), String.valueOf(reply.getContent()).contains("no credit"));
+        assertTrue("waited for the credit timeout", System.nanoTime() - start >= CREDIT_TIMEOUT * 1_000_000L);
+    }
+}
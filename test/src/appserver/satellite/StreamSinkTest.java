@@ -0,0 +1,128 @@
+package appserver.satellite;
+
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import static appserver.comm.MessageTypes.STREAM_CHUNK;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class [StreamSinkTest] Credit and cancellation of the sink a streaming tool emits its chunks to,
+ * the chunks go over a loopback connection.
+ */
+public class StreamSinkTest {
+
+    private MessageChannel satellite;
+    private MessageChannel receiver;
+
+    @Before
+    public void connect() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            CompletableFuture<MessageChannel> connecting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new MessageChannel("127.0.0.1", socket.getLocalPort());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            satellite = MessageChannel.accept(socket.accept());
+            receiver = connecting.get();
+        }
+    }
+
+    @After
+    public void disconnect() throws IOException {
+        satellite.close();
+        receiver.close();
+    }
+
+    @Test
+    public void sendsChunksAsCreditAllows() throws IOException {
+        StreamSink sink = new StreamSink(satellite, 5, 1000, 16);
+        sink.grant(2);
+        sink.emit(1L);
+        sink.emit(2L);
+
+        for (long chunk = 1; chunk <= 2; chunk++) {
+            Message message = receiver.receive();
+            assertEquals(STREAM_CHUNK, message.getType());
+            assertEquals(5, message.getId());
+            assertEquals(chunk, message.getContent());
+        }
+    }
+
+    @Test
+    public void capsCreditNotUsedYet() throws IOException {
+        StreamSink sink = new StreamSink(satellite, 9, 200, 4);
+        sink.grant(Integer.MAX_VALUE);
+        sink.grant(Integer.MAX_VALUE);
+        for (long chunk = 0; chunk < 4; chunk++) {
+            sink.emit(chunk);
+        }
+        try {
+            sink.emit(4L);
+            fail("credit was capped at 4 chunks");
+        } catch (CancellationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no credit"));
+        }
+        for (long chunk = 0; chunk < 4; chunk++) {
+            assertEquals(chunk, receiver.receive().getContent());
+        }
+    }
+
+    @Test
+    public void failsOnNextChunkOnceCancelled() {
+        StreamSink sink = new StreamSink(satellite, 6, 1000, 16);
+        sink.grant(10);
+        sink.cancel();
+        try {
+            sink.emit(1L);
+            fail("stream was cancelled");
+        } catch (CancellationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("cancelled"));
+        }
+    }
+
+    @Test
+    public void cancelWakesUpToolWaitingForCredit() throws Exception {
+        StreamSink sink = new StreamSink(satellite, 7, 60000, 16);
+        CompletableFuture<Void> tool = CompletableFuture.runAsync(() -> sink.emit(1L));
+        Thread.sleep(100);
+        sink.cancel();
+        try {
+            tool.join();
+            fail("stream was cancelled");
+        } catch (Exception e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof CancellationException);
+        }
+    }
+
+    @Test
+    public void cancelsStreamWithoutCredit() {
+        StreamSink sink = new StreamSink(satellite, 8, 200, 16);
+        long start = System.nanoTime();
+        try {
+            sink.emit(1L);
+            fail("no credit was granted");
+        } catch (CancellationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no credit"));
+        }
+        assertTrue("waited for the timeout", System.nanoTime() - start >= 200_000_000L);
+
+        // the stream stays cancelled, even if credit comes in late
+        sink.grant(1);
+        try {
+            sink.emit(2L);
+            fail("stream was cancelled");
+        } catch (CancellationException e) {
+        }
+    }
+}
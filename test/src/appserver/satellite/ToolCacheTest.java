@@ -0,0 +1,193 @@
+package appserver.satellite;
+
+import appserver.job.Tool;
+import appserver.job.ToolLifecycle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [ToolCacheTest] Leases on the instances of a tool, and versions of a tool taking over from each other.
+ * Every version is loaded by a class loader of its own, which records when the cache closes it.
+ */
+public class ToolCacheTest {
+
+    private static final String SHARED = SharedTool.class.getName();
+    private static final String POOLED = PooledTool.class.getName();
+    private static final String PER_INVOCATION = PerInvocationTool.class.getName();
+
+    private final ToolCache toolCache = new ToolCache(getClass().getClassLoader());
+
+    @Test
+    public void handsOutInstancesAccordingToLifecycle() throws Exception {
+        ToolCache.Lease first = toolCache.acquire(SHARED);
+        ToolCache.Lease second = toolCache.acquire(SHARED);
+        assertSame(first.getTool(), second.getTool());
+        first.release();
+        second.release();
+
+        first = toolCache.acquire(POOLED);
+        second = toolCache.acquire(POOLED);
+        assertNotSame("both in use", first.getTool(), second.getTool());
+        Tool released = first.getTool();
+        first.release();
+        assertSame("taken from the pool", released, toolCache.acquire(POOLED).getTool());
+
+        first = toolCache.acquire(PER_INVOCATION);
+        second = toolCache.acquire(PER_INVOCATION);
+        first.release();
+        assertNotSame(first.getTool(), toolCache.acquire(PER_INVOCATION).getTool());
+    }
+
+    @Test
+    public void closesRetiredVersionOnceLastLeaseIsReleased() throws Exception {
+        VersionLoader two = new VersionLoader();
+        assertTrue(toolCache.register(POOLED, "2", two));
+        ToolCache.Lease lease = toolCache.acquire(POOLED);
+        assertSame(two, lease.getTool().getClass().getClassLoader());
+
+        VersionLoader three = new VersionLoader();
+        assertTrue(toolCache.register(POOLED, "3", three));
+        assertSame("new jobs get the new version", three, loaderOf(toolCache.acquire(POOLED)));
+        assertFalse("a job is still running on version 2", two.closed.get());
+        lease.release();
+        assertTrue(two.closed.get());
+
+        // registering the version in use again closes the loader that came with it right away
+        VersionLoader again = new VersionLoader();
+        assertFalse(toolCache.register(POOLED, "3", again));
+        assertTrue(again.closed.get());
+        assertFalse(three.closed.get());
+    }
+
+    @Test
+    public void closesRetiredVersionWithoutLeasesRightAway() throws Exception {
+        VersionLoader two = new VersionLoader();
+        toolCache.register(SHARED, "2", two);
+        toolCache.acquire(SHARED).release();
+        toolCache.register(SHARED, "3", new VersionLoader());
+        assertTrue(two.closed.get());
+    }
+
+    @Test
+    public void noLeaseOnClosedVersion() throws Exception {
+        toolCache.register(POOLED, "0", new VersionLoader());
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService jobs = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(jobs.submit(() -> {
+                int leases = 0;
+                while (!stop.get()) {
+                    ToolCache.Lease lease = toolCache.acquire(POOLED);
+                    VersionLoader loader = (VersionLoader) loaderOf(lease);
+                    // the version may be retired while the job runs, but not closed
+                    assertFalse("lease on a closed version", loader.closed.get());
+                    lease.release();
+                    leases++;
+                }
+                return leases;
+            }));
+        }
+
+        List<VersionLoader> versions = new ArrayList<>();
+        for (int version = 1; version <= 200; version++) {
+            VersionLoader loader = new VersionLoader();
+            versions.add(loader);
+            toolCache.register(POOLED, Integer.toString(version), loader);
+        }
+        stop.set(true);
+        for (Future<Integer> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS) > 0);
+        }
+        jobs.shutdown();
+
+        // every version but the last one is closed, closing one twice fails the job or the registration
+        for (int i = 0; i < versions.size() - 1; i++) {
+            assertTrue("version " + (i + 1), versions.get(i).closed.get());
+        }
+        assertFalse(versions.get(versions.size() - 1).closed.get());
+    }
+
+    private static ClassLoader loaderOf(ToolCache.Lease lease) {
+        return lease.getTool().getClass().getClassLoader();
+    }
+
+    /**
+     * Class [VersionLoader] Loads the test tools itself, from the class files on the class path,
+     * everything else is left to the parent
+     */
+    private static class VersionLoader extends ClassLoader implements Closeable {
+
+        final AtomicBoolean closed = new AtomicBoolean();
+
+        VersionLoader() {
+            super(ToolCacheTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(ToolCacheTest.class.getName() + "$") || name.endsWith("$VersionLoader")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        byte[] bytes = in.readAllBytes();
+                        loaded = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return loaded;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                throw new IllegalStateException("closed twice");
+            }
+        }
+    }
+
+    @ToolLifecycle(ToolLifecycle.Scope.SHARED)
+    public static class SharedTool implements Tool {
+
+        @Override
+        public Object go(Object parameters) {
+            return parameters;
+        }
+    }
+
+    @ToolLifecycle(ToolLifecycle.Scope.POOLED)
+    public static class PooledTool implements Tool {
+
+        @Override
+        public Object go(Object parameters) {
+            return parameters;
+        }
+    }
+
+    public static class PerInvocationTool implements Tool {
+
+        @Override
+        public Object go(Object parameters) {
+            return parameters;
+        }
+    }
+}
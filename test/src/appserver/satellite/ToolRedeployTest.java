@@ -0,0 +1,156 @@
+package appserver.satellite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import web.SimpleWebServer;
+import utils.Log;
+
+/**
+ * Class [ToolRedeployTest] A new version of a tool registered with the tool cache replaces the one in use,
+ * even though the tool's classes are on the class path of the test as well.
+ * <p>
+ * The web server serves a copy of the document root, with a JAR added in which PlusOne adds two instead of one.
+ */
+public class ToolRedeployTest {
+
+    private static final String TOOL = "appserver.job.impl.PlusOne";
+
+    private static File directory;
+    private static int webServerPort;
+
+    @BeforeClass
+    public static void startWebServer() throws Exception {
+        directory = Files.createTempDirectory("test-redeploy-").toFile();
+        Path docRoot = directory.toPath().resolve("docRoot");
+        Path published = new File(System.getProperty("test.docRoot", "docRoot"), "appserver/job/impl").toPath();
+        Path impl = Files.createDirectories(docRoot.resolve("appserver/job/impl"));
+        for (String name : new String[]{"PlusOne.class", "PlusOneAux.class"}) {
+            Files.copy(published.resolve(name), impl.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.createDirectories(docRoot.resolve("tools"));
+        writeJar(docRoot.resolve("tools/plus-two.jar").toFile(), published.resolve("PlusOne.class"),
+                compile("PlusOneAux", "package appserver.job.impl;\n"
+                        + "public class PlusOneAux {\n"
+                        + "    Integer number;\n"
+                        + "    public PlusOneAux(Integer number) { this.number = number; }\n"
+                        + "    public Integer getResult() { return number + 2; }\n"
+                        + "}\n"));
+
+        webServerPort = freePort();
+        File properties = new File(directory, "WebServer.properties");
+        try (PrintWriter writer = new PrintWriter(properties, "ISO-8859-1")) {
+            writer.println("HOST\t127.0.0.1");
+            writer.println("PORT\t" + webServerPort);
+            writer.println("DOC_ROOT\t" + docRoot.toAbsolutePath());
+        }
+        Thread webServer = new Thread(new SimpleWebServer(properties.getAbsolutePath()), "test-web-server");
+        webServer.setDaemon(true);
+        webServer.start();
+        awaitListening(webServerPort);
+    }
+
+    @AfterClass
+    public static void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void loadsToolsFromWebServerRatherThanClassPath() throws Exception {
+        HTTPClassLoader loader = new HTTPClassLoader("127.0.0.1", webServerPort);
+        Class<?> toolClass = loader.loadClass(TOOL);
+        assertTrue("tool loaded by the satellite's loader", toolClass.getClassLoader() == loader);
+        assertNotSame(Class.forName(TOOL), toolClass);
+        // the contract is shared, the tool can be used as a Tool
+        assertEquals(appserver.job.Tool.class, loader.loadClass("appserver.job.Tool"));
+        loader.close();
+    }
+
+    @Test
+    public void registeredVersionTakesOver() throws Exception {
+        ToolCache toolCache = new ToolCache(new HTTPClassLoader("127.0.0.1", webServerPort));
+        assertEquals(2, run(toolCache, 1));
+
+        assertTrue(toolCache.register(TOOL, "2", new JarClassLoader("127.0.0.1", webServerPort, "tools/plus-two.jar", null)));
+        assertEquals(3, run(toolCache, 1));
+
+        // registering the version in use again changes nothing
+        assertFalse(toolCache.register(TOOL, "2", new JarClassLoader("127.0.0.1", webServerPort, "tools/plus-two.jar", null)));
+        assertEquals(3, run(toolCache, 1));
+    }
+
+    private static Object run(ToolCache toolCache, int parameter) throws Exception {
+        ToolCache.Lease lease = toolCache.acquire(TOOL);
+        try {
+            return lease.getTool().go(parameter);
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * Compiles one class of the package appserver.job.impl
+     * @return the class file
+     */
+    private static Path compile(String className, String source) throws IOException {
+        Path sources = Files.createDirectories(directory.toPath().resolve("src"));
+        Path classes = Files.createDirectories(directory.toPath().resolve("classes"));
+        Path sourceFile = sources.resolve(className + ".java");
+        Files.write(sourceFile, source.getBytes("UTF-8"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int status = compiler.run(null, null, null, "--release", "15", "-d", classes.toString(), sourceFile.toString());
+        assertEquals("compiled " + className, 0, status);
+        return classes.resolve("appserver/job/impl/" + className + ".class");
+    }
+
+    private static void writeJar(File jar, Path... classFiles) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (Path classFile : classFiles) {
+                out.putNextEntry(new JarEntry("appserver/job/impl/" + classFile.getFileName()));
+                out.write(Files.readAllBytes(classFile));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void awaitListening(int port) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import appserver.comm.SatelliteStatus;
+import appserver.job.Job;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [JobQueueTest] Jobs pulled from the central queue by satellites played by the test
+ * on the other end of loopback connections. Jobs are only answered when the test says so.
+ */
+public class JobQueueTest {
+
+    private static final int WINDOW = 3;
+    private static final int MAX_QUEUED = 4;
+
+    private final List<FakeSatellite> satellites = new ArrayList<>();
+    private JobQueue jobQueue;
+
+    @Before
+    public void setUp() {
+        Server.satelliteManager = new SatelliteManager();
+        Server.loadManager = new LoadManager(Server.satelliteManager);
+        Server.satelliteConnections = new SatelliteConnectionPool(1, new int[]{MessageCodecs.BINARY});
+        jobQueue = new JobQueue(WINDOW, MAX_QUEUED);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (FakeSatellite satellite : satellites) {
+            satellite.close();
+        }
+    }
+
+    @Test
+    public void satellitesTakeWindowAndNoMoreThanWorkers() throws Exception {
+        FakeSatellite venus = satellite("Venus", 0);
+        FakeSatellite mars = satellite("Mars", 2);
+
+        List<CompletableFuture<Message>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(jobQueue.submit(new Job("PlusOne", i)));
+        }
+        // Venus did not send a heartbeat yet and takes a full window, Mars has two workers
+        List<Request> venusJobs = venus.receive(WINDOW);
+        List<Request> marsJobs = mars.receive(2);
+        assertEquals(WINDOW, Server.satelliteManager.getSatellites()[0].getLoad().getOutstanding());
+        assertEquals(2, Server.satelliteManager.getSatellites()[1].getLoad().getOutstanding());
+
+        // a job waits until a satellite answers one, that satellite pulls it
+        CompletableFuture<Message> waiting = jobQueue.submit(new Job("PlusOne", 5));
+        assertNull(venus.requests.poll(200, TimeUnit.MILLISECONDS));
+        marsJobs.get(0).reply("done");
+        Request pulled = mars.receive(1).get(0);
+        assertEquals(5, ((Job) pulled.message.getContent()).getParameters());
+        assertFalse(waiting.isDone());
+
+        pulled.reply("six");
+        assertEquals("six", waiting.get(10, TimeUnit.SECONDS).getContent());
+        int answered = 0;
+        for (CompletableFuture<Message> result : results) {
+            answered += result.isDone() ? 1 : 0;
+        }
+        assertEquals(1, answered);
+        assertEquals(WINDOW, venusJobs.size());
+    }
+
+    @Test
+    public void failsJobsBeyondMaxQueued() throws Exception {
+        FakeSatellite mars = satellite("Mars", 1);
+        CompletableFuture<Message> running = jobQueue.submit(new Job("PlusOne", 0));
+        Request request = mars.receive(1).get(0);
+
+        List<CompletableFuture<Message>> waiting = new ArrayList<>();
+        for (int i = 1; i <= MAX_QUEUED; i++) {
+            waiting.add(jobQueue.submit(new Job("PlusOne", i)));
+        }
+        CompletableFuture<Message> rejected = jobQueue.submit(new Job("PlusOne", MAX_QUEUED + 1));
+        try {
+            rejected.get(0, TimeUnit.SECONDS);
+            fail("queue is full");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RejectedExecutionException);
+        }
+
+        // a job pulled makes room for the next one
+        request.reply(1);
+        assertEquals(1, running.get(10, TimeUnit.SECONDS).getContent());
+        mars.receive(1);
+        CompletableFuture<Message> admitted = jobQueue.submit(new Job("PlusOne", MAX_QUEUED + 2));
+        assertFalse(admitted.isDone());
+        for (CompletableFuture<Message> job : waiting) {
+            assertFalse(job.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void failsJobsWithoutSatellites() {
+        CompletableFuture<Message> job = jobQueue.submit(new Job("PlusOne", 1));
+        assertTrue(job.isCompletedExceptionally());
+    }
+
+    /**
+     * Registers a satellite listening on a port of the test
+     * @param workers - workers reported in a heartbeat, 0 for a satellite that did not send one yet
+     */
+    private FakeSatellite satellite(String name, int workers) throws IOException {
+        FakeSatellite satellite = new FakeSatellite();
+        satellites.add(satellite);
+        ConnectivityInfo info = new ConnectivityInfo();
+        info.setName(name);
+        info.setHost("127.0.0.1");
+        info.setPort(satellite.socket.getLocalPort());
+        Server.satelliteManager.registerSatellite(info);
+        if (workers > 0) {
+            SatelliteStatus status = new SatelliteStatus();
+            status.setSatelliteInfo(info);
+            status.setWorkers(workers);
+            status.setCapacity(workers);
+            Server.satelliteManager.heartbeat(status);
+        }
+        return satellite;
+    }
+
+    /**
+     * Class [FakeSatellite] Accepts the connections of the pool, which may open more than one
+     * when jobs go out at the same time, and collects the requests of all of them
+     */
+    private static class FakeSatellite {
+
+        final ServerSocket socket = new ServerSocket(0);
+        final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+        final List<MessageChannel> channels = new CopyOnWriteArrayList<>();
+
+        FakeSatellite() throws IOException {
+            start(() -> {
+                while (!socket.isClosed()) {
+                    MessageChannel channel = MessageChannel.accept(socket.accept());
+                    channels.add(channel);
+                    start(() -> {
+                        while (true) {
+                            requests.add(new Request(channel, channel.receive()));
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Takes the next job requests, waiting 10 seconds at most for each
+         */
+        List<Request> receive(int count) throws InterruptedException {
+            List<Request> received = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Request request = requests.poll(10, TimeUnit.SECONDS);
+                assertNotNull("job request " + (i + 1) + " of " + count, request);
+                assertEquals(JOB_REQUEST, request.message.getType());
+                received.add(request);
+            }
+            return received;
+        }
+
+        void close() throws IOException {
+            socket.close();
+            for (MessageChannel channel : channels) {
+                channel.close();
+            }
+        }
+
+        /**
+         * Runs a loop on a thread of its own, until its connection is closed
+         */
+        private static void start(Loop loop) {
+            Thread thread = new Thread(() -> {
+                try {
+                    loop.run();
+                } catch (IOException e) {
+                    // closed at the end of the test
+                }
+            }, "fake-satellite");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private interface Loop {
+
+            void run() throws IOException;
+        }
+    }
+
+    /**
+     * Class [Request] A job request, and the connection to answer it on
+     */
+    private static class Request {
+
+        final MessageChannel channel;
+        final Message message;
+
+        Request(MessageChannel channel, Message message) {
+            this.channel = channel;
+            this.message = message;
+        }
+
+        void reply(Object result) throws IOException {
+            channel.send(new Message(JOB_RESULT, result, message.getId()));
+        }
+    }
+}
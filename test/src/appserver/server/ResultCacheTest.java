@@ -0,0 +1,147 @@
+package appserver.server;
+
+import appserver.comm.Message;
+import static appserver.comm.MessageTypes.CACHEABLE_JOB_RESULT;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import appserver.job.Job;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Class [ResultCacheTest] Caching and coalescing of jobs, the satellites are played by a dispatcher
+ * that records the jobs it is handed and completes them when the test says so.
+ */
+public class ResultCacheTest {
+
+    private static final String TOOL = "appserver.job.impl.Fibonacci";
+
+    private final ResultCache cache = new ResultCache(100, 60000);
+    private final Dispatcher dispatcher = new Dispatcher();
+
+    @Test
+    public void cachesResultsOfDeterministicTools() {
+        CompletableFuture<Message> first = cache.get(new Job(TOOL, 10), dispatcher);
+        dispatcher.reply(0, CACHEABLE_JOB_RESULT, 55);
+        assertEquals(55, first.join().getContent());
+
+        // arrays are compared element by element
+        cache.get(new Job(TOOL, new int[]{1, 2}), dispatcher);
+        dispatcher.reply(1, CACHEABLE_JOB_RESULT, 3);
+        assertEquals(3, cache.get(new Job(TOOL, new int[]{1, 2}), dispatcher).join().getContent());
+
+        assertEquals(55, cache.get(new Job(TOOL, 10), dispatcher).join().getContent());
+        assertEquals("answered out of the cache", 2, dispatcher.jobs.size());
+    }
+
+    @Test
+    public void dispatchesJobsOfOtherToolsEveryTime() {
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<Message> reply = cache.get(new Job(TOOL, 10), dispatcher);
+            dispatcher.reply(i, JOB_RESULT, 55);
+            assertEquals(55, reply.join().getContent());
+        }
+        assertEquals(3, dispatcher.jobs.size());
+    }
+
+    @Test
+    public void coalescesIdenticalJobsInFlight() {
+        learnDeterministic();
+        CompletableFuture<Message> first = cache.get(new Job(TOOL, 20), dispatcher);
+        CompletableFuture<Message> second = cache.get(new Job(TOOL, 20), dispatcher);
+        CompletableFuture<Message> other = cache.get(new Job(TOOL, 21), dispatcher);
+        assertEquals("identical job not dispatched again", 3, dispatcher.jobs.size());
+        assertFalse(second.isDone());
+
+        dispatcher.reply(1, CACHEABLE_JOB_RESULT, 6765);
+        assertSame(first.join(), second.join());
+        assertEquals(6765, second.join().getContent());
+        assertFalse(other.isDone());
+    }
+
+    @Test
+    public void coalescedJobsShareFailure() {
+        learnDeterministic();
+        CompletableFuture<Message> first = cache.get(new Job(TOOL, 20), dispatcher);
+        CompletableFuture<Message> second = cache.get(new Job(TOOL, 20), dispatcher);
+        dispatcher.futures.get(1).completeExceptionally(new IllegalStateException("satellite gone"));
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+
+        // a failure is not cached, the next job is dispatched
+        cache.get(new Job(TOOL, 20), dispatcher);
+        assertEquals(3, dispatcher.jobs.size());
+    }
+
+    @Test
+    public void invalidateDropsResultsAndJobsInFlight() {
+        learnDeterministic();
+        CompletableFuture<Message> running = cache.get(new Job(TOOL, 30), dispatcher);
+        cache.invalidate(TOOL);
+
+        // the new version of the tool is not known to be deterministic, a job of it goes its own way
+        CompletableFuture<Message> after = cache.get(new Job(TOOL, 30), dispatcher);
+        assertEquals(3, dispatcher.jobs.size());
+        dispatcher.reply(2, JOB_RESULT, "new");
+        assertEquals("new", after.join().getContent());
+
+        // the result of the job dispatched before is not cached
+        dispatcher.reply(1, CACHEABLE_JOB_RESULT, "old");
+        assertEquals("old", running.join().getContent());
+        cache.get(new Job(TOOL, 30), dispatcher);
+        assertEquals(4, dispatcher.jobs.size());
+
+        // neither is the result of the new version dispatched before it was learned to be deterministic
+        cache.get(new Job(TOOL, 0), dispatcher);
+        dispatcher.reply(4, CACHEABLE_JOB_RESULT, 0);
+        cache.get(new Job(TOOL, 0), dispatcher);
+        assertEquals("cached once the new version is known to be deterministic", 5, dispatcher.jobs.size());
+    }
+
+    @Test
+    public void resultOfReplacedVersionIsNotCached() {
+        // the first reply from the old version arrives after the new version has been registered
+        CompletableFuture<Message> running = cache.get(new Job(TOOL, 40), dispatcher);
+        cache.invalidate(TOOL);
+        dispatcher.reply(0, CACHEABLE_JOB_RESULT, "old");
+        assertEquals("old", running.join().getContent());
+
+        cache.get(new Job(TOOL, 40), dispatcher);
+        assertEquals("dispatched again", 2, dispatcher.jobs.size());
+    }
+
+    /**
+     * Runs a job whose reply tells the cache that the tool is deterministic
+     */
+    private void learnDeterministic() {
+        cache.get(new Job(TOOL, 0), dispatcher);
+        dispatcher.reply(dispatcher.jobs.size() - 1, CACHEABLE_JOB_RESULT, 0);
+    }
+
+    /**
+     * Class [Dispatcher] Records the jobs dispatched, and the futures for their replies
+     */
+    private static class Dispatcher implements Function<Job, CompletableFuture<Message>> {
+
+        final List<Job> jobs = new ArrayList<>();
+        final List<CompletableFuture<Message>> futures = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<Message> apply(Job job) {
+            CompletableFuture<Message> future = new CompletableFuture<>();
+            jobs.add(job);
+            futures.add(future);
+            return future;
+        }
+
+        void reply(int index, int type, Object result) {
+            futures.get(index).complete(new Message(type, result, index));
+        }
+    }
+}
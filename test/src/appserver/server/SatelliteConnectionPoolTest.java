@@ -0,0 +1,85 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import appserver.job.Job;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Class [SatelliteConnectionPoolTest] Closing the connections to a satellite while one is being established,
+ * the satellite is played by the test on the other end of loopback connections.
+ */
+public class SatelliteConnectionPoolTest {
+
+    private ServerSocket socket;
+    private ConnectivityInfo info;
+    private final SatelliteConnectionPool pool = new SatelliteConnectionPool(1, new int[]{MessageCodecs.BINARY});
+
+    @Before
+    public void listen() throws IOException {
+        socket = new ServerSocket(0);
+        socket.setSoTimeout(10000);
+        info = new ConnectivityInfo();
+        info.setName("Test");
+        info.setHost("127.0.0.1");
+        info.setPort(socket.getLocalPort());
+    }
+
+    @After
+    public void close() throws IOException {
+        pool.closeConnections(info.getName());
+        socket.close();
+    }
+
+    @Test
+    public void connectionEstablishedAfterCloseIsNotKept() throws Exception {
+        // the connection waits for the satellite to answer the codec negotiation
+        CompletableFuture<Message> job = pool.send(info, new Message(JOB_REQUEST, new Job("PlusOne", 1)));
+        pool.closeConnections(info.getName());
+
+        MessageChannel satellite = accept();
+        try {
+            job.get(10, TimeUnit.SECONDS);
+            fail("connections were closed");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+        try {
+            satellite.receive();
+            fail("connection was closed by the pool");
+        } catch (EOFException e) {
+            // expected
+        } finally {
+            satellite.close();
+        }
+
+        // jobs sent afterwards get a new connection
+        job = pool.send(info, new Message(JOB_REQUEST, new Job("PlusOne", 2)));
+        satellite = accept();
+        Message request = satellite.receive();
+        satellite.send(new Message(JOB_RESULT, 3, request.getId()));
+        assertEquals(3, job.get(10, TimeUnit.SECONDS).getContent());
+        satellite.close();
+    }
+
+    private MessageChannel accept() throws IOException {
+        MessageChannel channel = MessageChannel.accept(socket.accept());
+        channel.getSocket().setSoTimeout(10000);
+        return channel;
+    }
+}
@@ -0,0 +1,198 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import appserver.comm.Message;
+import appserver.comm.MessageChannel;
+import appserver.comm.MessageCodecs;
+import static appserver.comm.MessageTypes.JOB_FAILED;
+import static appserver.comm.MessageTypes.JOB_REQUEST;
+import static appserver.comm.MessageTypes.JOB_RESULT;
+import static appserver.comm.MessageTypes.STREAM_CANCEL;
+import static appserver.comm.MessageTypes.STREAM_CHUNK;
+import static appserver.comm.MessageTypes.STREAM_REQUEST;
+import appserver.job.Job;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [SatelliteConnectionTest] Bookkeeping of the requests in flight on a connection to a satellite,
+ * the satellite is played by the test on the other end of a loopback connection.
+ */
+public class SatelliteConnectionTest {
+
+    private SatelliteConnection connection;
+    private MessageChannel satellite;
+
+    @Before
+    public void connect() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            ConnectivityInfo info = new ConnectivityInfo();
+            info.setName("Test");
+            info.setHost("127.0.0.1");
+            info.setPort(socket.getLocalPort());
+            CompletableFuture<SatelliteConnection> connecting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new SatelliteConnection(info, new int[]{MessageCodecs.BINARY});
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            satellite = MessageChannel.accept(socket.accept());
+            connection = connecting.get();
+        }
+    }
+
+    @After
+    public void disconnect() throws IOException {
+        connection.close();
+        satellite.close();
+    }
+
+    @Test
+    public void matchesRepliesToRequests() throws Exception {
+        CompletableFuture<Message> first = connection.send(new Message(JOB_REQUEST, new Job("PlusOne", 1)));
+        CompletableFuture<Message> second = connection.send(new Message(JOB_REQUEST, new Job("PlusOne", 2)));
+        Message firstRequest = satellite.receive();
+        Message secondRequest = satellite.receive();
+        assertEquals(2, connection.pendingRequests());
+
+        // answered in reverse order
+        satellite.send(new Message(JOB_RESULT, 3, secondRequest.getId()));
+        satellite.send(new Message(JOB_RESULT, 2, firstRequest.getId()));
+        assertEquals(2, first.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals(3, second.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals(0, connection.pendingRequests());
+    }
+
+    @Test
+    public void cancelledStreamIsForgottenOnItsTerminalReply() throws Exception {
+        RecordingStream stream = new RecordingStream();
+        connection.send(new Message(STREAM_REQUEST, new Job("FibonacciSequence", 100)), stream);
+        Message request = satellite.receive();
+        assertEquals(STREAM_REQUEST, request.getType());
+        satellite.send(new Message(STREAM_CHUNK, 1L, request.getId()));
+        assertEquals(STREAM_CHUNK, stream.next().getType());
+
+        connection.post(new Message(STREAM_CANCEL, null, stream.id));
+        Message cancel = satellite.receive();
+        assertEquals(STREAM_CANCEL, cancel.getType());
+        assertEquals(request.getId(), cancel.getId());
+        assertEquals("stream is open until its terminal reply", 1, connection.pendingRequests());
+
+        // chunks already on their way when the cancellation arrived, then the terminal reply
+        satellite.send(new Message(STREAM_CHUNK, 1L, request.getId()));
+        satellite.send(new Message(JOB_FAILED, "Stream #" + request.getId() + " cancelled", request.getId()));
+        assertEquals(STREAM_CHUNK, stream.next().getType());
+        assertEquals(JOB_FAILED, stream.next().getType());
+        awaitNoPendingRequests();
+        assertTrue(connection.isOpen());
+        assertTrue(stream.failures.isEmpty());
+    }
+
+    @Test
+    public void failsPendingRequestsWhenSatelliteGoesAway() throws Exception {
+        CompletableFuture<Message> job = connection.send(new Message(JOB_REQUEST, new Job("PlusOne", 1)));
+        RecordingStream stream = new RecordingStream();
+        connection.send(new Message(STREAM_REQUEST, new Job("FibonacciSequence", 100)), stream);
+        satellite.receive();
+        satellite.receive();
+
+        satellite.close();
+        try {
+            job.get(5, TimeUnit.SECONDS);
+            fail("satellite went away");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+        }
+        assertNotNull(stream.failures.poll(5, TimeUnit.SECONDS));
+        awaitNoPendingRequests();
+        assertFalse(connection.isOpen());
+
+        // requests sent after that fail right away
+        RecordingStream late = new RecordingStream();
+        connection.send(new Message(STREAM_REQUEST, new Job("FibonacciSequence", 100)), late);
+        assertNotNull(late.failures.poll(0, TimeUnit.SECONDS));
+        assertTrue(connection.send(new Message(JOB_REQUEST, new Job("PlusOne", 1))).isCompletedExceptionally());
+    }
+
+    @Test
+    public void failsPendingRequestsWhenReplyCannotBeHandled() throws Exception {
+        CompletableFuture<Message> job = connection.send(new Message(JOB_REQUEST, new Job("PlusOne", 1)));
+        connection.send(new Message(STREAM_REQUEST, new Job("FibonacciSequence", 100)), new RecordingStream() {
+            @Override
+            public boolean onReply(Message reply) {
+                throw new ClassCastException("unexpected content");
+            }
+        });
+        satellite.receive();
+        Message request = satellite.receive();
+
+        satellite.send(new Message(STREAM_CHUNK, "not a chunk", request.getId()));
+        try {
+            job.get(5, TimeUnit.SECONDS);
+            fail("connection failed");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ClassCastException);
+        }
+        awaitNoPendingRequests();
+        assertFalse("taken out of service", connection.isOpen());
+    }
+
+    /**
+     * Waits for the reader thread to forget the requests answered, it does so right after handing over the reply
+     */
+    private void awaitNoPendingRequests() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.pendingRequests() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, connection.pendingRequests());
+    }
+
+    /**
+     * Class [RecordingStream] Keeps the replies and failures of a stream for the test to look at,
+     * the terminal replies are STREAM_END and JOB_FAILED as with a satellite
+     */
+    private static class RecordingStream implements SatelliteConnection.ReplyStream {
+
+        final BlockingQueue<Message> replies = new LinkedBlockingQueue<>();
+        final BlockingQueue<Exception> failures = new LinkedBlockingQueue<>();
+        volatile long id;
+
+        @Override
+        public boolean onReply(Message reply) {
+            replies.add(reply);
+            return reply.getType() == STREAM_CHUNK;
+        }
+
+        @Override
+        public void onFailure(Exception cause) {
+            failures.add(cause);
+        }
+
+        @Override
+        public void onSent(SatelliteConnection connection, long id) {
+            this.id = id;
+        }
+
+        Message next() throws InterruptedException {
+            Message reply = replies.poll(5, TimeUnit.SECONDS);
+            assertNotNull("reply within 5 seconds", reply);
+            return reply;
+        }
+    }
+}
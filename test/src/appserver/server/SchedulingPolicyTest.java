@@ -0,0 +1,124 @@
+package appserver.server;
+
+import appserver.comm.ConnectivityInfo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [SchedulingPolicyTest] Choices of the scheduling policies, the load of the satellites is set up by the test.
+ * Jobs handed out are accounted as in flight, none of them completes unless the test says so.
+ */
+public class SchedulingPolicyTest {
+
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void roundRobinTakesSatellitesInTurn() {
+        SatelliteEntry[] satellites = satellites(3);
+        satellites[0].getLoad().jobsDispatched(10);
+        SchedulingPolicy policy = new RoundRobinPolicy();
+        for (int i = 0; i < 6; i++) {
+            assertSame(satellites[i % 3], policy.select(satellites));
+        }
+    }
+
+    @Test
+    public void leastOutstandingTakesLeastBusySatellite() {
+        SatelliteEntry[] satellites = satellites(3);
+        satellites[0].getLoad().jobsDispatched(2);
+        satellites[1].getLoad().jobsDispatched(1);
+        satellites[2].getLoad().jobsDispatched(3);
+        SchedulingPolicy policy = new LeastOutstandingPolicy();
+        assertSame(satellites[1], policy.select(satellites));
+
+        // ties are shared
+        int[] jobs = dispatch(policy, satellites(4), 40);
+        for (int count : jobs) {
+            assertEquals(10, count);
+        }
+    }
+
+    @Test
+    public void powerOfTwoChoicesNeverTakesBusiestSatellite() {
+        SatelliteEntry[] satellites = satellites(3);
+        satellites[2].getLoad().jobsDispatched(5);
+        SchedulingPolicy policy = new PowerOfTwoChoicesPolicy();
+        for (int i = 0; i < 100; i++) {
+            assertNotSame(satellites[2], policy.select(satellites));
+        }
+
+        SatelliteEntry[] single = satellites(1);
+        assertSame(single[0], policy.select(single));
+    }
+
+    @Test
+    public void ewmaSendsMoreJobsToFasterSatellite() {
+        SatelliteEntry[] satellites = satellites(2);
+        complete(satellites[0], 1 * MILLIS);
+        complete(satellites[1], 3 * MILLIS);
+        int[] jobs = dispatch(new EwmaLatencyPolicy(), satellites, 40);
+        assertEquals(30, jobs[0]);
+        assertEquals(10, jobs[1]);
+    }
+
+    @Test
+    public void ewmaGivesNewSatelliteItsShare() {
+        SatelliteEntry[] satellites = satellites(3);
+        complete(satellites[0], 10 * MILLIS);
+        complete(satellites[1], 10 * MILLIS);
+        // satellites[2] registered just now, no job completed yet
+        int[] jobs = dispatch(new EwmaLatencyPolicy(), satellites, 30);
+        for (int count : jobs) {
+            assertEquals(10, count);
+        }
+    }
+
+    @Test
+    public void ewmaWithoutSamplesTakesLeastBusySatellite() {
+        SatelliteEntry[] satellites = satellites(3);
+        satellites[0].getLoad().jobsDispatched(1);
+        satellites[2].getLoad().jobsDispatched(1);
+        assertSame(satellites[1], new EwmaLatencyPolicy().select(satellites));
+        int[] jobs = dispatch(new EwmaLatencyPolicy(), satellites, 7);
+        assertArrayEquals(new int[]{2, 3, 2}, jobs);
+    }
+
+    /**
+     * Hands out jobs, each of them is accounted as in flight on the satellite selected
+     * @return number of jobs each satellite got
+     */
+    private static int[] dispatch(SchedulingPolicy policy, SatelliteEntry[] satellites, int count) {
+        int[] jobs = new int[satellites.length];
+        for (int i = 0; i < count; i++) {
+            SatelliteEntry selected = policy.select(satellites);
+            selected.getLoad().jobsDispatched(1);
+            for (int j = 0; j < satellites.length; j++) {
+                if (satellites[j] == selected) {
+                    jobs[j]++;
+                }
+            }
+        }
+        return jobs;
+    }
+
+    private static void complete(SatelliteEntry satellite, long latencyNanos) {
+        satellite.getLoad().jobsDispatched(1);
+        satellite.getLoad().jobCompleted(latencyNanos, true);
+    }
+
+    private static SatelliteEntry[] satellites(int count) {
+        SatelliteEntry[] satellites = new SatelliteEntry[count];
+        for (int i = 0; i < count; i++) {
+            ConnectivityInfo info = new ConnectivityInfo();
+            info.setName("Satellite" + i);
+            info.setHost("127.0.0.1");
+            info.setPort(25000 + i);
+            satellites[i] = new SatelliteEntry(info);
+        }
+        return satellites;
+    }
+}
@@ -0,0 +1,142 @@
+package web;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import utils.Log;
+
+/**
+ * Class [HotFileCacheTest] Responses kept by the hot file cache, and dropped when their files change,
+ * in a document root of the test's own.
+ */
+public class HotFileCacheTest {
+
+    private static final String TEXT = "text/plain";
+
+    private Path docRoot;
+    private HotFileCache cache;
+
+    @Before
+    public void createDocRoot() throws IOException {
+        docRoot = Files.createTempDirectory("test-docroot-");
+        Files.createDirectories(docRoot.resolve("appserver/job/impl"));
+        Path published = new File(System.getProperty("test.docRoot", "docRoot"), "appserver/job/impl").toPath();
+        for (String name : new String[]{"PlusOne.class", "PlusOneAux.class"}) {
+            Files.copy(published.resolve(name), docRoot.resolve("appserver/job/impl/" + name), StandardCopyOption.REPLACE_EXISTING);
+        }
+        write("index.html", "first version");
+        cache = new HotFileCache(docRoot.toString(), 1 << 20, 1 << 16);
+    }
+
+    @After
+    public void deleteDocRoot() throws IOException {
+        try (Stream<Path> files = Files.walk(docRoot)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void keepsResponseWithHeadersAndContent() throws IOException {
+        HotFileCache.Response response = cache.getFile("index.html", TEXT);
+        String rendered = text(response);
+        assertTrue(rendered, rendered.contains("Content-length: 13\r\n"));
+        assertTrue(rendered, rendered.contains("ETag: " + response.etag + "\r\n"));
+        assertTrue(rendered, rendered.endsWith("\r\n\r\nfirst version"));
+        assertSame(response, cache.getFile("index.html", TEXT));
+
+        assertNull("no such file", cache.getFile("missing.html", TEXT));
+        write("large.bin", new String(new char[1 << 17]));
+        assertNull("too large", cache.getFile("large.bin", TEXT));
+    }
+
+    @Test
+    public void dropsResponseWhenFileChanges() throws Exception {
+        HotFileCache.Response first = cache.getFile("index.html", TEXT);
+        write("index.html", "second, longer version");
+        HotFileCache.Response second = awaitChange("index.html", first);
+        assertTrue(text(second), text(second).endsWith("second, longer version"));
+
+        Files.delete(docRoot.resolve("index.html"));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cache.getFile("index.html", TEXT) != null) {
+            assertTrue("deleted file dropped", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void dropsBundleWhenAnyOfItsClassFilesChanges() throws Exception {
+        HotFileCache.Response bundle = cache.getBundle("appserver/job/impl/PlusOne.class");
+        assertNotNull(bundle);
+        assertEquals("tool and its helper class", 2, bundle.files.size());
+        assertSame(bundle, cache.getBundle("appserver/job/impl/PlusOne.class"));
+
+        // the helper class changes, not the class the bundle was requested for
+        Path helper = docRoot.resolve("appserver/job/impl/PlusOneAux.class");
+        Files.write(helper, Files.readAllBytes(helper));
+        helper.toFile().setLastModified(System.currentTimeMillis() + 60000);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cache.getBundle("appserver/job/impl/PlusOne.class") == bundle) {
+            assertTrue("bundle dropped", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        assertNotEquals(bundle.etag, cache.getBundle("appserver/job/impl/PlusOne.class").etag);
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedResponses() throws IOException {
+        // written before the cache watches them
+        write("a.txt", new String(new char[400]));
+        write("b.txt", new String(new char[400]));
+        HotFileCache small = new HotFileCache(docRoot.toString(), 1000, 1000);
+        HotFileCache.Response a = small.getFile("a.txt", TEXT);
+        HotFileCache.Response b = small.getFile("b.txt", TEXT);
+        // a was used last, b is dropped
+        assertSame(a, small.getFile("a.txt", TEXT));
+        small.getFile("index.html", TEXT);
+        assertSame(a, small.getFile("a.txt", TEXT));
+        assertNotSame(b, small.getFile("b.txt", TEXT));
+    }
+
+    /**
+     * Requests a file until the response differs from the one cached before the file changed
+     */
+    private HotFileCache.Response awaitChange(String path, HotFileCache.Response before) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            HotFileCache.Response response = cache.getFile(path, TEXT);
+            if (response != before) {
+                return response;
+            }
+            assertTrue("response for " + path + " dropped", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.write(docRoot.resolve(path), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String text(HotFileCache.Response response) {
+        ByteBuffer buffer = response.getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,83 @@
+package web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Class [SimpleWebServerTest] Parsing of "Range" headers. The web server is created but not started,
+ * the header is parsed as a connection of it would.
+ */
+public class SimpleWebServerTest {
+
+    private static final long LENGTH = 1000;
+    private static final long[] WHOLE_FILE = new long[0];
+
+    private static File properties;
+    private static SimpleWebServer.SocketThread connection;
+
+    @BeforeClass
+    public static void createWebServer() throws IOException {
+        properties = File.createTempFile("WebServer-", ".properties");
+        try (PrintWriter writer = new PrintWriter(properties, "ISO-8859-1")) {
+            writer.println("PORT\t0");
+            writer.println("DOC_ROOT\t" + new File(System.getProperty("test.docRoot", "docRoot")).getAbsolutePath());
+        }
+        SimpleWebServer webServer = new SimpleWebServer(properties.getAbsolutePath());
+        connection = webServer.new SocketThread(null);
+    }
+
+    @AfterClass
+    public static void deleteProperties() {
+        properties.delete();
+    }
+
+    @Test
+    public void parsesSingleRanges() {
+        assertArrayEquals(new long[]{0, 99}, parse("bytes=0-99"));
+        assertArrayEquals(new long[]{500, 999}, parse("bytes=500-"));
+        assertArrayEquals(new long[]{999, 999}, parse("bytes=999-999"));
+        assertArrayEquals(new long[]{900, 999}, parse("bytes=-100"));
+        assertArrayEquals(new long[]{0, 999}, parse("bytes= 0-999 "));
+    }
+
+    @Test
+    public void clampsRangesToFile() {
+        // last byte beyond the end of the file
+        assertArrayEquals(new long[]{990, 999}, parse("bytes=990-5000"));
+        assertArrayEquals(new long[]{990, 999}, parse("bytes=990-" + Long.MAX_VALUE));
+        // suffix longer than the file
+        assertArrayEquals(new long[]{0, 999}, parse("bytes=-5000"));
+    }
+
+    @Test
+    public void refusesUnsatisfiableRanges() {
+        assertNull(parse("bytes=1000-"));
+        assertNull(parse("bytes=1000-1999"));
+        assertNull(parse("bytes=-0"));
+        assertNull(connection.parseRange("bytes=0-", 0));
+        assertNull(connection.parseRange("bytes=-10", 0));
+    }
+
+    @Test
+    public void ignoresRangesItDoesNotServe() {
+        assertArrayEquals(WHOLE_FILE, parse("items=0-99"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=0-9,20-29"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=100"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=-"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=99-10"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=x-10"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=--10"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=10--5"));
+        assertArrayEquals(WHOLE_FILE, parse("bytes=0-99999999999999999999"));
+    }
+
+    private static long[] parse(String range) {
+        return connection.parseRange(range, LENGTH);
+    }
+}